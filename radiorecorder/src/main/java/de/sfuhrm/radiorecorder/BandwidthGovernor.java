@@ -0,0 +1,358 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import de.sfuhrm.radiorecorder.http.ByteBufferSource;
+import de.sfuhrm.radiorecorder.http.FilterHttpConnection;
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the aggregate ingest bandwidth of all stations.
+ * Each station registers a {@link Share} with a priority and a guaranteed
+ * minimum. The minimum is reserved for the station, the remaining budget
+ * goes to the stations with the highest priority first. When the budget
+ * is exhausted, stations with lower priorities are slowed down to
+ * their minimum, or paused if their minimum is zero.
+ * Waiting uses a {@link ReentrantLock} so that virtual threads
+ * reading the streams are not pinned to their carrier.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class BandwidthGovernor {
+
+    /** The time the bucket can save tokens for. */
+    static final long BURST_MILLIS = 1000;
+
+    /** The maximum time to wait before checking the bucket again. */
+    private static final long MAX_WAIT_MILLIS = 100;
+
+    /** The interval for logging the usage. */
+    private static final long LOG_INTERVAL_MILLIS = 60_000;
+
+    private static final Map<Long, BandwidthGovernor> GOVERNORS = new ConcurrentHashMap<>();
+
+    /** The overall budget in bytes per second. */
+    @Getter
+    private final long bytesPerSecond;
+
+    private final LongSupplier clock;
+
+    private final Set<Share> shares = new CopyOnWriteArraySet<>();
+
+    /** Guards the tokens and the usage of all shares. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a share stops waiting or is closed. */
+    private final Condition changed = lock.newCondition();
+
+    /** Tokens of the shared budget, can be negative after large reads. */
+    private double tokens;
+
+    private long lastRefill;
+
+    private long lastLog;
+
+    /** Constructor.
+     * @param bytesPerSecond the overall budget in bytes per second.
+     * @param clock the source of the current time in milliseconds.
+     */
+    BandwidthGovernor(long bytesPerSecond, LongSupplier clock) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Illegal bandwidth " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.clock = clock;
+        this.lastRefill = clock.getAsLong();
+        this.lastLog = lastRefill;
+    }
+
+    /** Get the process wide governor for a budget.
+     * @param bytesPerSecond the overall budget in bytes per second.
+     * @return the governor shared by all stations with the same budget.
+     */
+    public static BandwidthGovernor forLimit(long bytesPerSecond) {
+        return GOVERNORS.computeIfAbsent(bytesPerSecond, b -> new BandwidthGovernor(b, System::currentTimeMillis));
+    }
+
+    /** Registers a station.
+     * @param name the name of the station.
+     * @param priority the priority, higher values get bandwidth first.
+     * @param minimumBytesPerSecond the bandwidth guaranteed to the station.
+     * @return the share of the station, to be closed when the station ends.
+     */
+    public Share register(String name, int priority, long minimumBytesPerSecond) {
+        Share share = new Share(name, priority, minimumBytesPerSecond);
+        shares.add(share);
+        return share;
+    }
+
+    /** Get the current usage of all stations.
+     * @return the bytes per second by station name, as measured in the last second.
+     */
+    public Map<String, Long> getUsage() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        long now = clock.getAsLong();
+        for (Share share : shares) {
+            result.merge(share.name, share.usage(now), Long::sum);
+        }
+        return result;
+    }
+
+    /** Adds the tokens accumulated since the last refill. */
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) {
+            return;
+        }
+        lastRefill = now;
+        long reserved = 0;
+        for (Share share : shares) {
+            share.refill(elapsed);
+            reserved += share.minimumBytesPerSecond;
+        }
+        long sharedRate = Math.max(0, bytesPerSecond - reserved);
+        tokens = Math.min(sharedRate * BURST_MILLIS / 1000.0, tokens + sharedRate * elapsed / 1000.0);
+    }
+
+    private boolean higherPriorityWaiting(Share share) {
+        for (Share other : shares) {
+            if (other.waiting && other.priority > share.priority) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Waits until the share may consume the given amount of bytes. */
+    private void acquire(Share share, int bytes) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            acquireLocked(share, bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits until the share may consume the given amount of bytes, holding the lock. */
+    private void acquireLocked(Share share, int bytes) throws InterruptedException {
+        long waitStart = -1;
+        try {
+            while (true) {
+                long now = clock.getAsLong();
+                refill(now);
+                if (share.tokens > 0) {
+                    share.tokens -= bytes;
+                    break;
+                }
+                if (tokens > 0 && !higherPriorityWaiting(share)) {
+                    tokens -= bytes;
+                    break;
+                }
+                if (waitStart == -1) {
+                    waitStart = now;
+                    share.waiting = true;
+                }
+                changed.await(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (waitStart != -1) {
+                share.waiting = false;
+                share.throttledMillis += clock.getAsLong() - waitStart;
+                changed.signalAll();
+            }
+        }
+        long now = clock.getAsLong();
+        share.count(now, bytes);
+        if (now - lastLog >= LOG_INTERVAL_MILLIS) {
+            lastLog = now;
+            log.info("Bandwidth usage of {} bytes/s in bytes/s: {}", bytesPerSecond, getUsage());
+        }
+    }
+
+    /** The bandwidth share of one station. */
+    public final class Share implements AutoCloseable {
+        private final String name;
+
+        /** The priority, higher values get bandwidth first. */
+        @Getter
+        private final int priority;
+
+        /** The bandwidth reserved for this share. */
+        @Getter
+        private final long minimumBytesPerSecond;
+
+        /** Tokens of the guaranteed minimum, can be negative after large reads. */
+        private double tokens;
+
+        /** Whether the share is waiting for tokens. */
+        private volatile boolean waiting;
+
+        /** The total time reads of this share were delayed. */
+        private volatile long throttledMillis;
+
+        /** Start of the current usage window. */
+        private long windowStart;
+        private long windowBytes;
+
+        /** Bytes per second of the last complete usage window. */
+        private long lastUsage;
+
+        private Share(String name, int priority, long minimumBytesPerSecond) {
+            if (minimumBytesPerSecond < 0) {
+                throw new IllegalArgumentException("Illegal minimum " + minimumBytesPerSecond);
+            }
+            this.name = name;
+            this.priority = priority;
+            this.minimumBytesPerSecond = minimumBytesPerSecond;
+            this.windowStart = clock.getAsLong();
+        }
+
+        private void refill(long elapsed) {
+            tokens = Math.min(minimumBytesPerSecond * BURST_MILLIS / 1000.0,
+                    tokens + minimumBytesPerSecond * elapsed / 1000.0);
+        }
+
+        private void count(long now, int bytes) {
+            if (now - windowStart >= 1000) {
+                lastUsage = windowBytes * 1000 / (now - windowStart);
+                windowStart = now;
+                windowBytes = 0;
+            }
+            windowBytes += bytes;
+        }
+
+        private long usage(long now) {
+            lock.lock();
+            try {
+                // no bytes for a whole window
+                return now - windowStart >= 2000 ? 0 : lastUsage;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Get the total time reads of this share were delayed.
+         * @return the milliseconds spent waiting for bandwidth.
+         */
+        public long getThrottledMillis() {
+            return throttledMillis;
+        }
+
+        /** Waits until the given amount of bytes may be consumed.
+         * @param bytes the number of bytes to consume.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public void acquire(int bytes) throws InterruptedException {
+            BandwidthGovernor.this.acquire(this, bytes);
+        }
+
+        /** Throttles the body of a connection to this share.
+         * @param connection the connection to throttle.
+         * @return the throttled connection.
+         */
+        public HttpConnection throttle(@NonNull HttpConnection connection) {
+            return new FilterHttpConnection(connection) {
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new ThrottledInputStream(delegate.getInputStream());
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            shares.remove(this);
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Acquires the bytes read from the share. */
+        private class ThrottledInputStream extends FilterInputStream implements ByteBufferSource {
+            ThrottledInputStream(InputStream in) {
+                super(in);
+            }
+
+            private void throttle(long bytes) throws IOException {
+                if (bytes <= 0) {
+                    return;
+                }
+                try {
+                    acquire((int) bytes);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling");
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                int result = super.read();
+                throttle(result == -1 ? 0 : 1);
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int result = super.read(b, off, len);
+                throttle(result);
+                return result;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long result = super.skip(n);
+                throttle(result);
+                return result;
+            }
+
+            @Override
+            public boolean providesBuffers() {
+                return ByteBufferSource.of(in) != null;
+            }
+
+            @Override
+            public ByteBuffer nextBuffer() throws IOException {
+                ByteBuffer result = ByteBufferSource.of(in).nextBuffer();
+                if (result != null) {
+                    throttle(result.remaining());
+                }
+                return result;
+            }
+        }
+    }
+}
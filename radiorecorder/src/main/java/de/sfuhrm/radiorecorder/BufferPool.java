@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+
+/**
+ * Process wide pool of the byte arrays and direct buffers used
+ * by the consumers and filter streams.
+ * Buffers are pooled in power of two size classes. A leased buffer can be
+ * larger than requested and is not cleared.
+ * Every leased buffer needs to be returned exactly once. The number of
+ * leased buffers is always counted; with the system property
+ * {@value #LEAK_DETECTION_PROPERTY} the stack traces of the leases
+ * are recorded, too.
+ * @author Stephan Fuhrmann
+ */
+public final class BufferPool {
+
+    /** The system property enabling recording the stack traces of leases. */
+    public static final String LEAK_DETECTION_PROPERTY = "de.sfuhrm.radiorecorder.leakDetection";
+
+    /** The smallest pooled size. */
+    static final int MIN_SIZE = 256;
+
+    /** The largest pooled size, larger buffers are allocated for each lease. */
+    static final int MAX_SIZE = 1024 * 1024;
+
+    /** The alignment of direct buffers, suitable for direct I/O. */
+    public static final int DIRECT_ALIGNMENT = 4096;
+
+    /** The buffers kept per size class. */
+    static final int MAX_POOLED = 64;
+
+    /** The largest read buffer for a station. */
+    static final int MAX_READ_SIZE = 64 * 1024;
+
+    private static final BufferPool INSTANCE = new BufferPool(Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+    private final List<ArrayBlockingQueue<byte[]>> arrays = new ArrayList<>();
+    private final List<ArrayBlockingQueue<ByteBuffer>> directs = new ArrayList<>();
+
+    private final AtomicInteger leased = new AtomicInteger();
+
+    /** The stack traces of the leased buffers, or {@code null} without leak detection. */
+    private final Map<Object, Throwable> leases;
+
+    /** Constructor.
+     * @param leakDetection whether to record the stack traces of leases.
+     */
+    BufferPool(boolean leakDetection) {
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size <<= 1) {
+            arrays.add(new ArrayBlockingQueue<>(MAX_POOLED));
+            directs.add(new ArrayBlockingQueue<>(MAX_POOLED));
+        }
+        leases = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    /** Get the process wide pool.
+     * @return the pool shared by all stations.
+     */
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /** Get the read buffer size for a station.
+     * @param bytesPerSecond the expected bytes per second, or 0 if unknown.
+     * @return a power of two holding about a quarter second of audio,
+     * at least {@link RadioRunnable#BUFFER_SIZE}.
+     */
+    public static int sizeFor(long bytesPerSecond) {
+        int size = BUFFER_SIZE;
+        while (size < bytesPerSecond / 4 && size < MAX_READ_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /** Get the size class of a size.
+     * @return the index of the size class, or -1 if not pooled.
+     */
+    private static int sizeClass(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        int rounded = Math.max(MIN_SIZE, Integer.highestOneBit(size - 1) << 1);
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /** Leases a byte array.
+     * @param size the minimum size of the array.
+     * @return an array with at least the given size and undefined content.
+     */
+    public byte[] acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Illegal size " + size);
+        }
+        int sizeClass = sizeClass(size);
+        byte[] result = sizeClass >= 0 ? arrays.get(sizeClass).poll() : null;
+        if (result == null) {
+            result = new byte[sizeClass >= 0 ? MIN_SIZE << sizeClass : size];
+        }
+        leased(result);
+        return result;
+    }
+
+    /** Returns a leased byte array.
+     * @param array the array from {@link #acquire(int)}.
+     */
+    public void release(byte[] array) {
+        returned(array);
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass >= 0 && array.length == MIN_SIZE << sizeClass) {
+            arrays.get(sizeClass).offer(array);
+        }
+    }
+
+    /** Leases a direct buffer aligned to {@link #DIRECT_ALIGNMENT}.
+     * @param size the minimum capacity of the buffer.
+     * @return a cleared buffer with at least the given capacity.
+     */
+    public ByteBuffer acquireDirect(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Illegal size " + size);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer result = sizeClass >= 0 ? directs.get(sizeClass).poll() : null;
+        if (result == null) {
+            int capacity = sizeClass >= 0 ? MIN_SIZE << sizeClass : size;
+            result = ByteBuffer.allocateDirect(capacity + DIRECT_ALIGNMENT)
+                    .alignedSlice(DIRECT_ALIGNMENT)
+                    .slice(0, capacity);
+        }
+        leased(result);
+        return result;
+    }
+
+    /** Returns a leased direct buffer.
+     * @param buffer the buffer from {@link #acquireDirect(int)}.
+     */
+    public void release(ByteBuffer buffer) {
+        returned(buffer);
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass >= 0 && buffer.capacity() == MIN_SIZE << sizeClass) {
+            directs.get(sizeClass).offer(buffer.clear());
+        }
+    }
+
+    private void leased(Object buffer) {
+        leased.incrementAndGet();
+        if (leases != null) {
+            leases.put(buffer, new Throwable("Leased here"));
+        }
+    }
+
+    private void returned(Object buffer) {
+        if (leases != null && leases.remove(buffer) == null) {
+            throw new IllegalStateException("Buffer was not leased or already returned");
+        }
+        leased.decrementAndGet();
+    }
+
+    /** Get the number of buffers leased and not returned.
+     * @return the number of leased buffers.
+     */
+    public int getLeased() {
+        return leased.get();
+    }
+
+    /** Checks that all leased buffers were returned.
+     * @throws IllegalStateException if buffers are leased, with the
+     * stack traces of the leases as suppressed exceptions if recorded.
+     */
+    public void checkLeaks() {
+        int count = leased.get();
+        if (count == 0) {
+            return;
+        }
+        IllegalStateException exception = new IllegalStateException(count + " buffers leased and not returned");
+        if (leases != null) {
+            synchronized (leases) {
+                leases.values().forEach(exception::addSuppressed);
+            }
+        }
+        throw exception;
+    }
+}
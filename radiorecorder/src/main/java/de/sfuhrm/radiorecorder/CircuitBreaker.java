@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breaker shared by all stations connecting to the same host.
+ * After a number of consecutive connect failures the circuit opens
+ * and no station connects to the host until the cool down is over.
+ * Then a single station may try, and its result either closes the
+ * circuit or opens it again with a longer cool down.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    /** Consecutive failures that open the circuit. */
+    static final int FAILURE_THRESHOLD = 5;
+
+    /** Initial cool down of an open circuit in milliseconds. */
+    static final long INITIAL_OPEN_MILLIS = 10_000;
+
+    /** Maximum cool down of an open circuit in milliseconds. */
+    static final long MAX_OPEN_MILLIS = 300_000;
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String host;
+
+    private final LongSupplier clock;
+
+    /** Consecutive connect failures. */
+    private int failures;
+
+    /** The current cool down in milliseconds. */
+    private long openMillis = INITIAL_OPEN_MILLIS;
+
+    /** Until when no connects are allowed, 0 if closed. */
+    private long openUntil;
+
+    CircuitBreaker(String host, LongSupplier clock) {
+        this.host = host;
+        this.clock = clock;
+    }
+
+    /** Get the circuit breaker of a host.
+     * @param host the host name, may be {@code null}.
+     * @return the circuit breaker shared by all connections to the host.
+     * */
+    public static CircuitBreaker forHost(String host) {
+        String key = host != null ? host.toLowerCase() : "";
+        return BREAKERS.computeIfAbsent(key, k -> new CircuitBreaker(k, System::currentTimeMillis));
+    }
+
+    /** Asks for permission to connect.
+     * @return 0 if connecting is allowed, otherwise the milliseconds
+     * to wait before asking again.
+     * */
+    public synchronized long acquire() {
+        if (openUntil == 0) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        if (now < openUntil) {
+            return openUntil - now;
+        }
+        // half open: let this caller try, block the others meanwhile
+        log.info("Circuit for host {} is half open, trying", host);
+        openUntil = now + openMillis;
+        return 0;
+    }
+
+    /** Get the time until a connect may be allowed, without asking for permission.
+     * @return 0 if the circuit is closed or may be tried, otherwise the
+     * milliseconds to wait before asking again.
+     * */
+    public synchronized long getOpenMillis() {
+        if (openUntil == 0) {
+            return 0;
+        }
+        return Math.max(0, openUntil - clock.getAsLong());
+    }
+
+    /** Records a successful connect to the host. */
+    public synchronized void recordSuccess() {
+        if (openUntil != 0) {
+            log.info("Circuit for host {} is closed again", host);
+        }
+        failures = 0;
+        openUntil = 0;
+        openMillis = INITIAL_OPEN_MILLIS;
+    }
+
+    /** Records a failed connect to the host. */
+    public synchronized void recordFailure() {
+        failures++;
+        long now = clock.getAsLong();
+        if (openUntil != 0) {
+            // the trial failed
+            openMillis = Math.min(MAX_OPEN_MILLIS, openMillis * 2);
+            openUntil = now + openMillis;
+            log.warn("Circuit for host {} opened again for {} ms", host, openMillis);
+        } else if (failures >= FAILURE_THRESHOLD) {
+            openUntil = now + openMillis;
+            log.warn("Circuit for host {} opened for {} ms after {} failures", host, openMillis, failures);
+        }
+    }
+}
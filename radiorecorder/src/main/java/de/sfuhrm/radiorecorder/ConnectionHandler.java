@@ -16,6 +16,7 @@
 package de.sfuhrm.radiorecorder;
 
 import de.sfuhrm.radiorecorder.consumer.M3UConsumer;
+import de.sfuhrm.radiorecorder.consumer.MetaDataConsumer;
 import de.sfuhrm.radiorecorder.consumer.PLSConsumer;
 import de.sfuhrm.radiorecorder.consumer.StreamCastConsumer;
 import de.sfuhrm.radiorecorder.consumer.StreamCopyConsumer;
@@ -23,12 +24,17 @@ import de.sfuhrm.radiorecorder.consumer.StreamPlayConsumer;
 import de.sfuhrm.radiorecorder.http.HttpConnection;
 import de.sfuhrm.radiorecorder.http.HttpConnectionBuilder;
 import de.sfuhrm.radiorecorder.http.HttpConnectionBuilderFactory;
+import de.sfuhrm.radiorecorder.metadata.ContentType;
 import de.sfuhrm.radiorecorder.metadata.MimeType;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -48,7 +54,7 @@ public class ConnectionHandler {
           * */
     public ConnectionHandler(@NonNull ConsumerContext consumerContext) {
         this.consumerContext = Objects.requireNonNull(consumerContext);
-        this.builderFactory = new HttpConnectionBuilderFactory();
+        this.builderFactory = new HttpConnectionBuilderFactory(consumerContext.getHttpClientType());
     }
 
     /** Configure the timeout for the connection.
@@ -59,6 +65,13 @@ public class ConnectionHandler {
         builder.setReadTimeout(consumerContext.getTimeout());
     }
 
+    /** Configure the connection pool for the connection.
+     * @param builder the connection to configure.
+     */
+    protected void configurePool(HttpConnectionBuilder builder) {
+        builder.setMaxConnectionsPerHost(consumerContext.getMaxConnectionsPerHost());
+    }
+
     /** Configure the proxy for the connection.
      * @param builder the connection to configure.
      */
@@ -92,50 +105,163 @@ public class ConnectionHandler {
         configureTimeout(builder);
         configureClient(builder);
         configureProxy(builder);
+        configurePool(builder);
     }
 
     /** Opens the url using a configured connection. */
-    private HttpConnection openConnection(URI uri) throws RadioException {
+    private HttpConnection openConnection(URI uri, CircuitBreaker circuitBreaker) throws RadioException {
+        try {
+            return connect(uri, circuitBreaker);
+        } catch (IOException ex) {
+            throw new RadioException(true, ex);
+        }
+    }
+
+    /** Opens the url and records the outcome in the circuit breaker. */
+    private HttpConnection connect(URI uri, CircuitBreaker circuitBreaker) throws IOException {
         try {
             HttpConnectionBuilder builder = builderFactory.newInstance(uri);
             configure(builder);
-            return builder.build();
+            HttpConnection connection = builder.build();
+            circuitBreaker.recordSuccess();
+            return connection;
         } catch (IOException ex) {
-            throw new RadioException(true, ex);
+            circuitBreaker.recordFailure();
+            throw ex;
+        }
+    }
+
+    /** Opens an additional connection to the given URL, for example
+     * to replace a broken connection while a consumer is running.
+     * @param uri the URL to connect to. Must be non-null.
+     * @return the open connection. Needs to be closed by the caller.
+     * @throws IOException if connecting failed or the host circuit is open.
+     * */
+    public HttpConnection openStandby(@NonNull URI uri) throws IOException {
+        HttpConnection connection = openUnlessCircuitOpen(uri);
+        BandwidthGovernor.Share share = consumerContext.getBandwidthShare();
+        return share != null ? share.throttle(connection) : connection;
+    }
+
+    /** Opens the url without waiting for an open host circuit. */
+    private HttpConnection openUnlessCircuitOpen(URI uri) throws IOException {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forHost(uri.getHost());
+        long wait = circuitBreaker.acquire();
+        if (wait > 0) {
+            throw new IOException("Circuit for " + uri.getHost() + " is open for " + wait + " millis");
+        }
+        return connect(uri, circuitBreaker);
+    }
+
+    /** Connections lasting at least this long reset the retry delay. */
+    private static final long STABLE_CONNECTION_MILLIS = 30_000;
+
+    /** Waits for the retry delay and the circuit breakers of the hosts.
+     * @param delayMillis the retry delay, 0 for the first attempt.
+     * @param circuitWait the milliseconds to wait for the circuit breakers,
+     *                    0 if connecting is allowed.
+     * @return {@code true} if waiting finished,
+     * {@code false} if the thread was interrupted.
+     */
+    private boolean awaitRetry(long delayMillis, LongSupplier circuitWait) {
+        try {
+            if (delayMillis > 0) {
+                log.info("Sleeping for {} millis before retry", delayMillis);
+                Thread.sleep(delayMillis);
+            }
+            long wait;
+            while ((wait = circuitWait.getAsLong()) > 0) {
+                log.info("Host circuit is open, sleeping for {} millis", wait);
+                Thread.sleep(wait);
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            log.debug("Interrupted", ex);
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
-    private static final long GRACE_PERIOD = 5000;
+    /** Registers stream connections at the {@link StallWatchdog}.
+     * Playlist connections stay idle while their entries are consumed
+     * and are not watched.
+     * @return the watch, or {@code null} if not watched.
+     */
+    private StallWatchdog.Watch watchStalls(HttpConnection connection, Consumer<HttpConnection> consumer) {
+        Optional<Long> stallTimeout = consumerContext.getStallTimeout();
+        if (!stallTimeout.isPresent() || !(consumer instanceof MetaDataConsumer)) {
+            return null;
+        }
+        StallWatchdog.Watch watch = StallWatchdog.getInstance().watch(connection,
+                consumerContext.getRadio().getName(),
+                consumerContext.getExpectedBytesPerSecond(),
+                stallTimeout.get());
+        BandwidthGovernor.Share share = consumerContext.getBandwidthShare();
+        if (share != null) {
+            watch.excuseThrottling(share::getThrottledMillis);
+        }
+        return watch;
+    }
+
+    /** Limits the bandwidth of stream connections to the share of the radio. */
+    private HttpConnection throttle(HttpConnection connection, Consumer<HttpConnection> consumer) {
+        BandwidthGovernor.Share share = consumerContext.getBandwidthShare();
+        if (share == null || !(consumer instanceof MetaDataConsumer)) {
+            return connection;
+        }
+        return share.throttle(connection);
+    }
 
     /** Consumes the given URL.
      * @param uri the URL to process. Must be non-null.
      * @throws NullPointerException if url is null.
      * */
     public void consume(@NonNull URI uri) {
-        boolean first = true;
+        if (consumeCached(uri)) {
+            return;
+        }
         boolean loop = consumerContext.isReconnect();
         RadioException last = null;
+        RetryPolicy retryPolicy = consumerContext.getRetryPolicy();
+        CircuitBreaker circuitBreaker = CircuitBreaker.forHost(uri.getHost());
+        // consecutive failures
+        int failures = 0;
+        // when the connection was lost, -1 if never
+        long lostAt = -1;
 
         do {
-            if (!first) {
-                log.info("Sleeping for {} millis before retry", GRACE_PERIOD);
-                try {
-                    Thread.sleep(GRACE_PERIOD);
-                } catch (InterruptedException ex) {
-                    log.debug("Interrupted", ex);
-                }
+            if (!awaitRetry(failures > 0 ? retryPolicy.getDelayMillis(failures) : 0, circuitBreaker::acquire)) {
+                break;
+            }
+            if (failures > 0) {
                 log.info("Reconnecting.");
             }
-            try {
-                first = false;
-                HttpConnection connection = openConnection(uri);
-                Consumer<HttpConnection> consumer = consumerFromContentType(consumerContext, connection.getContentType());
-                consumer.accept(connection);
+            long connectedAt = -1;
+            try (HttpConnection connection = openConnection(uri, circuitBreaker)) {
+                connectedAt = System.currentTimeMillis();
+                if (lostAt != -1) {
+                    ReconnectStatistics statistics = consumerContext.getReconnectStatistics();
+                    statistics.record(connectedAt - lostAt);
+                    log.info("Reconnected after {} ms, {}", connectedAt - lostAt, statistics);
+                    lostAt = -1;
+                }
+                accept(connection);
                 loop = false;
             } catch (RadioException re) {
                 loop &= re.isRetryable();
                 last = re;
+                long now = System.currentTimeMillis();
+                // the gap starts when an established connection breaks, not at failed retries
+                if (connectedAt != -1 && lostAt == -1) {
+                    lostAt = now;
+                }
+                // a stable connection broke down: retry immediately
+                boolean stable = connectedAt != -1 && now - connectedAt >= STABLE_CONNECTION_MILLIS;
+                failures = stable ? 1 : failures + 1;
                 log.debug("Retrying after {}? retryable={}, will retry={}", re.getMessage(), re.isRetryable(), loop);
+            } catch (IOException ex) {
+                // the connection is released to the pool on close
+                log.debug("Error closing connection to {}", uri, ex);
             }
         } while (loop);
         if (last != null) {
@@ -143,8 +269,179 @@ public class ConnectionHandler {
         }
     }
 
-    private static Consumer<HttpConnection> consumerFromContentType(ConsumerContext cc, String contentType) {
-        Optional<MimeType> mimeType = MimeType.byContentType(contentType);
+    /** Consumes the cached final stream URL of the station, skipping
+     * playlists and redirects. A cached URL that does not deliver
+     * audio is dropped from the cache.
+     * @return {@code true} if the cached URL was consumed,
+     * {@code false} if the station needs to be resolved again.
+     */
+    private boolean consumeCached(URI uri) {
+        ResolutionCache cache = consumerContext.getResolutionCache();
+        if (cache == null || !uri.equals(consumerContext.getUri())) {
+            return false;
+        }
+        Optional<List<String>> cached = cache.get(ResolutionCache.Kind.STREAM, uri.toString());
+        if (!cached.isPresent() || cached.get().isEmpty()) {
+            return false;
+        }
+        try (HttpConnection connection = openUnlessCircuitOpen(URI.create(cached.get().get(0)))) {
+            URI target = connection.getURI();
+            boolean audio = MimeType.byContentType(connection.getContentType())
+                    .filter(MirrorRace.AUDIO::contains)
+                    .isPresent();
+            if (connection.getResponseCode() >= 300 || !audio) {
+                throw new IOException("No audio stream: HTTP " + connection.getResponseCode()
+                        + " " + connection.getContentType());
+            }
+            log.info("Using cached stream {} for {}", target, uri);
+            accept(connection);
+            return true;
+        } catch (IOException | IllegalArgumentException ex) {
+            log.info("Cached stream for {} failed, resolving again", uri, ex);
+            cache.invalidate(ResolutionCache.Kind.STREAM, uri.toString());
+            return false;
+        } catch (RadioException re) {
+            log.info("Cached stream for {} broke down", uri, re);
+            // resolve again when reconnecting
+            return !(re.isRetryable() && consumerContext.isReconnect());
+        }
+    }
+
+    /** Remembers the final stream URL of the station. */
+    private void cacheStream(HttpConnection connection) {
+        ResolutionCache cache = consumerContext.getResolutionCache();
+        if (cache == null || consumerContext.getUri() == null) {
+            return;
+        }
+        try {
+            URI target = connection.getURI();
+            if (!target.equals(consumerContext.getUri())) {
+                cache.put(ResolutionCache.Kind.STREAM, consumerContext.getUri().toString(),
+                        Collections.singletonList(target.toString()));
+            }
+        } catch (IOException ex) {
+            log.debug("No final URL for {}", consumerContext.getUri(), ex);
+        }
+    }
+
+    /** Consumes the given mirrors of a stream, for example the entries of a playlist.
+     * All mirrors are connected in parallel and the first one delivering
+     * audio gets consumed. If it breaks down, the mirrors are raced again
+     * without delay.
+     * @param mirrors the URLs of the mirrors to process. Must be non-null.
+     * @throws NullPointerException if mirrors is null.
+     * */
+    public void consumeMirrors(@NonNull List<URI> mirrors) {
+        List<URI> candidates = new ArrayList<>(mirrors);
+        RetryPolicy retryPolicy = consumerContext.getRetryPolicy();
+        // consecutive failures
+        int failures = 0;
+        while (!candidates.isEmpty()) {
+            // each mirror asks the breaker of its own host when racing
+            if (!awaitRetry(failures > 0 ? retryPolicy.getDelayMillis(failures) : 0, () -> circuitWait(candidates))) {
+                break;
+            }
+            if (failures > 0) {
+                log.info("Racing {} mirrors again.", candidates.size());
+            }
+            Optional<MirrorRace.Winner> winner;
+            try {
+                winner = new MirrorRace(this::openUnlessCircuitOpen, consumerContext.getScope()::execute)
+                        .race(candidates, 2L * consumerContext.getTimeout());
+            } catch (InterruptedException ex) {
+                log.debug("Interrupted", ex);
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (!winner.isPresent()) {
+                failures++;
+                if (!consumerContext.isReconnect()) {
+                    log.warn("No mirror of {} delivered audio", candidates);
+                    break;
+                }
+                continue;
+            }
+
+            long connectedAt = System.currentTimeMillis();
+            try (HttpConnection connection = winner.get().getConnection()) {
+                accept(connection);
+                break;
+            } catch (RadioException re) {
+                boolean stable = System.currentTimeMillis() - connectedAt >= STABLE_CONNECTION_MILLIS;
+                failures = stable ? 1 : failures + 1;
+                log.info("Mirror {} broke down", winner.get().getUri(), re);
+                if (!re.isRetryable()) {
+                    break;
+                }
+                if (!consumerContext.isReconnect()) {
+                    // fail over to the other mirrors only
+                    candidates.remove(winner.get().getUri());
+                }
+            } catch (IOException ex) {
+                log.debug("Error closing connection to {}", winner.get().getUri(), ex);
+                break;
+            }
+        }
+    }
+
+    /** Get the time until the circuit of any of the mirror hosts allows connecting.
+     * @return 0 if a mirror may be connected, otherwise the milliseconds to wait.
+     */
+    private static long circuitWait(List<URI> mirrors) {
+        long wait = Long.MAX_VALUE;
+        for (URI mirror : mirrors) {
+            wait = Math.min(wait, CircuitBreaker.forHost(mirror.getHost()).getOpenMillis());
+        }
+        return wait;
+    }
+
+    /** Consumes an open connection with the consumer for its content type. */
+    private void accept(HttpConnection connection) {
+        ContentType contentType = ContentType.parse(connection.getContentType());
+        Consumer<HttpConnection> consumer = consumerFromContentType(consumerContext, contentType);
+        if (consumer instanceof MetaDataConsumer) {
+            cacheStream(connection);
+        }
+        HttpConnection throttled = throttle(connection, consumer);
+        StallWatchdog.Watch watch = watchStalls(throttled, consumer);
+        if (watch == null) {
+            consumer.accept(throttled);
+            return;
+        }
+        Consumer<StallWatchdog.StallEvent> listener = reconnectOnStall(watch, connection);
+        StallWatchdog.getInstance().addListener(listener);
+        try (watch) {
+            consumer.accept(watch.getConnection());
+        } finally {
+            StallWatchdog.getInstance().removeListener(listener);
+        }
+    }
+
+    /** Creates the reaction to a stall of a watched connection.
+     * The connection gets closed, which unblocks a pending read. The consumer
+     * breaks down and {@link #consume(URI)} reconnects.
+     * Closing happens on its own thread because it may block.
+     * @param watch the watch of the connection.
+     * @param connection the connection to close.
+     * @return the listener for the {@link StallWatchdog}, ignoring the stalls of other connections.
+     */
+    static Consumer<StallWatchdog.StallEvent> reconnectOnStall(StallWatchdog.Watch watch, HttpConnection connection) {
+        return event -> {
+            if (!event.isStalled() || event.getConnection() != watch.getConnection()) {
+                return;
+            }
+            Thread.ofVirtual().name("Stall abort " + event.getName()).start(() -> {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    log.debug("Error closing stalled connection", e);
+                }
+            });
+        };
+    }
+
+    private static Consumer<HttpConnection> consumerFromContentType(ConsumerContext cc, ContentType contentType) {
+        Optional<MimeType> mimeType = contentType.getMimeType();
         if (!mimeType.isPresent()) {
             log.warn("Unknown content type {}", contentType);
             return t -> {};
@@ -161,9 +458,9 @@ public class ConnectionHandler {
                     return new StreamCastConsumer(cc);
                 } else
                 if (cc.isPlaying()) {
-                    return new StreamPlayConsumer(cc);
+                    return new StreamPlayConsumer(cc, contentType);
                 } else {
-                    return new StreamCopyConsumer(cc);
+                    return new StreamCopyConsumer(cc, contentType);
                 }
             case AUDIO_MPEGURL:
             case AUDIO_XMPEGURL:
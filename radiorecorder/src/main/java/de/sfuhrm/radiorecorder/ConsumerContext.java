@@ -15,12 +15,19 @@
  */
 package de.sfuhrm.radiorecorder;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
+import de.sfuhrm.radiorecorder.consumer.Durability;
+import de.sfuhrm.radiorecorder.consumer.WriteBehind;
 import de.sfuhrm.radiorecorder.http.HttpConnectionBuilderFactory;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -46,8 +53,33 @@ public class ConsumerContext {
     @Getter
     private final URI uri;
 
+    /** The scope of the background tasks of this radio. */
+    @Getter
+    private final StationScope scope;
+
+    /** The reconnect gaps of this radio. */
+    @Getter
+    private final ReconnectStatistics reconnectStatistics;
+
+    /** The bandwidth share of this radio, or {@code null} if unlimited. */
+    @Getter
+    private final BandwidthGovernor.Share bandwidthShare;
+
     private final Params params;
 
+    /** The retention manager of the archive directory, or {@code null} if no retention limits were given.
+     * Built on first use, because consumers ask for it on every file.
+     * @see #getArchiveDirectory()
+     */
+    @Getter(lazy = true)
+    private final RetentionManager retentionManager = newRetentionManager();
+
+    /** The mover of finished recordings to the cold directory, or {@code null} if no cold directory was given.
+     * Built on first use, because consumers ask for it on every file.
+     */
+    @Getter(lazy = true)
+    private final TierMigrator tierMigrator = newTierMigrator();
+
     /** Constructor for a consumer context.
      * @param id numerical unique id of this context.
      * @param radio the radio station to process in this context.
@@ -58,6 +90,27 @@ public class ConsumerContext {
         this.radio = radio;
         this.uri = radio.getUri();
         this.params = Objects.requireNonNull(params);
+        this.scope = new StationScope(params.isVirtualThreads(), "Radio " + id);
+        this.reconnectStatistics = new ReconnectStatistics();
+        this.bandwidthShare = params.getBandwidthLimitKB() == null ? null
+                : BandwidthGovernor.forLimit(params.getBandwidthLimitKB() * 1024)
+                    .register(radio.getName(), getPriority(), params.getBandwidthMinimumKB() * 1024);
+    }
+
+    /** Get the bandwidth priority of the radio.
+     * @return the priority given for the radio name or UUID, 0 by default.
+     */
+    public int getPriority() {
+        if (params.getPriorities() == null) {
+            return 0;
+        }
+        for (Map.Entry<String, String> entry : params.getPriorities().entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(radio.getName())
+                    || radio.getUuid() != null && entry.getKey().equalsIgnoreCase(radio.getUuid().toString())) {
+                return Integer.parseInt(entry.getValue());
+            }
+        }
+        return 0;
     }
 
     /** Get the read/connect timeout in millis.
@@ -67,6 +120,13 @@ public class ConsumerContext {
         return params.getTimeout() * 1000;
     }
 
+    /** Get the maximum number of pooled connections to one host.
+     * @return the maximum number of connections.
+     */
+    public int getMaxConnectionsPerHost() {
+        return params.getMaxConnectionsPerHost();
+    }
+
     /** Get the directory to write files to.
      * @return directory to write files to.
      */
@@ -108,6 +168,152 @@ public class ConsumerContext {
         return Optional.of(Params.toMillis(params.getAbortAfterDuration()));
     }
 
+    /** Get the amount of bytes to buffer for writing in the background.
+     * @return optional buffer size in bytes.
+     */
+    public Optional<Long> getWriteBehindSize() {
+        if (params.getWriteBehindKB() == null) {
+            return Optional.empty();
+        }
+        return Optional.of(params.getWriteBehindKB() * 1024);
+    }
+
+    /** Get what to do when the background writing buffer is full.
+     * @return the overflow policy from the command line.
+     */
+    public WriteBehind.OverflowPolicy getWriteOverflowPolicy() {
+        return params.getWriteOverflow();
+    }
+
+    /** Get when to force the recorded files to disk.
+     * @return the durability policy from the command line.
+     */
+    public Durability getDurability() {
+        return params.getDurability();
+    }
+
+    /** Get the maximum time between forcing a file to disk.
+     * @return the interval in milliseconds for {@link Durability#PERIODIC}.
+     */
+    public long getSyncIntervalMillis() {
+        return Params.toMillis(params.getSyncInterval());
+    }
+
+    /** Get the maximum bytes written between forcing a file to disk.
+     * @return the bytes for {@link Durability#PERIODIC}.
+     */
+    public long getSyncBytes() {
+        return params.getSyncKB() * 1024;
+    }
+
+    /** Write the recorded files with direct I/O.
+     * @return {@code true} if direct I/O was requested on the command line,
+     * {@code false} otherwise.
+     * */
+    public boolean isDirectIo() {
+        return params.isDirectIo();
+    }
+
+    /** Get the monitor of the usable space of the target directory.
+     * @return the monitor shared by all stations writing to the file system.
+     * @throws IOException if the file system can not be determined.
+     */
+    public DiskSpaceMonitor getDiskSpaceMonitor() throws IOException {
+        return DiskSpaceMonitor.forStore(Files.getFileStore(getTargetDirectory()));
+    }
+
+    /** Creates the mover of finished recordings to the cold directory.
+     * @return the migrator shared by all stations, or {@code null} if no cold directory was given.
+     */
+    private TierMigrator newTierMigrator() {
+        if (params.getColdDirectory() == null) {
+            return null;
+        }
+        RetentionManager retentionManager = getRetentionManager();
+        return TierMigrator.forDirectories(getTargetDirectory(), params.getColdDirectory(),
+                params.getMigrateBandwidthKB() * 1024,
+                retentionManager != null ? retentionManager::add : null);
+    }
+
+    /** Get the directory finished recordings end up in.
+     * @return the cold directory if given, the target directory otherwise.
+     */
+    public Path getArchiveDirectory() {
+        return params.getColdDirectory() != null ? params.getColdDirectory() : getTargetDirectory();
+    }
+
+    /** Creates the retention manager of the archive directory.
+     * @return the manager shared by all stations, or {@code null} if no retention limits were given.
+     */
+    private RetentionManager newRetentionManager() {
+        if (params.getRetentionBudgetMegs() == null && params.getRetentionQuotas() == null
+                && params.getRetentionMaxAge() == null) {
+            return null;
+        }
+        Map<String, Long> quotas = new HashMap<>();
+        if (params.getRetentionQuotas() != null) {
+            for (Map.Entry<String, String> entry : params.getRetentionQuotas().entrySet()) {
+                quotas.put(entry.getKey().toLowerCase(Locale.ROOT), Long.parseLong(entry.getValue()) * 1024 * 1024);
+            }
+        }
+        DiskSpaceMonitor diskSpaceMonitor;
+        try {
+            diskSpaceMonitor = DiskSpaceMonitor.forStore(Files.getFileStore(getArchiveDirectory()));
+        } catch (IOException e) {
+            log.warn("No usable space for {}, deleting recordings for the other limits only", getArchiveDirectory(), e);
+            diskSpaceMonitor = null;
+        }
+        return RetentionManager.forDirectory(getArchiveDirectory(),
+                params.getRetentionBudgetMegs() != null ? params.getRetentionBudgetMegs() * 1024 * 1024 : Long.MAX_VALUE,
+                quotas,
+                params.getRetentionMaxAge() != null ? Params.toMillis(params.getRetentionMaxAge()) : Long.MAX_VALUE,
+                getMinFree(),
+                diskSpaceMonitor);
+    }
+
+    /** Get the shared writer of the file system of the target directory.
+     * @return the scheduler, or {@code null} if the files are written by each station.
+     */
+    public IoScheduler getIoScheduler() {
+        if (params.getIoFlushInterval() == null) {
+            return null;
+        }
+        try {
+            return IoScheduler.forStore(Files.getFileStore(getTargetDirectory()), Params.toMillis(params.getIoFlushInterval()));
+        } catch (IOException e) {
+            log.warn("No file store for {}, writing without shared writer", getTargetDirectory(), e);
+            return null;
+        }
+    }
+
+    /** Get the time of too low throughput after which to reconnect.
+     * @return optional stall time in milliseconds.
+     */
+    public Optional<Long> getStallTimeout() {
+        if (params.getStallTimeout() == null) {
+            return Optional.empty();
+        }
+        return Optional.of(Params.toMillis(params.getStallTimeout()));
+    }
+
+    /** Get the cache for resolved stream URLs.
+     * @return the cache, or {@code null} if caching was not requested.
+     */
+    public ResolutionCache getResolutionCache() {
+        if (params.getResolutionCache() == null) {
+            return null;
+        }
+        return ResolutionCache.forFile(params.getResolutionCache(), Params.toMillis(params.getResolutionCacheTtl()));
+    }
+
+    /** Get the expected throughput of the radio.
+     * @return the bytes per second derived from the station bitrate,
+     * or 0 if the bitrate is unknown.
+     */
+    public long getExpectedBytesPerSecond() {
+        return radio.getBitrate() * 1000L / 8;
+    }
+
     /** Whether to play or store.
      * @return {@code true} if playing was requested on the command line,
      * {@code false} otherwise.
@@ -124,6 +330,21 @@ public class ConsumerContext {
         return params.isSongNames();
     }
 
+    /** The delays between reconnect attempts.
+     * @return the retry policy from the command line.
+     * */
+    public RetryPolicy getRetryPolicy() {
+        return new RetryPolicy(Params.toMillis(params.getRetryDelay()), Params.toMillis(params.getRetryMaxDelay()));
+    }
+
+    /** Whether to run stations on virtual threads.
+     * @return {@code true} if virtual threads were requested on the command line,
+     * {@code false} otherwise.
+     * */
+    public boolean isVirtualThreads() {
+        return params.isVirtualThreads();
+    }
+
     /** Reconnect forever.
      * @return {@code true} if reconnecting was requested on the command line,
      * {@code false} otherwise.
@@ -132,6 +353,30 @@ public class ConsumerContext {
         return params.isReconnect();
     }
 
+    /** Race the entries of playlists as mirrors.
+     * @return {@code true} if racing was requested on the command line,
+     * {@code false} otherwise.
+     * */
+    public boolean isRaceMirrors() {
+        return params.isRaceMirrors();
+    }
+
+    /** Stitch a standby connection to a broken recording connection.
+     * @return {@code true} if stitching was requested on the command line,
+     * {@code false} otherwise.
+     * */
+    public boolean isStitch() {
+        return params.isStitch();
+    }
+
+    /** Reserve disk space for the expected song length.
+     * @return {@code true} if preallocation was requested on the command line,
+     * {@code false} otherwise.
+     * */
+    public boolean isPreallocate() {
+        return params.isPreallocate();
+    }
+
     /** The cast device to cast to.
      * @return the name of the chrome cast receiver to play on.
      * */
@@ -162,6 +407,13 @@ public class ConsumerContext {
         return params.getProxy();
     }
 
+    /** The HTTP client implementation to use.
+     * @return the HTTP client type requested in the command line.
+     * */
+    public HttpConnectionBuilderFactory.HttpClientType getHttpClientType() {
+        return params.getHttpClient();
+    }
+
     /** The format of the files to generate.
      * @return pattern on how to create file names.
      * @see Params#getSongnameFormat()
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the usable space of a file system for all stations
+ * writing to it, so that the stations do not need to ask the file system
+ * for every chunk they write.
+ * The usable space is sampled periodically. In between, the bytes the
+ * stations report as written are subtracted from the last sample.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class DiskSpaceMonitor {
+
+    /** The interval between two samples of the usable space. */
+    static final long SAMPLE_INTERVAL_MILLIS = 1000;
+
+    private static final Map<FileStore, DiskSpaceMonitor> MONITORS = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService scheduler;
+
+    private final FileStore store;
+
+    /** The usable space at the last sample. */
+    private volatile long sampled;
+
+    /** The bytes written since the last sample. */
+    private final LongAdder written = new LongAdder();
+
+    /** Constructor. Samples the usable space once.
+     * @param store the file system to monitor.
+     * @throws IOException if the usable space can not be read.
+     */
+    DiskSpaceMonitor(FileStore store) throws IOException {
+        this.store = store;
+        this.sampled = store.getUsableSpace();
+    }
+
+    /** Get the process wide monitor for a file system.
+     * @param store the file system to monitor.
+     * @return the monitor shared by all stations writing to the file system.
+     * @throws IOException if the usable space can not be read.
+     */
+    public static DiskSpaceMonitor forStore(@NonNull FileStore store) throws IOException {
+        DiskSpaceMonitor monitor = MONITORS.get(store);
+        if (monitor != null) {
+            return monitor;
+        }
+        synchronized (MONITORS) {
+            monitor = MONITORS.get(store);
+            if (monitor == null) {
+                monitor = new DiskSpaceMonitor(store);
+                MONITORS.put(store, monitor);
+                schedule(monitor);
+            }
+            return monitor;
+        }
+    }
+
+    private static void schedule(DiskSpaceMonitor monitor) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Disk space monitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        scheduler.scheduleWithFixedDelay(monitor::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Reports bytes written to the file system.
+     * @param bytes the number of bytes written.
+     */
+    public void written(long bytes) {
+        written.add(bytes);
+    }
+
+    /** Get the estimated usable space.
+     * @return the usable space at the last sample minus the bytes written since.
+     */
+    public long getUsableSpace() {
+        return sampled - written.sum();
+    }
+
+    /** Samples the usable space of the file system. */
+    void sample() {
+        long before = written.sum();
+        try {
+            sampled = store.getUsableSpace();
+            written.add(-before);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Error reading the usable space of {}", store, e);
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the files of all stations on one file system.
+ * The stations write into per file buffers which are written
+ * by a single thread in large sequential chunks, instead of
+ * many small interleaved writes causing seeks on spinning disks.
+ * A buffer is written when it is full or when its oldest byte
+ * is older than the flush interval.
+ * Waiting uses a {@link ReentrantLock} so that virtual threads
+ * writing the files are not pinned to their carrier.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class IoScheduler {
+
+    /** The size of the chunks written at once. */
+    static final int COALESCE_BYTES = 128 * 1024;
+
+    /** Full buffers per file waiting for the writer before the station is slowed down. */
+    private static final int MAX_READY = 2;
+
+    /** Buffers kept for reuse. */
+    private static final int MAX_POOLED = 64;
+
+    /** The interval for logging the latencies. */
+    private static final long LOG_INTERVAL_MILLIS = 60_000;
+
+    private static final Map<SchedulerKey, IoScheduler> SCHEDULERS = new ConcurrentHashMap<>();
+
+    /** The file system and flush interval a scheduler is shared for. */
+    @Value
+    private static class SchedulerKey {
+        FileStore store;
+        long flushIntervalMillis;
+    }
+
+    private final String name;
+    private final long flushIntervalNanos;
+
+    /** The time from the first byte of a chunk to its write to disk. */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /** Guards the targets, their buffers and the pool. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a buffer is ready for the writer or the scheduler stops. */
+    private final Condition work = lock.newCondition();
+
+    /** The open files, guarded by {@link #lock}. */
+    private final Set<Target> targets = new LinkedHashSet<>();
+
+    private final Deque<ByteBuffer> pool = new ArrayDeque<>();
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    private long lastLog = System.currentTimeMillis();
+
+    /** Constructor. Starts the writer thread.
+     * @param name the name of the file system for logging.
+     * @param flushIntervalMillis the maximum time bytes are kept in memory.
+     */
+    IoScheduler(String name, long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Illegal flush interval " + flushIntervalMillis);
+        }
+        this.name = name;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.writer = Thread.ofPlatform().daemon().name("IO " + name).start(this::run);
+    }
+
+    /** Get the process wide scheduler for a file system.
+     * @param store the file system to write to.
+     * @param flushIntervalMillis the maximum time bytes are kept in memory.
+     * @return the scheduler shared by all stations writing to the file system
+     * with the same flush interval.
+     */
+    public static IoScheduler forStore(@NonNull FileStore store, long flushIntervalMillis) {
+        return SCHEDULERS.computeIfAbsent(new SchedulerKey(store, flushIntervalMillis),
+                k -> new IoScheduler(k.getStore().name(), k.getFlushIntervalMillis()));
+    }
+
+    /** Get the latencies of the writes.
+     * @return the histogram of the times from the first byte of a chunk
+     * to its write to disk.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /** Opens a file for writing through this scheduler.
+     * @param channel the channel of the file, closed when the stream is closed.
+     * @param fileName the name of the file for logging.
+     * @return the stream to write the file with.
+     */
+    public OutputStream open(@NonNull FileChannel channel, String fileName) {
+        Target target = new Target(channel, fileName);
+        lock.lock();
+        try {
+            targets.add(target);
+        } finally {
+            lock.unlock();
+        }
+        return target;
+    }
+
+    /** Stops the writer thread after writing the buffered bytes. */
+    void stop() throws InterruptedException {
+        running = false;
+        lock.lock();
+        try {
+            work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        writer.join();
+    }
+
+    private ByteBuffer borrow() {
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(COALESCE_BYTES);
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        if (pool.size() < MAX_POOLED) {
+            buffer.clear();
+            pool.push(buffer);
+        }
+    }
+
+    /** The writer thread. */
+    private void run() {
+        List<Target> batch = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                long wait = schedule(batch);
+                if (batch.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    try {
+                        work.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        log.debug("Interrupted", e);
+                        return;
+                    }
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Target target : batch) {
+                target.writeReady();
+            }
+            lock.lock();
+            try {
+                for (Target target : batch) {
+                    target.inFlight = false;
+                    target.drained.signalAll();
+                }
+                batch.clear();
+                logLatencies();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Moves buffers older than the flush interval to the ready buffers and
+     * collects the files with ready buffers.
+     * @param batch receives the files to write.
+     * @return the nanos until the next buffer is due.
+     */
+    private long schedule(List<Target> batch) {
+        long now = System.nanoTime();
+        long next = flushIntervalNanos;
+        for (Target target : targets) {
+            if (target.pending != null && target.pending.position() > 0) {
+                long due = target.pendingSince + flushIntervalNanos - now;
+                if (due <= 0 || !running) {
+                    target.pendingReady();
+                } else {
+                    next = Math.min(next, due);
+                }
+            }
+            if (!target.ready.isEmpty() && !target.inFlight) {
+                target.inFlight = true;
+                batch.add(target);
+            }
+        }
+        return next;
+    }
+
+    private void logLatencies() {
+        long now = System.currentTimeMillis();
+        if (now - lastLog >= LOG_INTERVAL_MILLIS) {
+            lastLog = now;
+            log.info("Write latencies of {} for {} files: {}", name, targets.size(), latencies);
+        }
+    }
+
+    /** A buffer waiting for the writer. */
+    private static final class Ready {
+        private final ByteBuffer buffer;
+        private final long since;
+
+        Ready(ByteBuffer buffer, long since) {
+            this.buffer = buffer;
+            this.since = since;
+        }
+    }
+
+    /** The buffers of one file. Guarded by the lock of the scheduler. */
+    private final class Target extends OutputStream {
+        private final FileChannel channel;
+        private final String fileName;
+
+        /** Signalled when the writer took or wrote ready buffers of this file. */
+        private final Condition drained = lock.newCondition();
+
+        /** The buffer being filled, or {@code null}. */
+        private ByteBuffer pending;
+
+        /** When the first byte of the pending buffer arrived. */
+        private long pendingSince;
+
+        private final Deque<Ready> ready = new ArrayDeque<>();
+
+        /** Whether the writer is writing the ready buffers. */
+        private boolean inFlight;
+
+        private IOException failure;
+
+        private boolean closed;
+
+        Target(FileChannel channel, String fileName) {
+            this.channel = channel;
+            this.fileName = fileName;
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            if (closed) {
+                throw new IOException("Stream for " + fileName + " is closed");
+            }
+        }
+
+        private void pendingReady() {
+            pending.flip();
+            ready.add(new Ready(pending, pendingSince));
+            pending = null;
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                drained.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + fileName);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                checkFailure();
+                while (len > 0) {
+                    if (pending == null) {
+                        pending = borrow();
+                        pendingSince = System.nanoTime();
+                    }
+                    int count = Math.min(len, pending.remaining());
+                    pending.put(b, off, count);
+                    off += count;
+                    len -= count;
+                    if (!pending.hasRemaining()) {
+                        while (ready.size() >= MAX_READY && failure == null) {
+                            await();
+                        }
+                        checkFailure();
+                        pendingReady();
+                        work.signal();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Waits until all bytes are written to the channel. */
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                checkFailure();
+                if (pending != null && pending.position() > 0) {
+                    pendingReady();
+                    work.signal();
+                }
+                while ((!ready.isEmpty() || inFlight) && failure == null) {
+                    await();
+                }
+                checkFailure();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Writes the ready buffers, called by the writer thread. */
+        private void writeReady() {
+            while (true) {
+                Ready next;
+                lock.lock();
+                try {
+                    next = ready.poll();
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (next == null) {
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        while (next.buffer.hasRemaining()) {
+                            channel.write(next.buffer);
+                        }
+                        latencies.record(System.nanoTime() - next.since);
+                    }
+                } catch (IOException e) {
+                    log.warn("Writing {} failed", fileName, e);
+                    lock.lock();
+                    try {
+                        failure = e;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                lock.lock();
+                try {
+                    recycle(next.buffer);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flush();
+            } finally {
+                lock.lock();
+                try {
+                    closed = true;
+                    targets.remove(this);
+                    if (pending != null) {
+                        recycle(pending);
+                        pending = null;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                channel.close();
+            }
+        }
+    }
+
+    /** Counts latencies in buckets of powers of two milliseconds. */
+    public static final class LatencyHistogram {
+
+        /** The upper bound of the last bounded bucket is 2^(BUCKETS - 2) milliseconds. */
+        static final int BUCKETS = 16;
+
+        private final long[] counts = new long[BUCKETS];
+
+        /** Records a latency.
+         * @param nanos the latency in nanoseconds.
+         */
+        public synchronized void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKETS - 1 && millis > (1L << bucket)) {
+                bucket++;
+            }
+            counts[bucket]++;
+        }
+
+        /** Get the counts of the buckets. Bucket {@code i} counts latencies
+         * up to 2^i milliseconds, the last bucket counts all longer latencies.
+         * @return a copy of the counts.
+         */
+        public synchronized long[] getCounts() {
+            return counts.clone();
+        }
+
+        /** Get the number of recorded latencies.
+         * @return the sum of all buckets.
+         */
+        public synchronized long getTotal() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                if (result.length() > 0) {
+                    result.append(", ");
+                }
+                result.append(i < BUCKETS - 1 ? "<=" : ">").append(1L << (i < BUCKETS - 1 ? i : i - 1))
+                        .append("ms: ").append(counts[i]);
+            }
+            return result.length() > 0 ? result.toString() : "none";
+        }
+    }
+}
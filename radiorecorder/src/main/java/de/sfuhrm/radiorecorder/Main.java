@@ -35,6 +35,7 @@ import java.util.stream.Collectors;
 
 import de.sfuhrm.radiobrowser4j.SearchMode;
 import de.sfuhrm.radiobrowser4j.Station;
+import de.sfuhrm.radiorecorder.consumer.ReservedSpace;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import su.litvak.chromecast.api.v2.ChromeCast;
@@ -134,7 +135,30 @@ public class Main {
         return radios;
     };
 
+    /** Get the cached stations of a lookup.
+     * @param cache the cache, or {@code null} if caching is disabled.
+     * @param key the key of the lookup.
+     * @return the stations if cached and readable.
+     */
+    private static Optional<List<Radio>> cachedStations(ResolutionCache cache, String key) {
+        if (cache == null) {
+            return Optional.empty();
+        }
+        Optional<List<String>> lines = cache.get(ResolutionCache.Kind.STATIONS, key);
+        if (!lines.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(lines.get().stream().map(Radio::fromCacheLine).collect(Collectors.toList()));
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring malformed cached stations for {}", key, e);
+            cache.invalidate(ResolutionCache.Kind.STATIONS, key);
+            return Optional.empty();
+        }
+    }
+
     /** Read the URLs or names given and resolve them using {@link RadioBrowser}.
+     * The lookups are taken from the {@link ResolutionCache} if configured.
      * @param urls the input urls from the command line.
      * @param params the command line.
      * @return the sanitized URLs.
@@ -142,14 +166,32 @@ public class Main {
     private static List<Radio> sanitize(List<String> urls, Params params) throws IOException {
         List<Radio> result = new ArrayList<>();
 
-        RadioBrowser radioBrowser = newRadioBrowser(params);
+        ResolutionCache cache = params.getResolutionCache() == null ? null
+                : ResolutionCache.forFile(params.getResolutionCache(), Params.toMillis(params.getResolutionCacheTtl()));
+        // only discovered if a lookup is not cached
+        RadioBrowser radioBrowser = null;
         for (String urlString : urls) {
 
             List<Radio> tmpList = new ArrayList<>();
             tmpList.addAll(resolverByUri.fromString(radioBrowser, params, urlString));
-            tmpList.addAll(resolverByUUID.fromString(radioBrowser, params, urlString));
             if (tmpList.isEmpty()) {
-                tmpList.addAll(resolverByQuery.fromString(radioBrowser, params, urlString));
+                String key = params.getStationLimit() + ":" + urlString;
+                Optional<List<Radio>> cached = cachedStations(cache, key);
+                if (cached.isPresent()) {
+                    tmpList.addAll(cached.get());
+                } else {
+                    if (radioBrowser == null) {
+                        radioBrowser = newRadioBrowser(params);
+                    }
+                    tmpList.addAll(resolverByUUID.fromString(radioBrowser, params, urlString));
+                    if (tmpList.isEmpty()) {
+                        tmpList.addAll(resolverByQuery.fromString(radioBrowser, params, urlString));
+                    }
+                    if (cache != null && !tmpList.isEmpty()) {
+                        cache.put(ResolutionCache.Kind.STATIONS, key,
+                                tmpList.stream().map(Radio::toCacheLine).collect(Collectors.toList()));
+                    }
+                }
             }
 
             log.debug("Search String {} was resolved to {} stations",
@@ -247,13 +289,19 @@ public class Main {
             log.warn("Restricting to first station because playing.");
         }
 
+        if (params.isPreallocate() && params.getDirectory() != null) {
+            // before any station writes, indexes or migrates recordings
+            ReservedSpace.recover(params.getDirectory());
+        }
+
         List<Thread> threadList = new ArrayList<>();
         radios.stream().forEach(radio -> {
             log.info("Starting radio: {}", radio);
             RadioRunnable r = new RadioRunnable(toConsumerContext(params, radio));
-            Thread t = new Thread(r, "Radio " + radio.getUuid());
+            Thread t = StationScope.newThreadBuilder(params.isVirtualThreads())
+                    .name("Radio " + radio.getUuid())
+                    .start(r);
             threadList.add(t);
-            t.start();
         });
 
         // wait for finish
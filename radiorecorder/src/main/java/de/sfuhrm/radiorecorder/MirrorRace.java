@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import de.sfuhrm.radiorecorder.http.FilterHttpConnection;
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import de.sfuhrm.radiorecorder.metadata.MimeType;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to multiple mirrors of a stream in parallel.
+ * The first mirror delivering audio bytes wins, all other
+ * connections are closed.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class MirrorRace {
+
+    /** The number of audio bytes a mirror needs to deliver to win. */
+    static final int VALID_BYTES = 1024;
+
+    /** Content types that are checked for audio bytes. */
+    static final Set<MimeType> AUDIO = EnumSet.of(
+            MimeType.AUDIO_MPEG,
+            MimeType.AUDIO_OGG,
+            MimeType.APPLICATION_OGG,
+            MimeType.AUDIO_XWAV,
+            MimeType.AUDIO_XMSWMA,
+            MimeType.AUDIO_AAC);
+
+    /** Opens a connection to a mirror. */
+    interface Opener {
+        /** Opens a connection.
+         * @param uri the mirror to connect to.
+         * @return the open connection.
+         * @throws IOException if connecting failed.
+         */
+        HttpConnection open(URI uri) throws IOException;
+    }
+
+    /** The mirror that won the race. */
+    @Value
+    static class Winner {
+        /** The URL of the mirror. */
+        URI uri;
+        /** The connection replaying the bytes read while racing. */
+        HttpConnection connection;
+        /** The time to the first audio bytes. */
+        long millis;
+    }
+
+    private final Opener opener;
+    private final Executor executor;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private Winner winner;
+
+    /** Whether the race is over, late connections are closed. */
+    private boolean finished;
+
+    private int remaining;
+
+    /** Connections still being validated. */
+    private final Set<HttpConnection> pending = new HashSet<>();
+
+    private long start;
+
+    /** Constructor.
+     * @param opener opens the mirror connections.
+     * @param executor runs the parallel connection attempts.
+     */
+    MirrorRace(Opener opener, Executor executor) {
+        this.opener = opener;
+        this.executor = executor;
+    }
+
+    /** Races the mirrors. Can only be called once.
+     * @param mirrors the mirrors to connect to.
+     * @param timeoutMillis the maximum time to wait for a winner.
+     * @return the winner, or an empty optional if no mirror delivered audio in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    Optional<Winner> race(List<URI> mirrors, long timeoutMillis) throws InterruptedException {
+        synchronized (this) {
+            remaining = mirrors.size();
+            start = System.currentTimeMillis();
+        }
+        if (mirrors.isEmpty()) {
+            return Optional.empty();
+        }
+        for (URI mirror : mirrors) {
+            executor.execute(() -> attempt(mirror));
+        }
+        if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.info("No mirror delivered audio within {} ms", timeoutMillis);
+        }
+        List<HttpConnection> losers;
+        synchronized (this) {
+            finished = true;
+            losers = new ArrayList<>(pending);
+        }
+        // unblock the losers still reading, closing may block too
+        for (HttpConnection loser : losers) {
+            executor.execute(() -> closeQuietly(loser));
+        }
+        synchronized (this) {
+            return Optional.ofNullable(winner);
+        }
+    }
+
+    private void attempt(URI mirror) {
+        HttpConnection connection = null;
+        try {
+            connection = opener.open(mirror);
+            if (register(connection)) {
+                HttpConnection validated = validate(connection);
+                if (offer(mirror, connection, validated)) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Mirror {} failed", mirror, e);
+        }
+        if (connection != null) {
+            closeQuietly(connection);
+        }
+        synchronized (this) {
+            pending.remove(connection);
+            if (--remaining == 0) {
+                done.countDown();
+            }
+        }
+    }
+
+    /** Registers a connection for cancelling.
+     * @return {@code false} if the race is already over.
+     */
+    private synchronized boolean register(HttpConnection connection) {
+        if (finished || winner != null) {
+            return false;
+        }
+        pending.add(connection);
+        return true;
+    }
+
+    /** Offers a validated connection as winner.
+     * @return {@code true} if the connection won.
+     */
+    private synchronized boolean offer(URI mirror, HttpConnection connection, HttpConnection validated) {
+        if (finished || winner != null) {
+            return false;
+        }
+        pending.remove(connection);
+        winner = new Winner(mirror, validated, System.currentTimeMillis() - start);
+        log.info("Mirror {} won after {} ms", mirror, winner.getMillis());
+        done.countDown();
+        return true;
+    }
+
+    /** Checks that the connection delivers a playlist or audio bytes.
+     * @return a connection replaying the bytes read for checking.
+     * @throws IOException if the connection is no valid mirror.
+     */
+    static HttpConnection validate(HttpConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code >= 300) {
+            throw new IOException("HTTP " + code + " " + connection.getResponseMessage());
+        }
+        Optional<MimeType> mimeType = MimeType.byContentType(connection.getContentType());
+        if (!mimeType.isPresent()) {
+            throw new IOException("Unknown content type " + connection.getContentType());
+        }
+        if (!AUDIO.contains(mimeType.get())) {
+            // playlists are consumed as a whole
+            return connection;
+        }
+        InputStream inputStream = connection.getInputStream();
+        byte[] peeked = inputStream.readNBytes(VALID_BYTES);
+        if (peeked.length < VALID_BYTES) {
+            throw new IOException("Only " + peeked.length + " audio bytes");
+        }
+        InputStream replaying = new SequenceInputStream(new ByteArrayInputStream(peeked), inputStream);
+        return new FilterHttpConnection(connection) {
+            @Override
+            public InputStream getInputStream() {
+                return replaying;
+            }
+        };
+    }
+
+    private static void closeQuietly(HttpConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.debug("Error closing mirror", e);
+        }
+    }
+}
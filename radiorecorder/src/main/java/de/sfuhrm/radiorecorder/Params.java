@@ -24,8 +24,12 @@ import java.time.Duration;
 import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import de.sfuhrm.radiorecorder.consumer.Durability;
+import de.sfuhrm.radiorecorder.consumer.WriteBehind;
+import de.sfuhrm.radiorecorder.http.HttpConnectionBuilder;
 import de.sfuhrm.radiorecorder.http.HttpConnectionBuilderFactory;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -62,15 +66,112 @@ public class Params {
     @Option(name = "-min-free", aliases = {"-M"}, usage = "Minimum of free megs on target drive.", metaVar = "MEGS")
     private long minimumFreeMegs = 512;
 
+    @Option(name = "-cold-directory", usage = "Move finished recordings from the target directory to this directory " +
+            "with the same folder hierarchy, i.e. from an SSD to bulk storage. The metadata CSV refers to the moved files.",
+            metaVar = "DIR")
+    private Path coldDirectory;
+
+    @Option(name = "-migrate-bandwidth", usage = "Maximum kilobytes per second for moving files to the '-cold-directory', " +
+            "0 for no limit.", metaVar = "KB")
+    private long migrateBandwidthKB = 0;
+
+    @Option(name = "-retention-budget", usage = "Delete the oldest recordings in the target directory, or the '-cold-directory', when all recordings " +
+            "together exceed the given megs. With any retention option, the oldest recordings are also deleted " +
+            "instead of aborting when the '-min-free' space is reached.", metaVar = "MEGS")
+    private Long retentionBudgetMegs;
+
+    @Option(name = "-retention-quota", usage = "Delete the oldest recordings of a station when its recordings exceed " +
+            "the given megs. The station is the top level directory of the recordings. Can be given multiple times.",
+            metaVar = "STATION=MEGS")
+    private Map<String, String> retentionQuotas;
+
+    @Option(name = "-retention-max-age", usage = "Delete recordings older than the given age, i.e. '48h' or '720h'.",
+            metaVar = "DURATION")
+    private String retentionMaxAge;
+
     @Option(name = "-abort-after-kb", usage = "Abort after writing the given amount of kilobytes to target drive.", metaVar = "KB", aliases = { "-abort-after" })
     private Long abortAfterKB;
 
     @Option(name = "-abort-after-duration", usage = "Abort after a given time, i.e. '3m10s', '3h' or '10s'.", metaVar = "DURATION")
     private String abortAfterDuration;
 
+    @Option(name = "-bandwidth-limit", usage = "Limit the aggregate download bandwidth of all stations " +
+            "to the given kilobytes per second.", metaVar = "KB")
+    private Long bandwidthLimitKB;
+
+    @Option(name = "-bandwidth-min", usage = "Bandwidth in kilobytes per second that is guaranteed to each station " +
+            "when using '-bandwidth-limit'.", metaVar = "KB")
+    private long bandwidthMinimumKB = 0;
+
+    @Option(name = "-priority", usage = "Bandwidth priority of a station name or UUID when using '-bandwidth-limit'. " +
+            "Stations with higher priorities get bandwidth first, the default priority is 0. Can be given multiple times.",
+            metaVar = "STATION=PRIORITY")
+    private Map<String, String> priorities;
+
+    @Option(name = "-race-mirrors", usage = "Connect to all entries of a playlist in parallel and record the first one " +
+            "delivering audio. Fails over to the other entries without delay.")
+    private boolean raceMirrors;
+
     @Option(name = "-reconnect", aliases = {"-r"}, usage = "Automatically reconnect after connection loss.")
     private boolean reconnect;
 
+    @Option(name = "-retry-delay", usage = "Delay before the second reconnect attempt, i.e. '0.5s' or '2s'. " +
+            "The first reconnect is immediate, further delays grow exponentially with jitter.", metaVar = "DURATION")
+    private String retryDelay = "1s";
+
+    @Option(name = "-retry-max-delay", usage = "Maximum delay between reconnect attempts, i.e. '30s' or '5m'.", metaVar = "DURATION")
+    private String retryMaxDelay = "2m";
+
+    @Option(name = "-stitch", usage = "Replace a broken recording connection by a standby connection and " +
+            "stitch both streams at their overlapping bytes, avoiding gaps and duplicates. " +
+            "With '-stall-timeout', the standby connection is made as soon as the throughput drops.")
+    private boolean stitch;
+
+    @Option(name = "-stall-timeout", usage = "Reconnect when the throughput stays below a quarter of the expected bitrate " +
+            "for this time, i.e. '10s'. The expected bitrate is the station bitrate or the observed average.", metaVar = "DURATION")
+    private String stallTimeout;
+
+    @Option(name = "-cache", usage = "Cache resolved stream URLs and station lookups in this file " +
+            "to start recording without playlist fetches, redirects or station lookups.", metaVar = "FILE")
+    private Path resolutionCache;
+
+    @Option(name = "-cache-ttl", usage = "Time after which entries of the '-cache' file expire, i.e. '30m' or '1h'.", metaVar = "DURATION")
+    private String resolutionCacheTtl = "1h";
+
+    @Option(name = "-io-flush-interval", usage = "Write the files of all stations on a file system by one shared writer, " +
+            "coalescing them into large chunks that are written at least in this interval, i.e. '5s'.", metaVar = "DURATION")
+    private String ioFlushInterval;
+
+    @Option(name = "-preallocate", usage = "Reserve disk space for the expected song length ahead of the written bytes " +
+            "by writing zeros, reducing file fragmentation at the cost of writing the bytes twice. " +
+            "The files are trimmed when they are closed. A '.reserved' marker file next to a recording " +
+            "keeps its written length for trimming it after a crash, at the next start with this option.")
+    private boolean preallocate;
+
+    @Option(name = "-durability", usage = "When to force the recorded files to disk. NONE leaves it to the operating system, " +
+            "PERIODIC forces after '-sync-interval' or '-sync-kb', CLOSE forces each file when it is closed.", metaVar = "POLICY")
+    private Durability durability = Durability.NONE;
+
+    @Option(name = "-sync-interval", usage = "Maximum time between forcing a file to disk with the PERIODIC durability, i.e. '10s'.",
+            metaVar = "DURATION")
+    private String syncInterval = "10s";
+
+    @Option(name = "-sync-kb", usage = "Maximum kilobytes written between forcing a file to disk with the PERIODIC durability.",
+            metaVar = "KB")
+    private long syncKB = 1024;
+
+    @Option(name = "-direct-io", usage = "Write the recorded files with direct I/O, bypassing the page cache " +
+            "so recordings do not evict other cached files. Falls back to normal writes where unsupported.")
+    private boolean directIo;
+
+    @Option(name = "-write-behind", usage = "Write the recorded files in the background, " +
+            "buffering up to the given amount of kilobytes per station.", metaVar = "KB")
+    private Long writeBehindKB;
+
+    @Option(name = "-write-overflow", usage = "What to do when the '-write-behind' buffer is full. " +
+            "BLOCK slows down reading, DROP leaves gaps, SPILL buffers in a temporary file.", metaVar = "POLICY")
+    private WriteBehind.OverflowPolicy writeOverflow = WriteBehind.OverflowPolicy.BLOCK;
+
     @Option(name = "-play", aliases = {"-p"}, usage = "Play live instead of recording to a file.")
     private boolean play;
 
@@ -98,6 +199,19 @@ public class Params {
     @Option(name = "-timeout", aliases = {"-T"}, usage = "Connect/read timeout in seconds.", metaVar = "SECS")
     private int timeout = 60;
 
+    @Option(name = "-max-connections-per-host", usage = "Maximum number of pooled connections to one host " +
+            "for the Apache HttpClient, at least the number of stations on one host.", metaVar = "COUNT")
+    private int maxConnectionsPerHost = HttpConnectionBuilder.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    @Option(name = "-virtual-threads", usage = "Run stations and their background tasks on virtual threads instead of platform threads. " +
+            "Recommended for recording many stations in parallel.")
+    private boolean virtualThreads;
+
+    @Option(name = "-http-client", usage = "The HTTP client implementation to use. " +
+            "NIO multiplexes plain HTTP streams on a few shared threads, " +
+            "JAVA_NET_HTTP multiplexes HTTPS streams using HTTP/2.", metaVar = "CLIENT")
+    private HttpConnectionBuilderFactory.HttpClientType httpClient = HttpConnectionBuilderFactory.HttpClientType.APACHE_CLIENT_5;
+
     @Option(name = "-proxy", aliases = {"-P"}, usage = "The HTTP/HTTPS proxy to use.", metaVar = "URL")
     private URI proxy;
 
@@ -166,6 +280,15 @@ public class Params {
             if (result.getDirectory() != null &&
                     prepareOutputDirectory(cmdLineParser, result.getDirectory())) return null;
 
+            if (result.getColdDirectory() != null &&
+                    prepareOutputDirectory(cmdLineParser, result.getColdDirectory())) return null;
+
+            if (result.getMigrateBandwidthKB() < 0) {
+                cmdLineParser.printUsage(System.err);
+                log.error("Migration bandwidth must not be negative!");
+                return null;
+            }
+
             if (result.getMetaDataCsv() != null &&
                     prepareCsvOutputFile(cmdLineParser, result.getMetaDataCsv())) return null;
 
@@ -179,6 +302,125 @@ public class Params {
                 }
             }
 
+            try {
+                if (toMillis(result.retryDelay) < 0 || toMillis(result.retryMaxDelay) < 0) {
+                    cmdLineParser.printUsage(System.err);
+                    log.error("Retry delays must not be negative!");
+                    return null;
+                }
+                if (toMillis(result.retryMaxDelay) < toMillis(result.retryDelay)) {
+                    cmdLineParser.printUsage(System.err);
+                    log.error("Maximum retry delay is less than the retry delay!");
+                    return null;
+                }
+            }
+            catch (DateTimeParseException e) {
+                log.warn("Error in parsing the retry delay", e);
+                cmdLineParser.printUsage(System.err);
+                return null;
+            }
+
+            if (result.getBandwidthLimitKB() != null && result.getBandwidthLimitKB() <= 0) {
+                cmdLineParser.printUsage(System.err);
+                log.error("Bandwidth limit must be positive!");
+                return null;
+            }
+
+            if (result.getMaxConnectionsPerHost() <= 0) {
+                cmdLineParser.printUsage(System.err);
+                log.error("Maximum connections per host must be positive!");
+                return null;
+            }
+
+            if (result.getBandwidthMinimumKB() < 0) {
+                cmdLineParser.printUsage(System.err);
+                log.error("Bandwidth minimum must not be negative!");
+                return null;
+            }
+
+            if (result.getPriorities() != null) {
+                try {
+                    for (String priority : result.getPriorities().values()) {
+                        Integer.parseInt(priority);
+                    }
+                }
+                catch (NumberFormatException e) {
+                    log.error("Station priority is not a number: {}", e.getMessage());
+                    cmdLineParser.printUsage(System.err);
+                    return null;
+                }
+            }
+
+            if (result.getStallTimeout() != null) {
+                try {
+                    toMillis(result.stallTimeout);
+                }
+                catch (DateTimeParseException e) {
+                    log.warn("Error in parsing the stall timeout", e);
+                    cmdLineParser.printUsage(System.err);
+                    return null;
+                }
+            }
+
+            try {
+                toMillis(result.syncInterval);
+            }
+            catch (DateTimeParseException e) {
+                log.warn("Error in parsing the sync interval", e);
+                cmdLineParser.printUsage(System.err);
+                return null;
+            }
+
+            if (result.getSyncKB() <= 0) {
+                cmdLineParser.printUsage(System.err);
+                log.error("Sync kilobytes must be positive!");
+                return null;
+            }
+
+            if (result.getRetentionQuotas() != null) {
+                try {
+                    for (String quota : result.getRetentionQuotas().values()) {
+                        Long.parseLong(quota);
+                    }
+                }
+                catch (NumberFormatException e) {
+                    log.error("Station quota is not a number: {}", e.getMessage());
+                    cmdLineParser.printUsage(System.err);
+                    return null;
+                }
+            }
+
+            if (result.getRetentionMaxAge() != null) {
+                try {
+                    toMillis(result.retentionMaxAge);
+                }
+                catch (DateTimeParseException e) {
+                    log.warn("Error in parsing the retention max age", e);
+                    cmdLineParser.printUsage(System.err);
+                    return null;
+                }
+            }
+
+            if (result.getIoFlushInterval() != null) {
+                try {
+                    toMillis(result.ioFlushInterval);
+                }
+                catch (DateTimeParseException e) {
+                    log.warn("Error in parsing the io flush interval", e);
+                    cmdLineParser.printUsage(System.err);
+                    return null;
+                }
+            }
+
+            try {
+                toMillis(result.resolutionCacheTtl);
+            }
+            catch (DateTimeParseException e) {
+                log.warn("Error in parsing the cache ttl", e);
+                cmdLineParser.printUsage(System.err);
+                return null;
+            }
+
             return result;
         } catch (CmdLineException ex) {
             log.warn("Error in parsing", ex);
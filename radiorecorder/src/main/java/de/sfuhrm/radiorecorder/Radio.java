@@ -7,10 +7,14 @@ import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /** An internet radio station for use within the application.
  * @see Station
@@ -72,4 +76,57 @@ public class Radio {
         r.setTags(new ArrayList<>(s.getTagList()));
         return r;
     }
+
+    /** Separates the fields of a cache line. */
+    private static final String CACHE_SEPARATOR = " ";
+
+    private static String encode(Object o) {
+        return o == null ? "" : URLEncoder.encode(o.toString(), StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String s) {
+        return s.isEmpty() ? null : URLDecoder.decode(s, StandardCharsets.UTF_8);
+    }
+
+    /** Converts this radio to a single line for the {@link ResolutionCache}.
+     * @return a line of URL encoded fields.
+     * @see #fromCacheLine(String)
+     * */
+    String toCacheLine() {
+        return String.join(CACHE_SEPARATOR,
+                encode(name),
+                encode(uri),
+                encode(uuid),
+                encode(favIconUrl),
+                encode(codec),
+                encode(bitrate),
+                tags.stream().map(Radio::encode).collect(Collectors.joining(",")));
+    }
+
+    /** Converts a line from the {@link ResolutionCache} to a radio.
+     * @param line the line created by {@link #toCacheLine()}.
+     * @return the radio object to use in the application.
+     * @throws IllegalArgumentException if the line is malformed.
+     * */
+    static Radio fromCacheLine(String line) {
+        String[] fields = line.split(CACHE_SEPARATOR, -1);
+        if (fields.length != 7) {
+            throw new IllegalArgumentException("Malformed cache line: " + line);
+        }
+        Radio r = new Radio();
+        r.setName(decode(fields[0]));
+        r.setUri(fields[1].isEmpty() ? null : URI.create(decode(fields[1])));
+        r.setUuid(fields[2].isEmpty() ? null : UUID.fromString(decode(fields[2])));
+        r.setFavIconUrl(fields[3].isEmpty() ? null : URI.create(decode(fields[3])));
+        r.setCodec(decode(fields[4]));
+        r.setBitrate(Integer.parseInt(fields[5]));
+        List<String> tagList = new ArrayList<>();
+        if (!fields[6].isEmpty()) {
+            for (String tag : fields[6].split(",")) {
+                tagList.add(decode(tag));
+            }
+        }
+        r.setTags(tagList);
+        return r;
+    }
 }
@@ -49,6 +49,11 @@ public class RadioRunnable implements Runnable {
             configurator.consume(consumerContext.getUri());
         }
         finally {
+            // wait for post-processing of this radio
+            consumerContext.getScope().close();
+            if (consumerContext.getBandwidthShare() != null) {
+                consumerContext.getBandwidthShare().close();
+            }
             MDC.remove("id");
         }
     }
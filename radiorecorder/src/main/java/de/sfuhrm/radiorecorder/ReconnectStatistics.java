@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+/**
+ * Statistics on the gaps between losing a connection of a station
+ * and having it reconnected.
+ * @author Stephan Fuhrmann
+ */
+public class ReconnectStatistics {
+
+    /** The number of reconnects. */
+    private long count;
+
+    /** The sum of all gaps in milliseconds. */
+    private long totalMillis;
+
+    /** The longest gap in milliseconds. */
+    private long maxMillis;
+
+    /** The most recent gap in milliseconds. */
+    private long lastMillis;
+
+    /** Records a reconnect.
+     * @param gapMillis the time without connection in milliseconds.
+     * */
+    public synchronized void record(long gapMillis) {
+        count++;
+        totalMillis += gapMillis;
+        maxMillis = Math.max(maxMillis, gapMillis);
+        lastMillis = gapMillis;
+    }
+
+    /** Get the number of reconnects.
+     * @return the number of recorded gaps.
+     * */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** Get the sum of all gaps.
+     * @return the sum in milliseconds.
+     * */
+    public synchronized long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /** Get the longest gap.
+     * @return the longest gap in milliseconds.
+     * */
+    public synchronized long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /** Get the most recent gap.
+     * @return the most recent gap in milliseconds.
+     * */
+    public synchronized long getLastMillis() {
+        return lastMillis;
+    }
+
+    /** Get the average gap.
+     * @return the average gap in milliseconds, 0 if there was no reconnect.
+     * */
+    public synchronized long getAverageMillis() {
+        return count != 0 ? totalMillis / count : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d reconnects, gaps: last %d ms, avg %d ms, max %d ms",
+                count, lastMillis, getAverageMillis(), maxMillis);
+    }
+}
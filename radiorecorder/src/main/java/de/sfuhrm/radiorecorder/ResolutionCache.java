@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Persistent cache of resolved stream URLs and station lookups.
+ * The entries expire after a fixed time and are kept in a properties
+ * file, so restarts need no playlist fetches, redirects or station
+ * lookups before the first audio byte.
+ * The file is only rewritten when an entry changes, by writing a
+ * temporary file and moving it into place.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class ResolutionCache {
+
+    /** The kinds of cached resolutions. */
+    public enum Kind {
+        /** The final stream URL of a station URL, after playlists and redirects. */
+        STREAM,
+        /** The stations found for a radio browser lookup. */
+        STATIONS
+    }
+
+    private static final Map<Path, ResolutionCache> CACHES = new ConcurrentHashMap<>();
+
+    /** Separates the expiry time and the values. */
+    private static final String SEPARATOR = "\n";
+
+    private final Path file;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Properties properties = new Properties();
+
+    /** Guards the properties and serializes the writes of the file.
+     * Not a monitor, so virtual threads do not pin their carrier while writing. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Constructor. Loads the file if it exists.
+     * @param file the file to persist the cache in.
+     * @param ttlMillis the time after which entries expire.
+     * @param clock the source of the current time in milliseconds.
+     */
+    ResolutionCache(Path file, long ttlMillis, LongSupplier clock) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        if (Files.exists(file)) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                properties.load(inputStream);
+                log.debug("Loaded {} cached resolutions from {}", properties.size(), file);
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("Ignoring unreadable cache file {}", file, e);
+                properties.clear();
+            }
+        }
+    }
+
+    /** Get the process wide cache for a file.
+     * @param file the file to persist the cache in.
+     * @param ttlMillis the time after which entries expire.
+     * @return the cache shared by all stations.
+     */
+    public static ResolutionCache forFile(@NonNull Path file, long ttlMillis) {
+        return CACHES.computeIfAbsent(file.toAbsolutePath(), f -> new ResolutionCache(f, ttlMillis, System::currentTimeMillis));
+    }
+
+    private static String toKey(Kind kind, String key) {
+        return kind.name() + "|" + key;
+    }
+
+    /** Get a cached resolution.
+     * @param kind the kind of resolution.
+     * @param key the resolved key, for example the station URL.
+     * @return the values if cached and not expired.
+     */
+    public Optional<List<String>> get(Kind kind, String key) {
+        lock.lock();
+        try {
+            Optional<List<String>> values = valid(properties.getProperty(toKey(kind, key)), 0);
+            if (values.isPresent()) {
+                log.debug("Cache hit for {} {}", kind, key);
+            }
+            return values;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Parses a stored entry.
+     * @param value the stored entry, or {@code null}.
+     * @param minRemainingMillis the time the entry needs to stay valid for.
+     * @return the values if the entry stays valid long enough.
+     */
+    private Optional<List<String>> valid(String value, long minRemainingMillis) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        String[] parts = value.split(SEPARATOR, -1);
+        try {
+            if (Long.parseLong(parts[0]) - minRemainingMillis < clock.getAsLong()) {
+                return Optional.empty();
+            }
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+        return Optional.of(Arrays.asList(parts).subList(1, parts.length));
+    }
+
+    /** Puts a resolution into the cache and persists the cache.
+     * The file is not written if the cache already holds the same values
+     * for at least half the time to live, so reconnects do not rewrite it.
+     * @param kind the kind of resolution.
+     * @param key the resolved key, for example the station URL.
+     * @param values the resolved values, must not contain line breaks.
+     */
+    public void put(Kind kind, String key, List<String> values) {
+        lock.lock();
+        try {
+            if (valid(properties.getProperty(toKey(kind, key)), ttlMillis / 2)
+                    .filter(values::equals)
+                    .isPresent()) {
+                return;
+            }
+            StringBuilder value = new StringBuilder();
+            value.append(clock.getAsLong() + ttlMillis);
+            for (String v : values) {
+                value.append(SEPARATOR).append(v);
+            }
+            properties.setProperty(toKey(kind, key), value.toString());
+            save();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes a resolution that turned out to be wrong.
+     * @param kind the kind of resolution.
+     * @param key the resolved key, for example the station URL.
+     */
+    public void invalidate(Kind kind, String key) {
+        lock.lock();
+        try {
+            if (properties.remove(toKey(kind, key)) != null) {
+                log.debug("Invalidated {} {}", kind, key);
+                save();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Writes the cache, dropping expired entries. Called with the lock held. */
+    private void save() {
+        long now = clock.getAsLong();
+        properties.entrySet().removeIf(e -> {
+            String expires = e.getValue().toString().split(SEPARATOR, 2)[0];
+            try {
+                return Long.parseLong(expires) < now;
+            } catch (NumberFormatException ex) {
+                return true;
+            }
+        });
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tmp)) {
+                    properties.store(outputStream, Main.PROJECT + " resolution cache");
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Could not write cache file {}", file, e);
+        }
+    }
+}
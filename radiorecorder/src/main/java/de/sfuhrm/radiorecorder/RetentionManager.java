@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import de.sfuhrm.radiorecorder.metadata.MimeType;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the recordings in the target directory within a global byte budget,
+ * per station quotas, a maximum age and the minimum free space by deleting
+ * the oldest recordings in the background.
+ * The recordings are kept in an in-memory index that is built by one walk of the
+ * target directory and then updated with each finished recording.
+ * The station of a recording is the top level directory it is in, which is
+ * the station name with the default name formats.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class RetentionManager {
+
+    /** The interval between two checks of the limits. */
+    static final long ENFORCE_INTERVAL_MILLIS = 10_000;
+
+    /** The suffixes of the files managed, other files are never deleted. */
+    static final Set<String> SUFFIXES = Set.of(
+            MimeType.AUDIO_MPEG.getSuffix(),
+            MimeType.AUDIO_OGG.getSuffix(),
+            MimeType.AUDIO_XWAV.getSuffix(),
+            MimeType.AUDIO_XMSWMA.getSuffix(),
+            MimeType.AUDIO_AAC.getSuffix());
+
+    private static final Map<Path, RetentionManager> MANAGERS = new ConcurrentHashMap<>();
+
+    /** Orders recordings from the oldest to the newest. */
+    private static final Comparator<Recording> BY_AGE = Comparator
+            .comparingLong((Recording r) -> r.modified)
+            .thenComparing(r -> r.file);
+
+    private final Path directory;
+    private final long budgetBytes;
+    private final Map<String, Long> quotaBytes;
+    private final long maxAgeMillis;
+    private final long minFree;
+    private final DiskSpaceMonitor diskSpaceMonitor;
+    private final LongSupplier clock;
+
+    /** The index, guarded by {@code this}. */
+    private final Map<Path, Recording> recordings = new HashMap<>();
+    private final NavigableSet<Recording> byAge = new TreeSet<>(BY_AGE);
+    private final Map<String, NavigableSet<Recording>> byStation = new HashMap<>();
+    private final Map<String, Long> stationBytes = new HashMap<>();
+    private long totalBytes;
+    private long evictedBytes;
+
+    /** Whether the target directory was walked. */
+    private volatile boolean scanned;
+
+    /** Whether a check of the limits is queued. */
+    private final AtomicBoolean enforcePending = new AtomicBoolean();
+
+    private ScheduledExecutorService executor;
+
+    /** An indexed recording. */
+    private static final class Recording {
+        private final Path file;
+        private final String station;
+        private final long size;
+        private final long modified;
+
+        Recording(Path file, String station, long size, long modified) {
+            this.file = file;
+            this.station = station;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /** Constructor.
+     * @param directory the target directory holding the recordings.
+     * @param budgetBytes the maximum bytes of all recordings, or {@link Long#MAX_VALUE}.
+     * @param quotaBytes the maximum bytes per lower case station name.
+     * @param maxAgeMillis the maximum age of recordings, or {@link Long#MAX_VALUE}.
+     * @param minFree the minimum usable bytes to keep free.
+     * @param diskSpaceMonitor the usable space of the file system, or {@code null}.
+     * @param clock the current time in milliseconds.
+     */
+    RetentionManager(Path directory, long budgetBytes, Map<String, Long> quotaBytes, long maxAgeMillis,
+                     long minFree, DiskSpaceMonitor diskSpaceMonitor, LongSupplier clock) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.budgetBytes = budgetBytes;
+        this.quotaBytes = Map.copyOf(quotaBytes);
+        this.maxAgeMillis = maxAgeMillis;
+        this.minFree = minFree;
+        this.diskSpaceMonitor = diskSpaceMonitor;
+        this.clock = clock;
+    }
+
+    /** Get the process wide manager for a target directory.
+     * The first call starts walking the directory and checking the limits in the background,
+     * the limits of later calls are ignored.
+     * @param directory the target directory holding the recordings.
+     * @param budgetBytes the maximum bytes of all recordings, or {@link Long#MAX_VALUE}.
+     * @param quotaBytes the maximum bytes per lower case station name.
+     * @param maxAgeMillis the maximum age of recordings, or {@link Long#MAX_VALUE}.
+     * @param minFree the minimum usable bytes to keep free.
+     * @param diskSpaceMonitor the usable space of the file system, or {@code null}.
+     * @return the manager shared by all stations writing to the directory.
+     */
+    public static RetentionManager forDirectory(@NonNull Path directory, long budgetBytes, @NonNull Map<String, Long> quotaBytes,
+                                                long maxAgeMillis, long minFree, DiskSpaceMonitor diskSpaceMonitor) {
+        return MANAGERS.computeIfAbsent(directory.toAbsolutePath().normalize(), d -> {
+            RetentionManager manager = new RetentionManager(d, budgetBytes, quotaBytes, maxAgeMillis,
+                    minFree, diskSpaceMonitor, System::currentTimeMillis);
+            manager.start();
+            return manager;
+        });
+    }
+
+    private void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Retention " + directory);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> {
+            try {
+                scan();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Error indexing {}", directory, e);
+            }
+        });
+        executor.scheduleWithFixedDelay(this::enforceSafely, 0, ENFORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Get the bytes of all indexed recordings.
+     * @return the sum of the recording sizes.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** Get the number of indexed recordings.
+     * @return the number of recordings.
+     */
+    public synchronized int getRecordingCount() {
+        return recordings.size();
+    }
+
+    /** Get the bytes deleted so far.
+     * @return the sum of the sizes of the deleted recordings.
+     */
+    public synchronized long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    /** Walks the target directory once and indexes all recordings. */
+    void scan() throws IOException {
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.filter(RetentionManager::isRecording).forEach(file -> {
+                    try {
+                        index(file);
+                    } catch (IOException e) {
+                        log.debug("Error indexing {}", file, e);
+                    }
+                });
+            }
+        }
+        scanned = true;
+        log.info("Indexed {} recordings with {} bytes in {}", getRecordingCount(), getTotalBytes(), directory);
+    }
+
+    static boolean isRecording(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && SUFFIXES.contains(name.substring(dot)) && Files.isRegularFile(file);
+    }
+
+    /** Adds a finished recording to the index.
+     * @param file the recording, ignored if it is not a recording in the target directory.
+     */
+    public void add(@NonNull Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        if (!normalized.startsWith(directory) || !isRecording(normalized)) {
+            return;
+        }
+        try {
+            index(normalized);
+        } catch (IOException e) {
+            log.warn("Error indexing {}", file, e);
+            return;
+        }
+        requestEnforce();
+    }
+
+    private void index(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Path relative = directory.relativize(file);
+        String station = relative.getNameCount() > 1
+                ? relative.getName(0).toString().toLowerCase(Locale.ROOT)
+                : "";
+        Recording recording = new Recording(file, station, attributes.size(), attributes.lastModifiedTime().toMillis());
+        synchronized (this) {
+            remove(recordings.get(file));
+            recordings.put(file, recording);
+            byAge.add(recording);
+            byStation.computeIfAbsent(station, s -> new TreeSet<>(BY_AGE)).add(recording);
+            stationBytes.merge(station, recording.size, Long::sum);
+            totalBytes += recording.size;
+        }
+    }
+
+    private void remove(Recording recording) {
+        if (recording == null) {
+            return;
+        }
+        recordings.remove(recording.file);
+        byAge.remove(recording);
+        byStation.get(recording.station).remove(recording);
+        stationBytes.merge(recording.station, -recording.size, Long::sum);
+        totalBytes -= recording.size;
+    }
+
+    /** Asks for recordings to be deleted because the file system is too full.
+     * @return {@code true} if there are recordings left to delete,
+     * {@code false} if the space can not be freed by deleting recordings.
+     */
+    public boolean makeRoom() {
+        requestEnforce();
+        synchronized (this) {
+            return !scanned || !byAge.isEmpty();
+        }
+    }
+
+    private void requestEnforce() {
+        if (executor != null && enforcePending.compareAndSet(false, true)) {
+            executor.execute(this::enforceSafely);
+        }
+    }
+
+    private void enforceSafely() {
+        enforcePending.set(false);
+        try {
+            enforce();
+        } catch (RuntimeException e) {
+            log.warn("Error enforcing the retention limits of {}", directory, e);
+        }
+    }
+
+    /** Deletes the oldest recordings until all limits are met. */
+    void enforce() {
+        Recording victim;
+        while ((victim = nextVictim()) != null) {
+            try {
+                Files.deleteIfExists(victim.file);
+                log.info("Deleted {} with {} bytes", victim.file, victim.size);
+            } catch (IOException e) {
+                log.warn("Error deleting {}", victim.file, e);
+                continue;
+            }
+            synchronized (this) {
+                evictedBytes += victim.size;
+            }
+            if (diskSpaceMonitor != null) {
+                diskSpaceMonitor.written(-victim.size);
+            }
+        }
+    }
+
+    /** Removes the next recording to delete from the index.
+     * @return the recording to delete, or {@code null} if all limits are met.
+     */
+    private synchronized Recording nextVictim() {
+        if (byAge.isEmpty()) {
+            return null;
+        }
+        Recording result = null;
+        Recording oldest = byAge.first();
+        if (maxAgeMillis != Long.MAX_VALUE && oldest.modified < clock.getAsLong() - maxAgeMillis) {
+            result = oldest;
+        } else if (totalBytes > budgetBytes) {
+            result = oldest;
+        } else if (diskSpaceMonitor != null && diskSpaceMonitor.getUsableSpace() < minFree) {
+            result = oldest;
+        } else {
+            for (Map.Entry<String, Long> quota : quotaBytes.entrySet()) {
+                NavigableSet<Recording> station = byStation.get(quota.getKey());
+                if (station != null && !station.isEmpty() && stationBytes.get(quota.getKey()) > quota.getValue()) {
+                    result = station.first();
+                    break;
+                }
+            }
+        }
+        remove(result);
+        return result;
+    }
+}
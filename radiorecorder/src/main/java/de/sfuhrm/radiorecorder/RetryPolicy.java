@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * Delays between reconnect attempts.
+ * The first retry happens immediately, further retries are delayed
+ * exponentially with random jitter, so stations losing their
+ * connection at the same time do not reconnect in lockstep.
+ * @author Stephan Fuhrmann
+ */
+public class RetryPolicy {
+
+    /** The delay of the second retry in milliseconds. */
+    @Getter
+    private final long initialDelayMillis;
+
+    /** The upper bound of the delay in milliseconds. */
+    @Getter
+    private final long maxDelayMillis;
+
+    /** Constructor.
+     * @param initialDelayMillis the delay of the second retry in milliseconds.
+     * @param maxDelayMillis the upper bound of the delay in milliseconds.
+     * */
+    public RetryPolicy(long initialDelayMillis, long maxDelayMillis) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Illegal delays: " + initialDelayMillis + ", " + maxDelayMillis);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /** Get the delay before the next retry.
+     * @param failures the number of consecutive failures so far, at least 1.
+     * @return the delay in milliseconds, 0 for the first failure.
+     * */
+    public long getDelayMillis(int failures) {
+        if (failures <= 1) {
+            return 0;
+        }
+        // initial * 2^(failures - 2), capped to avoid overflows
+        int exponent = Math.min(failures - 2, 30);
+        long base = Math.min(maxDelayMillis, initialDelayMillis << exponent);
+        if (base < 0 || base > maxDelayMillis) {
+            base = maxDelayMillis;
+        }
+        // equal jitter: half fixed, half random
+        long half = base / 2;
+        return half + ThreadLocalRandom.current().nextLong(base - half + 1);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import de.sfuhrm.radiorecorder.http.ByteBufferSource;
+import de.sfuhrm.radiorecorder.http.FilterHttpConnection;
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Central watchdog detecting stalled streams long before the
+ * read timeout fires.
+ * Every second the bytes read from each watched connection are compared
+ * to the expected throughput. Connections staying below a quarter of the
+ * expected throughput for the stall time fail further reads and are
+ * reported to the listeners. The {@link ConnectionHandler} listens and
+ * closes the stalled connection, which lets it reconnect.
+ * The listeners also learn when the throughput first drops, so that
+ * consumers can prepare for the reconnect.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class StallWatchdog {
+
+    /** The interval between two throughput checks. */
+    static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    /** Throughput below this fraction of the expected throughput is a stall. */
+    static final double STALL_RATIO = 0.25;
+
+    private static final StallWatchdog INSTANCE = new StallWatchdog(System::currentTimeMillis, true);
+
+    private final LongSupplier clock;
+
+    /** Whether checks run on a background thread. */
+    private final boolean scheduled;
+
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+    private final List<Consumer<StallEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /** A detected stall, or a drop of the throughput that may become one. */
+    @Value
+    public static class StallEvent {
+        /** The name of the stalled station. */
+        String name;
+        /** The URL of the stalled connection. */
+        URI uri;
+        /** The throughput in the last check interval. */
+        long bytesPerSecond;
+        /** The expected throughput. */
+        long expectedBytesPerSecond;
+        /** How long the throughput was too low. */
+        long stalledMillis;
+        /** Whether the connection stalled, {@code false} if the throughput just dropped. */
+        boolean stalled;
+        /** The stalled connection as returned by {@link Watch#getConnection()}. */
+        HttpConnection connection;
+    }
+
+    /** Constructor.
+     * @param clock the source of the current time in milliseconds.
+     * @param scheduled whether to check on a background thread,
+     *                  otherwise {@link #check()} needs to be called.
+     */
+    StallWatchdog(LongSupplier clock, boolean scheduled) {
+        this.clock = clock;
+        this.scheduled = scheduled;
+    }
+
+    /** Get the process wide watchdog.
+     * @return the shared instance.
+     */
+    public static StallWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /** Adds a listener that gets informed about every stall.
+     * @param listener the listener to add.
+     */
+    public void addListener(@NonNull Consumer<StallEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /** Removes a listener.
+     * @param listener the listener to remove.
+     */
+    public void removeListener(@NonNull Consumer<StallEvent> listener) {
+        listeners.remove(listener);
+    }
+
+    /** Starts watching a connection.
+     * @param connection the connection to watch.
+     * @param name the name of the station for reporting.
+     * @param expectedBytesPerSecond the expected throughput, or 0 to use
+     *                               the average throughput observed so far.
+     * @param stallMillis the time the throughput needs to be too low to
+     *                    close the connection.
+     * @return the watch. Consumers need to read from {@link Watch#getConnection()},
+     * and the watch needs to be closed after use.
+     */
+    public Watch watch(@NonNull HttpConnection connection, String name, long expectedBytesPerSecond, long stallMillis) {
+        Watch watch = new Watch(connection, name, expectedBytesPerSecond, stallMillis, clock.getAsLong());
+        watches.add(watch);
+        startScheduler();
+        return watch;
+    }
+
+    private synchronized void startScheduler() {
+        if (scheduled && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Stall watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Checks the throughput of all watched connections. */
+    void check() {
+        long now = clock.getAsLong();
+        for (Watch watch : watches) {
+            try {
+                watch.check(now);
+            } catch (RuntimeException e) {
+                log.warn("Error checking {}", watch.name, e);
+            }
+        }
+    }
+
+    private void fire(StallEvent event) {
+        for (Consumer<StallEvent> listener : listeners) {
+            listener.accept(event);
+        }
+    }
+
+    /** The watch of a single connection. */
+    public final class Watch implements AutoCloseable {
+        private final HttpConnection delegate;
+        private final String name;
+        private final long expectedBytesPerSecond;
+        private final long stallMillis;
+        private final long start;
+
+        /** Bytes read since the last check. */
+        private final AtomicLong bytes = new AtomicLong();
+
+        /** Bytes read until the last check. */
+        private long totalBytes;
+
+        private long lastCheck;
+
+        /** Since when the throughput is too low, or -1. */
+        private long stalledSince = -1;
+
+        /** The total time reads were deliberately delayed. */
+        private volatile LongSupplier throttledMillis = () -> 0;
+
+        private long lastThrottledMillis;
+
+        /** Whether the connection stalled and fails further reads. */
+        @Getter
+        private volatile boolean stalled;
+
+        /** The connection counting the bytes read. */
+        @Getter
+        private final HttpConnection connection;
+
+        private Watch(HttpConnection delegate, String name, long expectedBytesPerSecond, long stallMillis, long now) {
+            this.delegate = delegate;
+            this.name = name;
+            this.expectedBytesPerSecond = expectedBytesPerSecond;
+            this.stallMillis = stallMillis;
+            this.start = now;
+            this.lastCheck = now;
+            this.connection = new CountingHttpConnection();
+        }
+
+        private void check(long now) {
+            long elapsed = now - lastCheck;
+            if (stalled || elapsed <= 0) {
+                return;
+            }
+            long read = bytes.getAndSet(0);
+            totalBytes += read;
+            lastCheck = now;
+            long throttled = throttledMillis.getAsLong();
+            boolean wasThrottled = throttled != lastThrottledMillis;
+            lastThrottledMillis = throttled;
+            long bytesPerSecond = read * 1000 / elapsed;
+            long expected = expectedBytesPerSecond > 0
+                    ? expectedBytesPerSecond
+                    : totalBytes * 1000 / Math.max(1, now - start);
+            if (wasThrottled || read > 0 && bytesPerSecond >= expected * STALL_RATIO) {
+                stalledSince = -1;
+                return;
+            }
+            boolean dropped = stalledSince == -1;
+            if (dropped) {
+                stalledSince = now - elapsed;
+            }
+            long stalledMillis = now - stalledSince;
+            if (stalledMillis >= stallMillis) {
+                stalled = true;
+                StallEvent event = new StallEvent(name, uriOrNull(), bytesPerSecond, expected, stalledMillis, true, connection);
+                log.warn("Stream {} stalled with {} bytes/s for {} ms, expected {} bytes/s, reconnecting",
+                        name, bytesPerSecond, stalledMillis, expected);
+                fire(event);
+            } else if (dropped) {
+                log.debug("Stream {} dropped to {} bytes/s, expected {} bytes/s", name, bytesPerSecond, expected);
+                fire(new StallEvent(name, uriOrNull(), bytesPerSecond, expected, stalledMillis, false, connection));
+            }
+        }
+
+        /** Excuses low throughput while reads get throttled on purpose,
+         * for example by the {@link BandwidthGovernor}.
+         * @param throttledMillis supplies the total time reads were delayed.
+         */
+        public void excuseThrottling(@NonNull LongSupplier throttledMillis) {
+            this.throttledMillis = throttledMillis;
+            this.lastThrottledMillis = throttledMillis.getAsLong();
+        }
+
+        private URI uriOrNull() {
+            try {
+                return delegate.getURI();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() {
+            watches.remove(this);
+        }
+
+        /** Counts the body bytes read from the watched connection. */
+        private class CountingHttpConnection extends FilterHttpConnection {
+            CountingHttpConnection() {
+                super(Watch.this.delegate);
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new CountingInputStream(delegate.getInputStream());
+            }
+        }
+
+        /** Counts the bytes read and fails once the stream stalled. */
+        private class CountingInputStream extends FilterInputStream implements ByteBufferSource {
+            CountingInputStream(InputStream in) {
+                super(in);
+            }
+
+            private void ensureNotStalled() throws IOException {
+                if (stalled) {
+                    throw new IOException("Stream " + name + " stalled");
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                ensureNotStalled();
+                int result = super.read();
+                if (result != -1) {
+                    bytes.incrementAndGet();
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                ensureNotStalled();
+                int result = super.read(b, off, len);
+                if (result > 0) {
+                    bytes.addAndGet(result);
+                }
+                return result;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                ensureNotStalled();
+                long result = super.skip(n);
+                bytes.addAndGet(result);
+                return result;
+            }
+
+            @Override
+            public boolean providesBuffers() {
+                return ByteBufferSource.of(in) != null;
+            }
+
+            @Override
+            public ByteBuffer nextBuffer() throws IOException {
+                ensureNotStalled();
+                ByteBuffer result = ByteBufferSource.of(in).nextBuffer();
+                if (result != null) {
+                    bytes.addAndGet(result.remaining());
+                }
+                return result;
+            }
+        }
+    }
+}
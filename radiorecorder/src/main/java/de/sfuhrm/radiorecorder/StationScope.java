@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Owns the background tasks of one radio station, for example
+ * the post-processing of finished files.
+ * Closing the scope waits for all tasks submitted to it, so no task
+ * outlives the station that started it.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class StationScope implements AutoCloseable {
+
+    /** Whether the threads of this scope are virtual threads. */
+    @Getter
+    private final boolean virtual;
+
+    /** Executor starting one thread per submitted task. */
+    private final ExecutorService executorService;
+
+    /** Constructor.
+     * @param virtual {@code true} for running tasks on virtual threads,
+     *                {@code false} for platform threads.
+     * @param name the name prefix of the threads in this scope.
+     * */
+    public StationScope(boolean virtual, @NonNull String name) {
+        this.virtual = virtual;
+        this.executorService = Executors.newThreadPerTaskExecutor(
+                newThreadBuilder(virtual).name(name + " worker-", 0).factory());
+    }
+
+    /** Get a new thread builder for the given thread type.
+     * @param virtual {@code true} for virtual threads,
+     *                {@code false} for platform threads.
+     * @return a new unnamed thread builder.
+     * */
+    public static Thread.Builder newThreadBuilder(boolean virtual) {
+        return virtual ? Thread.ofVirtual() : Thread.ofPlatform();
+    }
+
+    /** Runs a background task within this scope.
+     * If the scope is already closed, the task is run in the calling thread.
+     * @param task the task to run.
+     * */
+    public void execute(@NonNull Runnable task) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("Scope already closed, running task in caller thread");
+            task.run();
+        }
+    }
+
+    /** Waits for all submitted tasks to finish and frees the
+     * resources of the scope.
+     * */
+    @Override
+    public void close() {
+        executorService.close();
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Moves finished recordings from the hot directory the stations write to
+ * into a cold directory with the same folder hierarchy.
+ * The moves run on a background thread with an optional bandwidth cap.
+ * Each copy is checksummed before the hot file is deleted.
+ * Recordings left in the hot directory by an earlier run are queued at start,
+ * and the queue is drained for a limited time at shutdown.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class TierMigrator {
+
+    /** The bytes copied at once. */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** The suffix of files being copied to the cold directory. */
+    static final String PART_SUFFIX = ".part";
+
+    /** The time the shutdown waits for the queued files. */
+    static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000;
+
+    /** Ends the background thread when taken from the queue. */
+    private static final Migration STOP = new Migration(null, null);
+
+    private static final Map<Path, TierMigrator> MIGRATORS = new ConcurrentHashMap<>();
+
+    private final Path hotDirectory;
+    private final Path coldDirectory;
+
+    /** The maximum bytes copied per second, or 0 for no limit. */
+    private final long bytesPerSecond;
+
+    private final BlockingQueue<Migration> queue = new LinkedBlockingQueue<>();
+
+    private long migratedFiles;
+    private long migratedBytes;
+    private long failedFiles;
+
+    /** A file waiting to be moved. */
+    private static final class Migration {
+        private final Path file;
+        private final Consumer<Path> onMigrated;
+
+        Migration(Path file, Consumer<Path> onMigrated) {
+            this.file = file;
+            this.onMigrated = onMigrated;
+        }
+    }
+
+    /** Constructor.
+     * @param hotDirectory the directory the stations write to.
+     * @param coldDirectory the directory to move finished files to.
+     * @param bytesPerSecond the maximum bytes copied per second, or 0 for no limit.
+     */
+    TierMigrator(Path hotDirectory, Path coldDirectory, long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Illegal bandwidth " + bytesPerSecond);
+        }
+        this.hotDirectory = hotDirectory.toAbsolutePath().normalize();
+        this.coldDirectory = coldDirectory.toAbsolutePath().normalize();
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Get the process wide migrator for a hot directory.
+     * The first call queues the recordings left over in the hot directory,
+     * starts the background thread and registers the shutdown hook,
+     * the settings of later calls are ignored.
+     * @param hotDirectory the directory the stations write to.
+     * @param coldDirectory the directory to move finished files to.
+     * @param bytesPerSecond the maximum bytes copied per second, or 0 for no limit.
+     * @param onRecoveredOrNull receives the cold path of each left over recording after the move, or {@code null}.
+     * @return the migrator shared by all stations writing to the hot directory.
+     */
+    public static TierMigrator forDirectories(@NonNull Path hotDirectory, @NonNull Path coldDirectory, long bytesPerSecond,
+                                              Consumer<Path> onRecoveredOrNull) {
+        return MIGRATORS.computeIfAbsent(hotDirectory.toAbsolutePath().normalize(), d -> {
+            TierMigrator migrator = new TierMigrator(d, coldDirectory, bytesPerSecond);
+            try {
+                migrator.recover(System.currentTimeMillis(), onRecoveredOrNull);
+            } catch (IOException e) {
+                log.warn("Could not look for left over recordings in {}", d, e);
+            }
+            Thread worker = Thread.ofPlatform().daemon().name("Migrator " + d).start(migrator::run);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> migrator.drain(worker, SHUTDOWN_TIMEOUT_MILLIS)));
+            return migrator;
+        });
+    }
+
+    /** Queues the recordings in the hot directory that were finished before a point in time.
+     * These were left behind by an earlier run that ended before moving them.
+     * @param beforeMillis the files modified before this time are queued,
+     *                     later files may still be written to.
+     * @param onMigratedOrNull receives the cold path after each move, or {@code null}.
+     * @return the number of queued files.
+     * @throws IOException if the hot directory can not be read.
+     */
+    int recover(long beforeMillis, Consumer<Path> onMigratedOrNull) throws IOException {
+        if (!Files.isDirectory(hotDirectory)) {
+            return 0;
+        }
+        int count = 0;
+        try (Stream<Path> files = Files.walk(hotDirectory)) {
+            for (Path file : (Iterable<Path>) files.filter(RetentionManager::isRecording)::iterator) {
+                if (Files.getLastModifiedTime(file).toMillis() < beforeMillis) {
+                    migrate(file, onMigratedOrNull);
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            log.info("Moving {} left over recordings from {} to {}", count, hotDirectory, coldDirectory);
+        }
+        return count;
+    }
+
+    /** Lets the background thread finish the queued files and waits for it.
+     * Files that are queued later or take longer stay in the hot directory
+     * for the next start.
+     * @param worker the background thread.
+     * @param timeoutMillis the maximum time to wait.
+     */
+    void drain(Thread worker, long timeoutMillis) {
+        queue.add(STOP);
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int left = queue.size();
+        if (worker.isAlive() || left > 0) {
+            log.warn("Leaving {} queued recordings in {} for the next start", left, hotDirectory);
+        }
+    }
+
+    /** Get the path a file will have in the cold directory.
+     * @param hotFile a file in the hot directory.
+     * @return the path in the cold directory, or the file itself if it
+     * is not in the hot directory.
+     */
+    public Path coldPath(@NonNull Path hotFile) {
+        Path normalized = hotFile.toAbsolutePath().normalize();
+        if (!normalized.startsWith(hotDirectory)) {
+            return hotFile;
+        }
+        return coldDirectory.resolve(hotDirectory.relativize(normalized));
+    }
+
+    /** Queues a finished file for moving to the cold directory.
+     * @param hotFile the finished file in the hot directory.
+     * @param onMigratedOrNull receives the cold path after a successful move, or {@code null}.
+     */
+    public void migrate(@NonNull Path hotFile, Consumer<Path> onMigratedOrNull) {
+        queue.add(new Migration(hotFile, onMigratedOrNull));
+    }
+
+    /** Get the number of files moved so far.
+     * @return the number of moved files.
+     */
+    public synchronized long getMigratedFiles() {
+        return migratedFiles;
+    }
+
+    /** Get the bytes moved so far.
+     * @return the sum of the sizes of the moved files.
+     */
+    public synchronized long getMigratedBytes() {
+        return migratedBytes;
+    }
+
+    /** Get the number of files that could not be moved and stay in the hot directory.
+     * @return the number of failed files.
+     */
+    public synchronized long getFailedFiles() {
+        return failedFiles;
+    }
+
+    /** The background thread. */
+    void run() {
+        while (true) {
+            Migration migration;
+            try {
+                migration = queue.take();
+            } catch (InterruptedException e) {
+                log.debug("Interrupted", e);
+                return;
+            }
+            if (migration == STOP) {
+                return;
+            }
+            try {
+                Path coldFile = move(migration.file);
+                if (migration.onMigrated != null) {
+                    migration.onMigrated.accept(coldFile);
+                }
+            } catch (InterruptedIOException e) {
+                log.debug("Interrupted", e);
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not move {} to {}, keeping it", migration.file, coldDirectory, e);
+                synchronized (this) {
+                    failedFiles++;
+                }
+            }
+        }
+    }
+
+    /** Moves a file to the cold directory. The file is copied to a part file,
+     * the part file is checksummed and renamed, then the hot file is deleted.
+     * @param hotFile the file in the hot directory.
+     * @return the file in the cold directory.
+     * @throws IOException if copying failed or the checksums differ.
+     */
+    Path move(Path hotFile) throws IOException {
+        Path coldFile = coldPath(hotFile);
+        if (coldFile == hotFile) {
+            throw new IOException(hotFile + " is not in " + hotDirectory);
+        }
+        Files.createDirectories(coldFile.getParent());
+        Path partFile = coldFile.resolveSibling(coldFile.getFileName() + PART_SUFFIX);
+        long expected;
+        long size;
+        try {
+            CRC32C checksum = new CRC32C();
+            try (FileChannel in = FileChannel.open(hotFile, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                size = copy(in, out, checksum);
+                out.force(true);
+            }
+            expected = checksum.getValue();
+            long actual = checksum(partFile);
+            if (actual != expected) {
+                throw new IOException("Checksum of " + partFile + " is " + Long.toHexString(actual)
+                        + ", expected " + Long.toHexString(expected));
+            }
+            Files.setLastModifiedTime(partFile, Files.getLastModifiedTime(hotFile));
+            Files.move(partFile, coldFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+        Files.delete(hotFile);
+        synchronized (this) {
+            migratedFiles++;
+            migratedBytes += size;
+        }
+        log.debug("Moved {} to {}, {} bytes, checksum {}", hotFile, coldFile, size, Long.toHexString(expected));
+        return coldFile;
+    }
+
+    /** Copies a channel, checksumming the bytes and keeping to the bandwidth cap.
+     * @return the number of copied bytes.
+     */
+    private long copy(FileChannel in, FileChannel out, CRC32C checksum) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long start = System.nanoTime();
+        long copied = 0;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            checksum.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                copied += out.write(buffer);
+            }
+            buffer.clear();
+            throttle(copied, start);
+        }
+        return copied;
+    }
+
+    /** Sleeps while the copy is ahead of the bandwidth cap. */
+    private void throttle(long copied, long startNanos) throws InterruptedIOException {
+        if (bytesPerSecond == 0) {
+            return;
+        }
+        long dueNanos = copied * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        long aheadMillis = TimeUnit.NANOSECONDS.toMillis(dueNanos - (System.nanoTime() - startNanos));
+        if (aheadMillis > 0) {
+            try {
+                Thread.sleep(aheadMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while copying");
+            }
+        }
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return checksum.getValue();
+    }
+}
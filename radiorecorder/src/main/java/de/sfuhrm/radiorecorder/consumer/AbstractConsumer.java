@@ -18,8 +18,11 @@ package de.sfuhrm.radiorecorder.consumer;
 import de.sfuhrm.radiorecorder.ConnectionHandler;
 import de.sfuhrm.radiorecorder.ConsumerContext;
 import de.sfuhrm.radiorecorder.http.HttpConnection;
+import de.sfuhrm.radiorecorder.metadata.ContentType;
 import de.sfuhrm.radiorecorder.RadioException;
 import java.io.IOException;
+import java.net.URI;
+import java.util.List;
 import java.util.function.Consumer;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -41,14 +44,41 @@ public abstract class AbstractConsumer implements Consumer<HttpConnection> {
     @Setter(AccessLevel.PACKAGE)
     private ConnectionHandler connectionHandler;
 
+    /** The content type resolved by the connection handler, or {@code null}. */
+    @Getter(AccessLevel.NONE)
+    private final ContentType resolvedContentType;
+
     /** Constructor for AbstractConsumer.
      * @param context the context to provide to the subclasses via the accessor.
      *                Must be non-null.
      * @throws NullPointerException if context is null.
      * */
     public AbstractConsumer(@NonNull ConsumerContext context) {
+        this(context, null);
+    }
+
+    /** Constructor for AbstractConsumer.
+     * @param context the context to provide to the subclasses via the accessor.
+     *                Must be non-null.
+     * @param contentTypeOrNull the content type of the connection to consume,
+     *                already parsed by the connection handler, or {@code null}.
+     * @throws NullPointerException if context is null.
+     * */
+    public AbstractConsumer(@NonNull ConsumerContext context, ContentType contentTypeOrNull) {
         this.context = context;
         this.connectionHandler = new ConnectionHandler(context);
+        this.resolvedContentType = contentTypeOrNull;
+    }
+
+    /** Get the content type of a connection. Uses the content type resolved
+     * by the connection handler if it belongs to the connection.
+     * @param connection the connection to get the content type of.
+     * @return the parsed content type.
+     */
+    protected ContentType getContentType(HttpConnection connection) {
+        String value = connection.getContentType();
+        return resolvedContentType != null && resolvedContentType.isParsedFrom(value)
+                ? resolvedContentType : ContentType.parse(value);
     }
 
     @Override
@@ -71,6 +101,23 @@ public abstract class AbstractConsumer implements Consumer<HttpConnection> {
         _accept(u);
     }
 
+    /** Consumes the entries of a playlist.
+     * The entries are either consumed one after the other, or
+     * raced as mirrors if requested on the command line.
+     * @param entries the playlist entries to consume.
+     * @see ConsumerContext#isRaceMirrors()
+     */
+    protected void consumePlaylist(List<URI> entries) {
+        if (getContext().isRaceMirrors() && entries.size() > 1) {
+            getConnectionHandler().consumeMirrors(entries);
+        } else {
+            for (URI entry : entries) {
+                log.debug("Consuming entry {}", entry);
+                getConnectionHandler().consume(entry);
+            }
+        }
+    }
+
     /** The inner accept implementation. Will get called after applying
      * configuration to the HttpConnection passed in.
      * @param u the connection to process.
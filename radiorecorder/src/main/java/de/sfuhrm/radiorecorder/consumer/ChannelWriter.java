@@ -0,0 +1,357 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import de.sfuhrm.radiorecorder.BufferPool;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a file through a direct buffer from the {@link BufferPool} in chunks of a few
+ * seconds of audio. Optionally reserves the space for the expected
+ * song length ahead of the written bytes by writing zeros, so the file
+ * system allocates it in one piece, and trims the file to the written
+ * length when closed. The written length is kept in a {@link ReservedSpace}
+ * marker for trimming after a crash.
+ * With direct I/O, only whole aligned blocks are written and the last
+ * block is padded and trimmed when closing.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class ChannelWriter extends OutputStream {
+
+    /** The smallest chunk written at once. */
+    static final int MIN_WRITE_SIZE = 16 * 1024;
+
+    /** The largest chunk written at once. */
+    static final int MAX_WRITE_SIZE = 1024 * 1024;
+
+    /** The chunk written at once if the bitrate is unknown. */
+    static final int DEFAULT_WRITE_SIZE = 64 * 1024;
+
+    /** The seconds of audio written at once. */
+    static final int WRITE_SECONDS = 2;
+
+    /** The expected length of a song for reserving space. */
+    static final int EXPECTED_SONG_SECONDS = 240;
+
+    /** The space reserved at once if the bitrate is unknown. */
+    static final long DEFAULT_EXTENT = 4L * 1024 * 1024;
+
+    /** The alignment of buffers, positions and lengths for direct I/O. */
+    static final int DIRECT_ALIGNMENT = BufferPool.DIRECT_ALIGNMENT;
+
+    /** Zeros for reserving space. */
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(DEFAULT_WRITE_SIZE + DIRECT_ALIGNMENT)
+            .alignedSlice(DIRECT_ALIGNMENT)
+            .slice(0, DEFAULT_WRITE_SIZE);
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    /** Whether the channel was opened for direct I/O. */
+    private final boolean direct;
+
+    /** When to force the channel to disk. */
+    private Durability durability = Durability.NONE;
+    private long syncIntervalNanos;
+    private long syncBytes;
+
+    /** When the channel was last forced to disk. */
+    private long lastSync = System.nanoTime();
+
+    /** The bytes written since the channel was last forced to disk. */
+    private long unsynced;
+
+    /** The number of forces of the channel. */
+    private long syncs;
+
+    /** The space reserved at once, or 0 if not reserving space. */
+    private final long extent;
+
+    /** The marker of the reserved space, or {@code null} if not reserving space. */
+    private final ReservedSpace reservedSpace;
+
+    /** The reserved file length. */
+    private long reserved;
+
+    /** The bytes written including the buffered bytes. */
+    private volatile long length;
+
+    /** The number of write calls to the channel. */
+    private long writes;
+
+    private boolean closed;
+
+    /** Constructor.
+     * @param channel the channel to write to, closed when this stream is closed.
+     * @param bytesPerSecond the expected bytes per second, or 0 if unknown.
+     * @param reservedSpaceOrNull the marker of the file for reserving space for the
+     *                            expected song length, closed when this stream is closed,
+     *                            or {@code null} for not reserving space.
+     * @param direct whether the channel was opened for direct I/O.
+     * @throws IOException if reserving space failed.
+     */
+    ChannelWriter(FileChannel channel, long bytesPerSecond, ReservedSpace reservedSpaceOrNull, boolean direct) throws IOException {
+        this.channel = channel;
+        this.direct = direct;
+        this.length = channel.position();
+        this.reserved = channel.size();
+        int writeSize = writeSize(bytesPerSecond);
+        this.extent = reservedSpaceOrNull != null ? extent(bytesPerSecond, writeSize) : 0;
+        this.reservedSpace = reservedSpaceOrNull;
+        if (reservedSpace != null) {
+            reservedSpace.written(length);
+        }
+        reserve(length);
+        this.buffer = BufferPool.getInstance().acquireDirect(writeSize);
+    }
+
+    /** Get the chunk size for a bitrate.
+     * @param bytesPerSecond the expected bytes per second, or 0 if unknown.
+     * @return a power of two holding about {@link #WRITE_SECONDS} of audio.
+     */
+    static int writeSize(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return DEFAULT_WRITE_SIZE;
+        }
+        long wanted = bytesPerSecond * WRITE_SECONDS;
+        int size = MIN_WRITE_SIZE;
+        while (size < wanted && size < MAX_WRITE_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /** Get the space to reserve at once for a bitrate.
+     * @param bytesPerSecond the expected bytes per second, or 0 if unknown.
+     * @param writeSize the chunk size.
+     * @return the length of a song, rounded up to whole chunks.
+     */
+    static long extent(long bytesPerSecond, int writeSize) {
+        long song = bytesPerSecond > 0 ? bytesPerSecond * EXPECTED_SONG_SECONDS : DEFAULT_EXTENT;
+        return (song + writeSize - 1) / writeSize * writeSize;
+    }
+
+    /** Get the bytes written so far, independent of reserved space.
+     * @return the number of bytes written including buffered bytes.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /** Get the number of write calls to the channel, excluding reserving space.
+     * @return the number of writes.
+     */
+    long getWrites() {
+        return writes;
+    }
+
+    /** Get the number of times the channel was forced to disk.
+     * @return the number of forces.
+     */
+    long getSyncs() {
+        return syncs;
+    }
+
+    /** Whether the channel was opened for direct I/O.
+     * @return {@code true} if only aligned blocks can be written.
+     */
+    boolean isDirect() {
+        return direct;
+    }
+
+    /** Sets when to force the channel to disk.
+     * @param durability the durability policy.
+     * @param intervalMillis the maximum time between forces for {@link Durability#PERIODIC}.
+     * @param intervalBytes the maximum bytes between forces for {@link Durability#PERIODIC}.
+     */
+    void setDurability(Durability durability, long intervalMillis, long intervalBytes) {
+        if (durability == Durability.PERIODIC && (intervalMillis <= 0 || intervalBytes <= 0)) {
+            throw new IllegalArgumentException("Illegal sync interval " + intervalMillis + " ms, " + intervalBytes + " bytes");
+        }
+        this.durability = durability;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.syncBytes = intervalBytes;
+    }
+
+    /** Reserves space up to the next extent behind the given position. */
+    private void reserve(long end) throws IOException {
+        if (extent == 0) {
+            return;
+        }
+        while (reserved <= end) {
+            long target = reserved + extent;
+            long position = reserved;
+            while (position < target) {
+                ByteBuffer zeros = ZEROS.duplicate();
+                zeros.limit((int) Math.min(zeros.capacity(), target - position));
+                position += channel.write(zeros, position);
+            }
+            reserved = target;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (!buffer.hasRemaining()) {
+            writeBuffer(false);
+        }
+        buffer.put((byte) b);
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer(false);
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+            length += count;
+        }
+    }
+
+    /** Writes the remaining bytes of a buffer. A direct buffer is copied
+     * to the direct write buffer without passing through the heap.
+     * @param src the bytes to write, consumed up to its limit.
+     * @throws IOException if writing failed.
+     */
+    void write(ByteBuffer src) throws IOException {
+        checkOpen();
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer(false);
+            }
+            int count = Math.min(src.remaining(), buffer.remaining());
+            buffer.put(src.slice(src.position(), count));
+            src.position(src.position() + count);
+            length += count;
+        }
+    }
+
+    /** Writes the buffered bytes to the channel.
+     * With direct I/O only whole blocks are written and the rest stays
+     * buffered, unless padding the last block with zeros.
+     * @param pad whether to pad the last block for direct I/O.
+     */
+    private void writeBuffer(boolean pad) throws IOException {
+        int end = buffer.position();
+        int count = end;
+        if (direct) {
+            count = pad
+                    ? (end + DIRECT_ALIGNMENT - 1) / DIRECT_ALIGNMENT * DIRECT_ALIGNMENT
+                    : end / DIRECT_ALIGNMENT * DIRECT_ALIGNMENT;
+            while (buffer.position() < count) {
+                buffer.put((byte) 0);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        reserve(channel.position() + count);
+        buffer.position(0).limit(count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+            writes++;
+        }
+        buffer.limit(Math.max(end, count)).position(count);
+        buffer.compact();
+        if (reservedSpace != null) {
+            reservedSpace.written(channel.position());
+        }
+        written(count);
+    }
+
+    /** Forces the channel to disk if due for {@link Durability#PERIODIC}. */
+    private void written(long count) throws IOException {
+        unsynced += count;
+        if (durability == Durability.PERIODIC
+                && (unsynced >= syncBytes || System.nanoTime() - lastSync >= syncIntervalNanos)) {
+            sync(false);
+        }
+    }
+
+    private void sync(boolean metaData) throws IOException {
+        channel.force(metaData);
+        if (reservedSpace != null) {
+            reservedSpace.force();
+        }
+        syncs++;
+        unsynced = 0;
+        lastSync = System.nanoTime();
+    }
+
+    /** Writes the buffered bytes. With direct I/O, the bytes of an incomplete
+     * block stay buffered until more bytes arrive or the stream is closed. */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        writeBuffer(false);
+    }
+
+    /** Writes the buffered bytes, trims the reserved space, forces the channel
+     * to disk if requested and closes the channel. The marker of the reserved
+     * space is deleted once the file is trimmed. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        boolean trimmed = false;
+        try {
+            writeBuffer(true);
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+            if (durability != Durability.NONE) {
+                sync(true);
+            }
+            trimmed = true;
+            log.debug("Wrote {} bytes in {} writes, {} syncs", length, writes, syncs);
+        } finally {
+            closed = true;
+            BufferPool.getInstance().release(buffer);
+            try {
+                channel.close();
+            } finally {
+                if (reservedSpace != null) {
+                    if (trimmed) {
+                        reservedSpace.close();
+                    } else {
+                        reservedSpace.abandon();
+                    }
+                }
+            }
+        }
+    }
+}
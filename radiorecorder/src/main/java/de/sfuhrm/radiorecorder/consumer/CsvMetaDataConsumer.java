@@ -21,10 +21,10 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -62,44 +62,67 @@ class CsvMetaDataConsumer implements Consumer<MetaData>, AutoCloseable {
         }
     }
 
+    /** Replaces the path of a moved file in the rows written so far
+     * and in the rows still to come.
+     * @param from the path the file was written to.
+     * @param to the path the file was moved to.
+     */
+    void fileMoved(Path from, Path to) {
+        String fromPath = from.toAbsolutePath().normalize().toString();
+        String toPath = to.toAbsolutePath().normalize().toString();
+        // the file lock keeps rows from being appended between the two steps
+        synchronized (fileLock) {
+            synchronized (this) {
+                if (activeFilePath.equals(fromPath)) {
+                    activeFilePath = toPath;
+                }
+            }
+            replaceFilePath(escape(fromPath), escape(toPath));
+        }
+    }
+
     @Override
     public void accept(MetaData currentMetaData) {
-        MetaData localActiveMetaData;
-        String localActiveFilePath;
-        synchronized (this) {
-            if (closed) {
-                return;
+        synchronized (fileLock) {
+            MetaData localActiveMetaData;
+            String localActiveFilePath;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                localActiveMetaData = activeMetaData;
+                localActiveFilePath = activeFilePath;
+                activeMetaData = currentMetaData;
+            }
+            if (localActiveMetaData != null) {
+                appendTrack(localActiveMetaData, currentMetaData.getCreatedMillis(), localActiveFilePath);
             }
-            localActiveMetaData = activeMetaData;
-            localActiveFilePath = activeFilePath;
-            activeMetaData = currentMetaData.clone();
-        }
-        if (localActiveMetaData != null) {
-            appendTrack(localActiveMetaData, currentMetaData.getCreated(), localActiveFilePath);
         }
     }
 
     @Override
     public void close() {
-        MetaData localActiveMetaData;
-        String localActiveFilePath;
-        synchronized (this) {
-            if (closed) {
-                return;
+        synchronized (fileLock) {
+            MetaData localActiveMetaData;
+            String localActiveFilePath;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                localActiveMetaData = activeMetaData;
+                localActiveFilePath = activeFilePath;
+                activeMetaData = null;
+                activeFilePath = "";
+            }
+            if (localActiveMetaData != null) {
+                appendTrack(localActiveMetaData, System.currentTimeMillis(), localActiveFilePath);
             }
-            closed = true;
-            localActiveMetaData = activeMetaData;
-            localActiveFilePath = activeFilePath;
-            activeMetaData = null;
-            activeFilePath = "";
-        }
-        if (localActiveMetaData != null) {
-            appendTrack(localActiveMetaData, ZonedDateTime.now(), localActiveFilePath);
         }
     }
 
-    private void appendTrack(MetaData metaData, ZonedDateTime endExclusive, String filePath) {
-        long durationMillis = Math.max(0, ChronoUnit.MILLIS.between(metaData.getCreated(), endExclusive));
+    private void appendTrack(MetaData metaData, long endExclusiveMillis, String filePath) {
+        long durationMillis = Math.max(0, endExclusiveMillis - metaData.getCreatedMillis());
         String station = metaData.getStationName().orElse(fallbackStationName);
         String artist = metaData.getArtist().orElse("");
         String title = metaData.getTitle().orElse("");
@@ -142,6 +165,34 @@ class CsvMetaDataConsumer implements Consumer<MetaData>, AutoCloseable {
         }
     }
 
+    /** Rewrites the rows ending with one file path to end with another one.
+     * The rows are written to a temporary file that replaces the CSV file.
+     */
+    private void replaceFilePath(String fromField, String toField) {
+        String fromSuffix = "," + fromField;
+        try {
+            if (!Files.exists(csvOutputFile)) {
+                return;
+            }
+            List<String> lines = Files.readAllLines(csvOutputFile, StandardCharsets.UTF_8);
+            boolean changed = false;
+            for (int i = 1; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.endsWith(fromSuffix)) {
+                    lines.set(i, line.substring(0, line.length() - fromField.length()) + toField);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                Path temp = csvOutputFile.resolveSibling(csvOutputFile.getFileName() + ".tmp");
+                Files.write(temp, lines, StandardCharsets.UTF_8);
+                Files.move(temp, csvOutputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            log.warn("Could not update the moved file {} in {}", fromField, csvOutputFile, e);
+        }
+    }
+
     private static String escape(String input) {
         if (input == null) {
             return "";
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+/**
+ * When to force recorded files to disk.
+ * @author Stephan Fuhrmann
+ */
+public enum Durability {
+    /** Leave writing the page cache to the operating system. */
+    NONE,
+    /** Force after a time or amount of bytes, bounding the audio lost on a power failure. */
+    PERIODIC,
+    /** Force each file when it is closed. */
+    CLOSE
+}
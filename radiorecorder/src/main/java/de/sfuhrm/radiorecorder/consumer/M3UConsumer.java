@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -48,10 +49,16 @@ public class M3UConsumer extends AbstractConsumer implements Consumer<HttpConnec
             List<String> lines = bufferedReader.lines().filter(l -> l.startsWith("http")).collect(Collectors.toList());
 
             log.debug("Found {} lines with URLs", lines.size());
+            List<URI> uris = new ArrayList<>(lines.size());
             for (String line : lines) {
-                log.debug("Found line {}", line);
-                getConnectionHandler().consume(URI.create(line));
+                try {
+                    uris.add(URI.create(line.trim()));
+                } catch (IllegalArgumentException ex) {
+                    // one broken entry should not drop the whole playlist
+                    log.warn("Skipping malformed playlist line {}", line, ex);
+                }
             }
+            consumePlaylist(uris);
         }
         catch (IOException ex) {
             log.warn("URL {} broke down", getContext().getUri().toASCIIString(), ex);
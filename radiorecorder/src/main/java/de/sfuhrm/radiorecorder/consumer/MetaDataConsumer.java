@@ -18,6 +18,7 @@ package de.sfuhrm.radiorecorder.consumer;
 import de.sfuhrm.radiorecorder.ConsumerContext;
 import de.sfuhrm.radiorecorder.http.HttpConnection;
 import de.sfuhrm.radiorecorder.RadioException;
+import de.sfuhrm.radiorecorder.metadata.ContentType;
 import de.sfuhrm.radiorecorder.metadata.MetaData;
 import de.sfuhrm.radiorecorder.metadata.StreamMetaData;
 import java.io.IOException;
@@ -44,7 +45,16 @@ public abstract class MetaDataConsumer extends AbstractConsumer implements Consu
      * @param consumerContext the context to work in.
      * */
     public MetaDataConsumer(ConsumerContext consumerContext) {
-        super(consumerContext);
+        this(consumerContext, null);
+    }
+
+    /**
+     * Constructor.
+     * @param consumerContext the context to work in.
+     * @param contentTypeOrNull the parsed content type of the connection, or {@code null}.
+     * */
+    public MetaDataConsumer(ConsumerContext consumerContext, ContentType contentTypeOrNull) {
+        super(consumerContext, contentTypeOrNull);
         streamMetaData = new StreamMetaData();
     }
 
@@ -80,6 +90,12 @@ public abstract class MetaDataConsumer extends AbstractConsumer implements Consu
                 csvMetaDataConsumer.setCurrentFilePath(currentFilePath);
             }
         }
+
+        public void fileMoved(Path from, Path to) {
+            if (csvMetaDataConsumer != null) {
+                csvMetaDataConsumer.fileMoved(from, to);
+            }
+        }
     }
 
     protected CombinedMetaDataConsumer createMetaDataConsumer() {
@@ -59,9 +59,7 @@ public class PLSConsumer extends AbstractConsumer implements Consumer<HttpConnec
     protected void _accept(HttpConnection t) {
         try (InputStream is = t.getInputStream()) {
             List<String> urls = readUrls(is);
-            for (String url : urls) {
-                getConnectionHandler().consume(URI.create(url));
-            }
+            consumePlaylist(urls.stream().map(URI::create).collect(Collectors.toList()));
         } catch (IOException ex) {
             log.warn("URL {} broke down", getContext().getUri().toASCIIString(), ex);
             throw new RadioException(true, ex);
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+/**
+ * Marker of a file that has space reserved behind the written bytes.
+ * The marker is a file next to the recording holding the number of
+ * bytes written to the recording. It is deleted when the recording is
+ * closed and trimmed. After a crash, {@link #recover(Path)} trims the
+ * marked recordings to the written length, so recordings that were
+ * not preallocated are never touched.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public final class ReservedSpace implements Closeable {
+
+    /** The suffix of the marker file name. */
+    static final String SUFFIX = ".reserved";
+
+    /** The digits of the written length in the marker. */
+    private static final int DIGITS = 19;
+
+    private final Path marker;
+    private final FileChannel channel;
+    private final ByteBuffer text = ByteBuffer.allocate(DIGITS + 1);
+
+    private ReservedSpace(Path marker, FileChannel channel) {
+        this.marker = marker;
+        this.channel = channel;
+    }
+
+    /** Creates the marker of a recording.
+     * @param file the recording to reserve space for.
+     * @return the marker with a written length of 0.
+     * @throws IOException if the marker could not be written.
+     */
+    static ReservedSpace create(Path file) throws IOException {
+        Path marker = markerOf(file);
+        FileChannel channel = FileChannel.open(marker, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        ReservedSpace result = new ReservedSpace(marker, channel);
+        try {
+            result.written(0);
+        } catch (IOException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    /** Get the marker file of a recording.
+     * @param file the recording.
+     * @return the marker next to the recording.
+     */
+    static Path markerOf(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    /** Records the bytes written to the recording.
+     * @param length the bytes of the recording that are written.
+     * @throws IOException if the marker could not be written.
+     */
+    void written(long length) throws IOException {
+        text.clear();
+        long value = length;
+        for (int i = DIGITS - 1; i >= 0; i--) {
+            text.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        text.put(DIGITS, (byte) '\n');
+        long position = 0;
+        while (text.hasRemaining()) {
+            position += channel.write(text, position);
+        }
+    }
+
+    /** Forces the marker to disk. */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /** Deletes the marker after the recording was trimmed. */
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(marker);
+        }
+    }
+
+    /** Closes the marker but keeps it for {@link #recover(Path)},
+     * because the recording could not be trimmed. */
+    void abandon() throws IOException {
+        channel.close();
+    }
+
+    /** Trims the recordings in a directory that were left behind
+     * with reserved space by a crash, and deletes their markers.
+     * Must run before recordings are written to the directory.
+     * @param directory the directory to walk.
+     * @return the number of trimmed recordings.
+     */
+    public static int recover(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int trimmed = 0;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path marker : (Iterable<Path>) files
+                    .filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .filter(Files::isRegularFile)::iterator) {
+                try {
+                    if (trim(marker)) {
+                        trimmed++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Error trimming the recording of {}", marker, e);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Error walking {}", directory, e);
+        }
+        if (trimmed > 0) {
+            log.info("Trimmed the reserved space of {} recordings in {}", trimmed, directory);
+        }
+        return trimmed;
+    }
+
+    /** Trims the recording of a marker to the written length and deletes the marker.
+     * @return {@code true} if the recording was truncated.
+     */
+    private static boolean trim(Path marker) throws IOException {
+        String name = marker.getFileName().toString();
+        Path file = marker.resolveSibling(name.substring(0, name.length() - SUFFIX.length()));
+        long length = Long.parseLong(Files.readString(marker, StandardCharsets.US_ASCII).trim());
+        boolean truncated = false;
+        if (Files.isRegularFile(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                if (channel.size() > length) {
+                    log.debug("Trimming {} from {} to {} bytes", file, channel.size(), length);
+                    channel.truncate(length);
+                    truncated = true;
+                }
+            }
+        }
+        Files.delete(marker);
+        return truncated;
+    }
+}
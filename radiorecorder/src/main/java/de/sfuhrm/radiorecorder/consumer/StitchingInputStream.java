@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Replaces a broken stream by a standby stream to the same source
+ * without gaps or duplicates.
+ * Most stream servers send a burst of already played audio to new
+ * clients. The standby stream is searched for the last bytes delivered
+ * from the broken stream, and continues right after the match.
+ * If there is no overlap, the standby stream continues from its
+ * beginning, leaving a gap.
+ * The standby stream can be opened ahead of the failure with
+ * {@link #prepareStandby(Executor)}, for example when the throughput drops.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class StitchingInputStream extends InputStream {
+
+    /** Opens a standby stream. */
+    interface StreamOpener {
+        /** Opens a new stream to the same source.
+         * @return the new stream.
+         * @throws IOException if opening failed.
+         */
+        InputStream open() throws IOException;
+
+        /** Connects to the same source ahead of time. Runs on another thread than the reads,
+         * so the stream of the connection is opened later.
+         * The default connects when the stream is opened.
+         * @return the new connection.
+         * @throws IOException if connecting failed.
+         */
+        default Connection connect() throws IOException {
+            return new Connection() {
+                @Override
+                public InputStream open() throws IOException {
+                    return StreamOpener.this.open();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /** A standby connection made ahead of time. */
+    interface Connection extends Closeable {
+        /** Opens the stream of the connection. Runs on the reading thread.
+         * @return the new stream.
+         * @throws IOException if opening failed.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /** The number of bytes that need to match. */
+    static final int MATCH_LENGTH = 2048;
+
+    /** The minimum number of bytes for an overlap at the start of the standby stream. */
+    static final int MIN_OVERLAP = 256;
+
+    /** The maximum number of standby bytes searched for an overlap. */
+    static final int SEARCH_LIMIT = 256 * 1024;
+
+    /** The number of attempts for opening a standby stream. */
+    private static final int OPEN_ATTEMPTS = 3;
+
+    /** The age after which a prepared standby stream is too far ahead
+     * to find the overlap within the {@link #SEARCH_LIMIT}. */
+    static final long PREPARED_MAX_AGE_MILLIS = 10_000;
+
+    private final StreamOpener opener;
+
+    private InputStream current;
+
+    /** Ring buffer of the last bytes delivered. */
+    private final byte[] history = new byte[MATCH_LENGTH];
+
+    /** Total number of bytes delivered. */
+    private long delivered;
+
+    /** Standby bytes to deliver before reading from {@link #current}. */
+    private byte[] pending;
+    private int pendingOffset;
+    private int pendingLength;
+
+    /** Number of successful failovers. */
+    private int failovers;
+
+    /** The standby connection made ahead of the failure, or {@code null}. Guarded by {@code this}. */
+    private CompletableFuture<Connection> prepared;
+
+    /** When {@link #prepared} was started, in nanoseconds. Guarded by {@code this}. */
+    private long preparedAtNanos;
+
+    /** Whether the stream was closed. Guarded by {@code this}. */
+    private boolean closed;
+
+    StitchingInputStream(InputStream primary, StreamOpener opener) {
+        this.current = primary;
+        this.opener = opener;
+    }
+
+    /** Get the number of successful failovers.
+     * @return the number of times the stream was replaced.
+     */
+    int getFailovers() {
+        return failovers;
+    }
+
+    /** Connects the standby stream in the background while the current stream still delivers.
+     * The next failover uses it instead of connecting after the failure.
+     * A prepared standby connection that is younger than {@link #PREPARED_MAX_AGE_MILLIS}
+     * is kept, an older one is replaced.
+     * @param executor runs the connecting.
+     */
+    synchronized void prepareStandby(Executor executor) {
+        if (closed || prepared != null && !isStale(preparedAtNanos)) {
+            return;
+        }
+        discard(prepared);
+        log.info("Connecting standby stream ahead of time");
+        prepared = CompletableFuture.supplyAsync(() -> {
+            try {
+                return opener.connect();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        preparedAtNanos = System.nanoTime();
+    }
+
+    private static boolean isStale(long startNanos) {
+        return System.nanoTime() - startNanos > TimeUnit.MILLISECONDS.toNanos(PREPARED_MAX_AGE_MILLIS);
+    }
+
+    /** Closes a prepared standby connection once it is made. */
+    private static void discard(CompletableFuture<Connection> preparedOrNull) {
+        if (preparedOrNull != null) {
+            preparedOrNull.thenAccept(StitchingInputStream::closeQuietly);
+        }
+    }
+
+    /** Opens the prepared standby stream if there is a usable one.
+     * @return the open standby stream, or {@code null} if there is none or it failed.
+     */
+    private InputStream openPrepared() throws InterruptedIOException {
+        CompletableFuture<Connection> future;
+        synchronized (this) {
+            future = prepared;
+            prepared = null;
+            if (future != null && isStale(preparedAtNanos)) {
+                log.debug("Prepared standby stream is too old");
+                discard(future);
+                return null;
+            }
+        }
+        if (future == null) {
+            return null;
+        }
+        Connection connection;
+        try {
+            connection = future.get();
+        } catch (ExecutionException e) {
+            log.info("Connecting the prepared standby stream failed", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(future);
+            throw new InterruptedIOException("Interrupted while waiting for the standby stream");
+        }
+        try {
+            return connection.open();
+        } catch (IOException e) {
+            log.info("Opening the prepared standby stream failed", e);
+            closeQuietly(connection);
+            return null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int result = read(b, 0, 1);
+        return result == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int result;
+        if (pendingLength > 0) {
+            result = Math.min(len, pendingLength);
+            System.arraycopy(pending, pendingOffset, b, off, result);
+            pendingOffset += result;
+            pendingLength -= result;
+        } else {
+            try {
+                result = current.read(b, off, len);
+            } catch (IOException e) {
+                failover(e);
+                return read(b, off, len);
+            }
+        }
+        if (result > 0) {
+            remember(b, off, result);
+        }
+        return result;
+    }
+
+    private void remember(byte[] b, int off, int len) {
+        int start = Math.max(0, len - history.length);
+        for (int i = start; i < len; i++) {
+            history[(int) ((delivered + i) % history.length)] = b[off + i];
+        }
+        delivered += len;
+    }
+
+    /** Get the last delivered bytes in stream order. */
+    private byte[] lastDelivered() {
+        int length = (int) Math.min(delivered, history.length);
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = history[(int) ((delivered - length + i) % history.length)];
+        }
+        return result;
+    }
+
+    /** Replaces the broken stream by a standby stream. */
+    private void failover(IOException cause) throws IOException {
+        log.info("Stream broke down after {} bytes, switching to standby stream", delivered, cause);
+        closeQuietly(current);
+        InputStream preparedStandby = openPrepared();
+        if (preparedStandby != null) {
+            try {
+                stitch(preparedStandby);
+                return;
+            } catch (IOException e) {
+                log.info("Prepared standby stream broke down, opening another one", e);
+                closeQuietly(preparedStandby);
+            }
+        }
+        InputStream standby = null;
+        for (int attempt = 1; standby == null; attempt++) {
+            try {
+                standby = opener.open();
+            } catch (IOException e) {
+                if (attempt >= OPEN_ATTEMPTS) {
+                    e.addSuppressed(cause);
+                    throw e;
+                }
+                log.debug("Standby attempt {} failed", attempt, e);
+            }
+        }
+        stitch(standby);
+    }
+
+    /** Continues with the standby stream after the overlap with the delivered bytes. */
+    private void stitch(InputStream standby) throws IOException {
+        byte[] pattern = lastDelivered();
+        byte[] buffer = new byte[SEARCH_LIMIT];
+        int length = 0;
+        int match = -1;
+        int searchFrom = 0;
+        while (length < buffer.length) {
+            int read = standby.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+            if (pattern.length > 0) {
+                match = indexOf(buffer, length, pattern, searchFrom);
+                if (match != -1) {
+                    break;
+                }
+                searchFrom = Math.max(0, length - pattern.length + 1);
+            }
+        }
+
+        pendingOffset = match != -1 ? match + pattern.length : prefixOverlap(buffer, length, pattern);
+        if (pendingOffset > 0) {
+            log.info("Stitched standby stream, skipped {} overlapping bytes", pendingOffset);
+        } else {
+            log.warn("No overlap found in {} standby bytes, recording has a gap", length);
+        }
+        pending = buffer;
+        pendingLength = length - pendingOffset;
+        current = standby;
+        failovers++;
+    }
+
+    /** Finds the longest tail of the pattern the data starts with.
+     * @param data the data to search in.
+     * @param length the number of valid bytes in the data.
+     * @param pattern the bytes whose tail is searched.
+     * @return the length of the overlap, or 0 if it is shorter
+     * than {@link #MIN_OVERLAP}.
+     */
+    static int prefixOverlap(byte[] data, int length, byte[] pattern) {
+        for (int k = Math.min(length, pattern.length); k >= MIN_OVERLAP; k--) {
+            if (Arrays.equals(data, 0, k, pattern, pattern.length - k, pattern.length)) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    /** Finds the first occurrence of the pattern in the data.
+     * @param data the data to search in.
+     * @param length the number of valid bytes in the data.
+     * @param pattern the bytes to search for.
+     * @param from the first index to consider.
+     * @return the index of the first match or -1.
+     */
+    static int indexOf(byte[] data, int length, byte[] pattern, int from) {
+        int last = length - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (data[i] == pattern[0]
+                    && Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Error closing {}", closeable, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            discard(prepared);
+            prepared = null;
+        }
+        current.close();
+    }
+}
@@ -15,6 +15,7 @@
  */
 package de.sfuhrm.radiorecorder.consumer;
 
+import de.sfuhrm.radiorecorder.BufferPool;
 import de.sfuhrm.radiorecorder.ConsumerContext;
 import de.sfuhrm.radiorecorder.Main;
 import de.sfuhrm.radiorecorder.Radio;
@@ -130,6 +131,7 @@ public class StreamCastConsumer extends MetaDataConsumer implements Consumer<Htt
     @Override
     protected void __accept(HttpConnection t, InputStream inputStream) {
         CombinedMetaDataConsumer metaDataConsumer = createMetaDataConsumer();
+        byte[] buffer = BufferPool.getInstance().acquire(BUFFER_SIZE);
         try {
 
             getStreamMetaData().setMetaDataConsumer(metaDataConsumer);
@@ -162,7 +164,6 @@ public class StreamCastConsumer extends MetaDataConsumer implements Consumer<Htt
 
             log.debug("Loaded content to chromecast {}", chromeCast.getTitle());
 
-            byte[] buffer = new byte[BUFFER_SIZE];
             int length;
 
             Thread shutdown = new Thread(this::cleanup);
@@ -171,7 +172,7 @@ public class StreamCastConsumer extends MetaDataConsumer implements Consumer<Htt
             long lastTrack = System.currentTimeMillis();
             try {
                 // this is a second stream just to display the metadata
-                while (chromeCast != null && -1 != (length = inputStream.read(buffer))) {
+                while (chromeCast != null && -1 != (length = inputStream.read(buffer, 0, BUFFER_SIZE))) {
                     log.trace("Read {} bytes", length);
 
                     if (System.currentTimeMillis() - lastTrack > TRACK_MEDIASTATUS_EVERY_MS) {
@@ -212,6 +213,7 @@ public class StreamCastConsumer extends MetaDataConsumer implements Consumer<Htt
             throw new RadioException(false, ex);
         } finally {
             metaDataConsumer.close();
+            BufferPool.getInstance().release(buffer);
             cleanup();
         }
     }
@@ -15,26 +15,40 @@
  */
 package de.sfuhrm.radiorecorder.consumer;
 
+import de.sfuhrm.radiorecorder.BufferPool;
 import de.sfuhrm.radiorecorder.ConsumerContext;
+import de.sfuhrm.radiorecorder.DiskSpaceMonitor;
+import de.sfuhrm.radiorecorder.IoScheduler;
 import de.sfuhrm.radiorecorder.RadioException;
+import de.sfuhrm.radiorecorder.RetentionManager;
+import de.sfuhrm.radiorecorder.StallWatchdog;
+import de.sfuhrm.radiorecorder.TierMigrator;
 import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+import de.sfuhrm.radiorecorder.http.ByteBufferSource;
 import de.sfuhrm.radiorecorder.http.HttpConnection;
+import de.sfuhrm.radiorecorder.metadata.ContentType;
 import de.sfuhrm.radiorecorder.metadata.MetaData;
 import de.sfuhrm.radiorecorder.metadata.MimeType;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.FileStore;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
+import java.util.Deque;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import com.sun.nio.file.ExtendedOpenOption;
+
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -48,6 +62,28 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
     /** When the consumer was created. */
     private final long creationTimeStamp;
 
+    /** The file length to abort after, or {@link Long#MAX_VALUE}. */
+    private final long abortAfterFileLength;
+
+    /** When to abort recording, or {@link Long#MAX_VALUE}. */
+    private final long abortAtMillis;
+
+    /** The minimum usable bytes on the target file system. */
+    private final long minFree;
+
+    /** Deletes old recordings to make room, or {@code null}. */
+    private final RetentionManager retentionManager;
+
+    /** Moves finished recordings to the cold directory, or {@code null}. */
+    private final TierMigrator tierMigrator;
+
+    /** The usable space of the target file system, looked up when accepting a stream. */
+    private DiskSpaceMonitor diskSpaceMonitor;
+
+    /** The bytes written to the current file. Counted by the reading thread,
+     * also when writing behind. */
+    private long fileLength;
+
     /**
      * The consecutive file number.
      */
@@ -79,7 +115,7 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
      *
      * @see #outputStreamNullable
      */
-    private Path fileNullable = null;
+    private volatile Path fileNullable = null;
 
     /**
      * The current output stream being written to, if any.
@@ -88,6 +124,13 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
      */
     private OutputStream outputStreamNullable = null;
 
+    /**
+     * The writer of the current output stream if writing directly, if any.
+     *
+     * @see #outputStreamNullable
+     */
+    private volatile ChannelWriter channelWriterNullable = null;
+
     /**
      * Helps with file names ;).
      */
@@ -95,19 +138,48 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
 
     private final CombinedMetaDataConsumer metaDataConsumer;
 
+    /** The shared writer of the file system, or {@code null} if writing directly. */
+    private final IoScheduler ioScheduler;
+
+    /** Writes the files in the background, or {@code null} if writing inline. */
+    private WriteBehind writeBehind;
+
+    /** Whether to write with direct I/O, cleared if the file system does not support it. */
+    private boolean directIo;
+
+    /** Whether the message for dropped bytes was logged. */
+    private boolean dropMsgWritten;
+
     /** Constructor.
      * @param consumerContext the context to work in.
      * */
     public StreamCopyConsumer(ConsumerContext consumerContext) {
-        super(consumerContext);
+        this(consumerContext, null);
+    }
+
+    /** Constructor.
+     * @param consumerContext the context to work in.
+     * @param contentTypeOrNull the parsed content type of the connection, or {@code null}.
+     * */
+    public StreamCopyConsumer(ConsumerContext consumerContext, ContentType contentTypeOrNull) {
+        super(consumerContext, contentTypeOrNull);
 
         creationTimeStamp = System.currentTimeMillis();
+        abortAfterFileLength = consumerContext.getAbortAfterFileLength().orElse(Long.MAX_VALUE);
+        abortAtMillis = consumerContext.getAbortAfterDuration()
+                .map(millis -> creationTimeStamp + millis)
+                .orElse(Long.MAX_VALUE);
+        minFree = consumerContext.getMinFree();
+        retentionManager = consumerContext.getRetentionManager();
+        tierMigrator = consumerContext.getTierMigrator();
 
         fileNameGeneratorSupplier = () -> useSongNames()
                 ? new MetaDataFileNameGenerator(consumerContext.getSongnameFormat(), consumerContext, true) :
                   new MetaDataFileNameGenerator(consumerContext.getNoSongnameFormat(), consumerContext, false);
 
         targetDirectory = consumerContext.getTargetDirectory();
+        ioScheduler = consumerContext.getIoScheduler();
+        directIo = consumerContext.isDirectIo();
         metaDataConsumer = createMetaDataConsumer();
     }
 
@@ -119,94 +191,273 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
     /**
      * Check whether aborting is necessary because of restrictions to
      * file system or maximum write size.
+     * Called for every chunk, so it works on in-memory counts and
+     * precomputed limits only and does not allocate.
      *
      * @see ConsumerContext#getMinFree()
      * @see ConsumerContext#getAbortAfterFileLength()
      */
     private boolean needToAbort(Path currentFileOrNull) throws IOException {
-        if (currentFileOrNull != null) {
-            long length = Files.size(currentFileOrNull);
-            if (getContext().getAbortAfterFileLength().isPresent()) {
-                if (length > getContext().getAbortAfterFileLength().get()) {
-                    log.warn("Aborting due to maximum file size of {} exceeded: {} file size, {} is the abort-after size",
-                            currentFileOrNull,
-                            length,
-                            getContext().getAbortAfterFileLength().get());
-                    return true;
-                }
-            }
-        }
-
-        FileStore fileStore = Files.getFileStore(targetDirectory);
-        long free = fileStore.getUsableSpace();
-        long required = getContext().getMinFree();
-        if (free < required) {
-            log.warn("Path {} is too full, has less than {} bytes free", targetDirectory, required);
+        if (currentFileOrNull != null && fileLength > abortAfterFileLength) {
+            log.warn("Aborting due to maximum file size of {} exceeded: {} file size, {} is the abort-after size",
+                    currentFileOrNull,
+                    fileLength,
+                    abortAfterFileLength);
             return true;
         }
 
-        if (getContext().getAbortAfterDuration().isPresent()) {
-            long abortAfterMillis = getContext().getAbortAfterDuration().get();
-            long elapsedMillis = System.currentTimeMillis() - creationTimeStamp;
-            if (elapsedMillis > abortAfterMillis) {
-                log.warn("Aborting due to maximum duration of {}ms",
-                        System.currentTimeMillis() - creationTimeStamp);
+        if (diskSpaceMonitor != null && diskSpaceMonitor.getUsableSpace() < minFree) {
+            // with a cold directory, deleting recordings frees no space in the target directory
+            if (retentionManager != null && tierMigrator == null && retentionManager.makeRoom()) {
+                log.debug("Path {} is too full, waiting for old recordings to be deleted", targetDirectory);
+            } else {
+                log.warn("Path {} is too full, has less than {} bytes free", targetDirectory, minFree);
                 return true;
             }
         }
 
+        if (System.currentTimeMillis() > abortAtMillis) {
+            log.warn("Aborting due to maximum duration of {}ms",
+                    System.currentTimeMillis() - creationTimeStamp);
+            return true;
+        }
+
         return false;
     }
 
-    private void closeOldFileAndReopenWithNewMetadata(MimeType contentTypeOrNull) throws IOException {
+    /** Counts bytes written to the current file. */
+    private void written(long len) {
+        fileLength += len;
+        if (diskSpaceMonitor != null) {
+            diskSpaceMonitor.written(len);
+        }
+    }
+
+    /** Opens a new file for the current metadata. Runs in order with
+     * the written bytes if writing behind.
+     */
+    private void rotate(MimeType contentTypeOrNull) throws IOException {
         log.debug("Meta data changed");
         metaDataChanged = false;
-        closeStreamIfOpen(outputStreamNullable, fileNullable, contentTypeOrNull);
+        fileLength = 0;
+        MetaData current = metaData;
+        MetaData previous = previousMetaData;
+        if (writeBehind != null) {
+            writeBehind.submit(() -> closeOldFileAndReopenWithNewMetadata(current, previous, contentTypeOrNull));
+        } else {
+            closeOldFileAndReopenWithNewMetadata(current, previous, contentTypeOrNull);
+        }
+    }
+
+    private void closeOldFileAndReopenWithNewMetadata(MetaData current, MetaData previous, MimeType contentTypeOrNull) throws IOException {
+        closeStreamIfOpen(outputStreamNullable, fileNullable, previous, contentTypeOrNull);
 
         try {
-            Optional<Path> optionalPath = fileNameGeneratorSupplier.get().getFileFrom(getContext().getRadio(), metaData, contentTypeOrNull);
+            Optional<Path> optionalPath = fileNameGeneratorSupplier.get().getFileFrom(getContext().getRadio(), current, contentTypeOrNull);
             if (optionalPath.isPresent()) {
                 fileNullable = optionalPath.get();
                 ensureParentDirectoriesExist(fileNullable);
-                outputStreamNullable = Files.newOutputStream(fileNullable, StandardOpenOption.CREATE_NEW);
+                if (ioScheduler != null) {
+                    FileChannel channel = FileChannel.open(fileNullable, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    channelWriterNullable = null;
+                    outputStreamNullable = ioScheduler.open(channel, fileNullable.toString());
+                } else {
+                    FileChannel channel = openChannel(fileNullable);
+                    ReservedSpace reservedSpace = null;
+                    try {
+                        if (getContext().isPreallocate()) {
+                            reservedSpace = ReservedSpace.create(fileNullable);
+                        }
+                        channelWriterNullable = new ChannelWriter(channel,
+                                getContext().getExpectedBytesPerSecond(),
+                                reservedSpace,
+                                directIo);
+                        Durability durability = getContext().getDurability();
+                        if (durability != null && durability != Durability.NONE) {
+                            channelWriterNullable.setDurability(durability,
+                                    getContext().getSyncIntervalMillis(),
+                                    getContext().getSyncBytes());
+                        }
+                    } catch (IOException e) {
+                        channel.close();
+                        if (reservedSpace != null) {
+                            // the reserved space is trimmed when starting again
+                            reservedSpace.abandon();
+                        }
+                        throw e;
+                    }
+                    outputStreamNullable = channelWriterNullable;
+                }
             } else {
                 fileNullable = null;
                 outputStreamNullable = null;
+                channelWriterNullable = null;
             }
         } catch (InvalidPathException invalidPathException) {
             fileNullable = null;
             outputStreamNullable = null;
+            channelWriterNullable = null;
             log.warn("Illegal file name file skipped", invalidPathException);
         }
 
+        // the metadata is updated once the file is moved to the cold directory
         metaDataConsumer.setCurrentFilePath(fileNullable);
         log.debug("New file {}", fileNullable);
     }
 
+    /** Opens a new file for the channel writer, with direct I/O if requested.
+     * Falls back to normal writes if the file system does not support direct I/O.
+     */
+    private FileChannel openChannel(Path file) throws IOException {
+        if (directIo) {
+            try {
+                return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                        ExtendedOpenOption.DIRECT);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.warn("No direct I/O for {}, writing through the page cache", file, e);
+                directIo = false;
+                // the file may have been created before direct I/O was refused
+                Files.deleteIfExists(file);
+            }
+        }
+        return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /** Wraps the stream so that a broken connection gets replaced by a
+     * standby connection to the same URL.
+     * @param t the connection of the input stream.
+     * @param inputStream the filtered input stream to wrap.
+     * @param standbyConnections receives the opened standby connections for closing.
+     * */
+    private StitchingInputStream stitching(HttpConnection t, InputStream inputStream, Deque<HttpConnection> standbyConnections) {
+        return new StitchingInputStream(inputStream, new StitchingInputStream.StreamOpener() {
+            @Override
+            public InputStream open() throws IOException {
+                return connect().open();
+            }
+
+            @Override
+            public StitchingInputStream.Connection connect() throws IOException {
+                HttpConnection standby = getConnectionHandler().openStandby(t.getURI());
+                standbyConnections.push(standby);
+                return new StitchingInputStream.Connection() {
+                    @Override
+                    public InputStream open() throws IOException {
+                        // the metadata filter continues from the broken stream
+                        return getStreamMetaData().openStream(standby);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        standby.close();
+                    }
+                };
+            }
+        });
+    }
+
+    /** Connects the standby stream ahead of time when the
+     * {@link StallWatchdog} reports a drop of the throughput of the connection.
+     * @param t the watched connection.
+     * @param stitching the stream to prepare the standby stream of.
+     * @return the listener to remove after use.
+     */
+    private Consumer<StallWatchdog.StallEvent> prepareStandbyOnDrop(HttpConnection t, StitchingInputStream stitching) {
+        Consumer<StallWatchdog.StallEvent> listener = event -> {
+            if (!event.isStalled() && event.getConnection() == t) {
+                stitching.prepareStandby(getContext().getScope()::execute);
+            }
+        };
+        StallWatchdog.getInstance().addListener(listener);
+        return listener;
+    }
+
     @Override
     protected void __accept(HttpConnection t, InputStream inputStream) {
         Runnable cleanup = () -> cleanup(useSongNames());
         Thread cleanupThread = new Thread(cleanup);
         Runtime.getRuntime().addShutdownHook(cleanupThread);
+        // standby connections may be made by other threads
+        Deque<HttpConnection> standbyConnections = new ConcurrentLinkedDeque<>();
+        Consumer<StallWatchdog.StallEvent> stallListener = null;
         try {
+            if (getContext().isStitch()) {
+                StitchingInputStream stitching = stitching(t, inputStream, standbyConnections);
+                stallListener = prepareStandbyOnDrop(t, stitching);
+                inputStream = stitching;
+            }
+            Optional<Long> writeBehindSize = getContext().getWriteBehindSize();
+            if (writeBehindSize.isPresent()) {
+                writeBehind = new WriteBehind(getContext().getRadio().getName(),
+                        (int) Math.max(1, writeBehindSize.get() / BUFFER_SIZE),
+                        getContext().getWriteOverflowPolicy(),
+                        this::writeChunk,
+                        getContext().getScope()::execute);
+            }
             getStreamMetaData().setMetaDataConsumer(m -> {
                 this.previousMetaData = metaData;
                 this.metaData = m;
                 metaDataChanged = true;
-                metaDataConsumer.accept(m);
+                acceptMetaData(m);
             });
-            byte[] buffer = new byte[BUFFER_SIZE];
-            Optional<MimeType> contentType = MimeType.byContentType(t.getContentType());
+            MimeType contentType = getContentType(t).getMimeType().orElse(null);
+            diskSpaceMonitor = getContext().getDiskSpaceMonitor();
+            boolean songNames = useSongNames();
 
             // open stream in case no songname is existing yet
-            if (!useSongNames()) {
-                closeOldFileAndReopenWithNewMetadata(contentType.orElse(null));
+            if (!songNames) {
+                rotate(contentType);
             }
 
+            copy(inputStream, contentType, songNames);
+        } catch (IOException ex) {
+            log.warn("URL {} broke down", getContext().getUri().toASCIIString(), ex);
+            fileNumber++;
+            throw new RadioException(true, ex);
+        } finally {
+            if (writeBehind != null) {
+                try {
+                    writeBehind.close();
+                } catch (IOException ex) {
+                    log.warn("Writing {} failed", fileNullable, ex);
+                }
+            }
+            cleanup(useSongNames());
+            Runtime.getRuntime().removeShutdownHook(cleanupThread);
+            if (stallListener != null) {
+                StallWatchdog.getInstance().removeListener(stallListener);
+            }
+            for (HttpConnection standby : standbyConnections) {
+                try {
+                    standby.close();
+                } catch (IOException ex) {
+                    log.debug("Error closing standby connection", ex);
+                }
+            }
+        }
+    }
+
+    /** Copies the stream through a buffer, rotating files on metadata changes.
+     * Allocates nothing per chunk unless rotating.
+     * Streams without metadata that provide their buffers are written
+     * from these buffers if the file is written directly.
+     * @param contentTypeOrNull the content type of the stream, if known.
+     * @param songNames whether to open a file per song.
+     */
+    private void copy(InputStream inputStream, MimeType contentTypeOrNull, boolean songNames) throws IOException {
+        ByteBufferSource source = ByteBufferSource.of(inputStream);
+        if (source != null && !songNames && writeBehind == null && ioScheduler == null) {
+            copyBuffers(source);
+            return;
+        }
+        int size = BufferPool.sizeFor(getContext().getExpectedBytesPerSecond());
+        byte[] buffer = BufferPool.getInstance().acquire(size);
+        try {
             int len;
             long ofs = 0;
-            boolean dropMsgWritten = false;
-            while (-1 != (len = inputStream.read(buffer))) {
+            while (-1 != (len = inputStream.read(buffer, 0, size))) {
                 try {
                     if (needToAbort(fileNullable)) {
                         return;
@@ -214,32 +465,82 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
 
                     // open new output stream if metadata has changed, we're using song names, and
                     // we're not in the first (incomplete) song (see #37)
-                    if (metaDataChanged && useSongNames() && metaData.getIndex().orElse(0) > 0) {
-                        closeOldFileAndReopenWithNewMetadata(contentType.orElse(null));
+                    if (metaDataChanged && songNames && metaData.getIndex().orElse(0) > 0) {
+                        rotate(contentTypeOrNull);
                     }
 
-                    if (outputStreamNullable != null) {
-                        outputStreamNullable.write(buffer, 0, len);
+                    if (writeBehind != null) {
+                        writeBehind.write(buffer, 0, len);
                     } else {
-                        if (!dropMsgWritten) {
-                            log.info("Dropping bytes of incomplete file, waiting for next song");
-                            dropMsgWritten = true;
-                        }
+                        writeChunk(buffer, 0, len);
                     }
+                    written(len);
                 } catch (IOException ioe) {
                     throw new RadioException(false, ioe);
                 }
                 ofs += len;
-                log.trace("Copied {} bytes", ofs);
+                if (log.isTraceEnabled()) {
+                    log.trace("Copied {} bytes", ofs);
+                }
+            }
+        } finally {
+            BufferPool.getInstance().release(buffer);
+        }
+    }
+
+    /** Copies the buffers of a stream to the channel writer. The bytes
+     * do not pass through the heap if the buffers are direct buffers.
+     * There is no metadata, so the file is never rotated.
+     */
+    private void copyBuffers(ByteBufferSource source) throws IOException {
+        log.debug("Copying buffers of {}", getContext().getUri());
+        ByteBuffer buffer;
+        while (null != (buffer = source.nextBuffer())) {
+            int len = buffer.remaining();
+            try {
+                if (needToAbort(fileNullable)) {
+                    return;
+                }
+                ChannelWriter writer = channelWriterNullable;
+                if (writer != null) {
+                    writer.write(buffer);
+                } else {
+                    buffer.position(buffer.limit());
+                    if (!dropMsgWritten) {
+                        log.info("Dropping bytes of incomplete file, waiting for next song");
+                        dropMsgWritten = true;
+                    }
+                }
+                written(len);
+            } catch (IOException ioe) {
+                throw new RadioException(false, ioe);
             }
+        }
+    }
 
+    /** Writes to the current file, or drops the bytes if there is none. */
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        if (outputStreamNullable != null) {
+            outputStreamNullable.write(b, off, len);
+        } else {
+            if (!dropMsgWritten) {
+                log.info("Dropping bytes of incomplete file, waiting for next song");
+                dropMsgWritten = true;
+            }
+        }
+    }
+
+    /** Passes metadata on, in order with the written bytes if writing behind. */
+    private void acceptMetaData(MetaData m) {
+        if (writeBehind == null) {
+            metaDataConsumer.accept(m);
+            return;
+        }
+        try {
+            writeBehind.submit(() -> metaDataConsumer.accept(m));
         } catch (IOException ex) {
-            log.warn("URL {} broke down", getContext().getUri().toASCIIString(), ex);
-            fileNumber++;
-            throw new RadioException(true, ex);
-        } finally {
-            cleanup(useSongNames());
-            Runtime.getRuntime().removeShutdownHook(cleanupThread);
+            // the failure shows up on the next write
+            log.debug("Could not pass on metadata", ex);
         }
     }
 
@@ -259,14 +560,18 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
+            } else if (fileNullable != null && outputStreamNullable != null) {
+                archive(fileNullable);
+                // the shutdown hook may clean up again
+                fileNullable = null;
             }
         } finally {
             metaDataConsumer.close();
         }
     }
 
-    private void closeStreamIfOpen(OutputStream outputStreamOrNull, Path fileOrNull, MimeType contentTypeOrNull) throws IOException {
-        MetaData fileMetaData = previousMetaData != null ? previousMetaData.clone() : null;
+    private void closeStreamIfOpen(OutputStream outputStreamOrNull, Path fileOrNull, MetaData previousOrNull, MimeType contentTypeOrNull) throws IOException {
+        MetaData fileMetaData = previousOrNull;
         if (outputStreamOrNull != null) {
             log.debug("Closing output stream to {}", fileOrNull);
             outputStreamOrNull.close();
@@ -284,21 +589,23 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
                 try {
                     // adjust time to stream start
                     if (fileOrNull != null && fileMetaData != null) {
-                        Files.setLastModifiedTime(fileOrNull, FileTime.from(fileMetaData.getCreated().toInstant()));
+                        Files.setLastModifiedTime(fileOrNull, FileTime.fromMillis(fileMetaData.getCreatedMillis()));
                     }
                 } catch (IOException e) {
                     log.warn("Error setting date for {}", fileOrNull, e);
                 }
+                if (fileOrNull != null) {
+                    archive(fileOrNull);
+                }
             };
 
             // set time synchronously
-            // tag id3 asynchronously
+            // tag id3 asynchronously in the scope of the radio
             if (idtagger != null) {
-                Thread postprocessThread = new Thread(() -> {
+                getContext().getScope().execute(() -> {
                     idtagger.run();
                     postprocess.run();
-                }, "ID3 " + fileOrNull);
-                postprocessThread.start();
+                });
             } else {
                 postprocess.run();
             }
@@ -306,6 +613,20 @@ public class StreamCopyConsumer extends MetaDataConsumer implements Consumer<Htt
         }
     }
 
+    /** Hands a finished file to the cold directory and retention, if configured. */
+    private void archive(Path file) {
+        if (tierMigrator != null) {
+            tierMigrator.migrate(file, coldFile -> {
+                metaDataConsumer.fileMoved(file, coldFile);
+                if (retentionManager != null) {
+                    retentionManager.add(coldFile);
+                }
+            });
+        } else if (retentionManager != null) {
+            retentionManager.add(file);
+        }
+    }
+
     private void ensureParentDirectoriesExist(Path p) throws IOException {
         Path parent = p.getParent();
         if (! Files.exists(parent)) {
@@ -15,6 +15,7 @@
  */
 package de.sfuhrm.radiorecorder.consumer;
 
+import de.sfuhrm.radiorecorder.BufferPool;
 import de.sfuhrm.radiorecorder.ConsumerContext;
 import de.sfuhrm.radiorecorder.RadioException;
 import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
@@ -37,6 +38,7 @@ import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.sound.sampled.spi.AudioFileReader;
 
+import de.sfuhrm.radiorecorder.metadata.ContentType;
 import de.sfuhrm.radiorecorder.metadata.MimeType;
 import lombok.extern.slf4j.Slf4j;
 
@@ -52,15 +54,23 @@ public class StreamPlayConsumer extends MetaDataConsumer implements Consumer<Htt
      * @param consumerContext the context to work in.
      * */
     public StreamPlayConsumer(ConsumerContext consumerContext) {
-        super(consumerContext);
+        this(consumerContext, null);
     }
 
-    private AudioInputStream getAudioInputStream(String contentType, InputStream inputStream) throws UnsupportedAudioFileException, IOException {
-        if (contentType == null) {
+    /** Constructor.
+     * @param consumerContext the context to work in.
+     * @param contentTypeOrNull the parsed content type of the connection, or {@code null}.
+     * */
+    public StreamPlayConsumer(ConsumerContext consumerContext, ContentType contentTypeOrNull) {
+        super(consumerContext, contentTypeOrNull);
+    }
+
+    private AudioInputStream getAudioInputStream(ContentType contentType, InputStream inputStream) throws UnsupportedAudioFileException, IOException {
+        if (contentType.getValue() == null) {
             log.error("Content type is null");
             throw new UnsupportedAudioFileException("No mapping for NULL content type");
         }
-        Optional<MimeType> mimeType = MimeType.byContentType(contentType);
+        Optional<MimeType> mimeType = contentType.getMimeType();
         if (! mimeType.isPresent()) {
             log.error("Derived mime type is null");
             throw new UnsupportedAudioFileException("No mapping for NULL mime type");
@@ -94,11 +104,11 @@ public class StreamPlayConsumer extends MetaDataConsumer implements Consumer<Htt
     @Override
     protected void __accept(HttpConnection t, InputStream inputStream) {
         CombinedMetaDataConsumer metaDataConsumer = createMetaDataConsumer();
+        byte[] buffer = BufferPool.getInstance().acquire(BUFFER_SIZE);
         try {
             getStreamMetaData().setMetaDataConsumer(metaDataConsumer);
-            byte[] buffer = new byte[BUFFER_SIZE];
 
-            String contentType = t.getContentType();
+            ContentType contentType = getContentType(t);
             log.debug("Content type {}", contentType);
 
             // this is not needed, but will make the AAC codec fail in an
@@ -130,7 +140,7 @@ public class StreamPlayConsumer extends MetaDataConsumer implements Consumer<Htt
                 long ofs = 0;
                 line.open(targetFormat);
                 try {
-                    while (-1 != (len = converted.read(buffer))) {
+                    while (-1 != (len = converted.read(buffer, 0, BUFFER_SIZE))) {
                         log.trace("Read {} bytes", len);
                         ofs += len;
 
@@ -154,6 +164,7 @@ public class StreamPlayConsumer extends MetaDataConsumer implements Consumer<Htt
             throw new RadioException(false, ex);
         } finally {
             metaDataConsumer.close();
+            BufferPool.getInstance().release(buffer);
         }
     }
 }
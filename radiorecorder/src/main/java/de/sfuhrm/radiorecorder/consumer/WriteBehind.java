@@ -0,0 +1,412 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+
+/**
+ * Decouples the network reads of a station from its disk writes.
+ * The reading thread puts chunks into a bounded queue of pooled buffers,
+ * a writer task drains the queue. File operations are submitted as
+ * actions and run by the writer in order with the chunks.
+ * When the queue is full, the {@link OverflowPolicy} decides what
+ * happens to further chunks.
+ * Supports a single producing thread only.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class WriteBehind implements AutoCloseable {
+
+    /** What to do with chunks when the queue is full. */
+    public enum OverflowPolicy {
+        /** Wait for the writer, slowing down the network reads. */
+        BLOCK,
+        /** Drop the chunks, leaving a gap in the recording. */
+        DROP,
+        /** Append the chunks to a temporary file until the writer caught up. */
+        SPILL
+    }
+
+    /** Writes a chunk to the current target. */
+    interface ChunkWriter {
+        /** Writes the bytes.
+         * @param b the buffer holding the bytes.
+         * @param off the offset of the first byte.
+         * @param len the number of bytes.
+         * @throws IOException if writing failed.
+         */
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    /** A file operation run by the writer. */
+    interface Action {
+        /** Runs the operation.
+         * @throws IOException if the operation failed.
+         */
+        void run() throws IOException;
+    }
+
+    /** A queued chunk or action. */
+    private static final class Entry {
+        private final byte[] data;
+        private int length;
+        private final Action action;
+
+        Entry(byte[] data, Action action) {
+            this.data = data;
+            this.action = action;
+        }
+    }
+
+    /** Marks the end of the queue. */
+    private static final Entry END = new Entry(null, null);
+
+    /** The time to wait before checking for a failed writer again. */
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ChunkWriter writer;
+
+    private final BlockingQueue<Entry> queue;
+
+    /** Chunk buffers not in use. */
+    private final Deque<Entry> pool = new ArrayDeque<>();
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /** The first failure of the writer. */
+    private volatile Exception failure;
+
+    private boolean closed;
+
+    /** The file chunks are spilled to, or {@code null} if not spilling. */
+    private Path spillFile;
+    private FileChannel spillChannel;
+
+    private int maxDepth;
+    private long blockedMillis;
+    private long droppedBytes;
+    private long spilledBytes;
+
+    /** Constructor. Starts the writer.
+     * @param name the name of the station for logging.
+     * @param capacity the number of chunks the queue can hold.
+     * @param policy what to do when the queue is full.
+     * @param writer writes the chunks to the current target.
+     * @param executor runs the writer.
+     */
+    WriteBehind(String name, int capacity, OverflowPolicy policy, ChunkWriter writer, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        executor.execute(this::drain);
+    }
+
+    /** Get the number of queued chunks and actions.
+     * @return the current queue depth.
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /** Get the highest queue depth seen.
+     * @return the maximum queue depth.
+     */
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Get the time the producer waited for the writer.
+     * @return the milliseconds spent blocking.
+     */
+    public synchronized long getBlockedMillis() {
+        return blockedMillis;
+    }
+
+    /** Get the bytes dropped because the queue was full.
+     * @return the number of dropped bytes.
+     */
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /** Get the bytes spilled to a temporary file because the queue was full.
+     * @return the number of spilled bytes.
+     */
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /** Queues bytes for writing.
+     * @param b the buffer holding the bytes, may be reused after returning.
+     * @param off the offset of the first byte.
+     * @param len the number of bytes.
+     * @throws IOException if the writer failed before.
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = Math.min(len, BUFFER_SIZE);
+            writeChunk(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        checkFailure();
+        Entry entry;
+        synchronized (this) {
+            if (spillChannel != null) {
+                // keep the order until the writer took over the spill file
+                spill(b, off, len);
+                return;
+            }
+            entry = borrow();
+            System.arraycopy(b, off, entry.data, 0, len);
+            entry.length = len;
+            if (policy != OverflowPolicy.BLOCK) {
+                if (queue.offer(entry)) {
+                    updateDepth();
+                    return;
+                }
+                pool.push(entry);
+                if (policy == OverflowPolicy.DROP) {
+                    if (droppedBytes == 0) {
+                        log.warn("Write queue of {} is full, dropping bytes", name);
+                    }
+                    droppedBytes += len;
+                } else {
+                    spill(b, off, len);
+                }
+                return;
+            }
+        }
+        enqueue(entry);
+    }
+
+    /** Queues a file operation to run in order with the written bytes.
+     * Actions are never dropped or spilled.
+     * @param action the operation to run by the writer.
+     * @throws IOException if the writer failed before.
+     */
+    public void submit(Action action) throws IOException {
+        checkFailure();
+        awaitSpillTakenOver();
+        enqueue(new Entry(null, action));
+    }
+
+    /** Waits until the writer took over the spill file, so that
+     * entries queued afterwards stay in order. */
+    private synchronized void awaitSpillTakenOver() throws InterruptedIOException {
+        while (spillChannel != null && done.getCount() > 0) {
+            try {
+                wait(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the spill file");
+            }
+        }
+    }
+
+    /** Puts an entry into the queue, waiting for space. */
+    private void enqueue(Entry entry) throws IOException {
+        long start = System.currentTimeMillis();
+        boolean blocked = false;
+        try {
+            while (!queue.offer(entry, blocked ? POLL_MILLIS : 0, TimeUnit.MILLISECONDS)) {
+                blocked = true;
+                checkFailure();
+                if (done.getCount() == 0) {
+                    throw new IOException("Writer of " + name + " is gone");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing");
+        }
+        synchronized (this) {
+            updateDepth();
+            if (blocked) {
+                blockedMillis += System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+    private void updateDepth() {
+        maxDepth = Math.max(maxDepth, queue.size());
+    }
+
+    private Entry borrow() {
+        Entry entry = pool.poll();
+        return entry != null ? entry : new Entry(new byte[BUFFER_SIZE], null);
+    }
+
+    private synchronized void recycle(Entry entry) {
+        if (entry.data != null) {
+            pool.push(entry);
+        }
+    }
+
+    private void spill(byte[] b, int off, int len) throws IOException {
+        if (spillChannel == null) {
+            spillFile = Files.createTempFile("radiorecorder-spill", ".tmp");
+            spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+            log.warn("Write queue of {} is full, spilling to {}", name, spillFile);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            spillChannel.write(buffer);
+        }
+        spilledBytes += len;
+    }
+
+    /** Takes over the spill file once all chunks queued before it are written.
+     * @return the spill file, or {@code null} if there is nothing to take over.
+     */
+    private synchronized Path takeSpill() throws IOException {
+        if (spillChannel == null || !queue.isEmpty()) {
+            return null;
+        }
+        spillChannel.close();
+        Path result = spillFile;
+        spillChannel = null;
+        spillFile = null;
+        notifyAll();
+        return result;
+    }
+
+    /** Writes the spilled bytes to the target and deletes the spill file. */
+    private void writeSpill(Path file) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = borrow();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(entry.data);
+            while (channel.read(buffer) != -1) {
+                writer.write(entry.data, 0, buffer.position());
+                buffer.clear();
+            }
+        } finally {
+            recycle(entry);
+        }
+    }
+
+    /** The writer task. */
+    private void drain() {
+        try {
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    Path spilled = takeSpill();
+                    if (spilled != null) {
+                        writeSpill(spilled);
+                        continue;
+                    }
+                    entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (entry == null) {
+                        continue;
+                    }
+                }
+                if (entry == END) {
+                    break;
+                }
+                if (entry.action != null) {
+                    entry.action.run();
+                } else {
+                    writer.write(entry.data, 0, entry.length);
+                    recycle(entry);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Writer of {} failed", name, e);
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Writer of " + name + " interrupted");
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Exception e = failure;
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e != null) {
+            throw new IOException("Writer of " + name + " failed", e);
+        }
+    }
+
+    /** Writes all queued chunks and actions and stops the writer.
+     * @throws IOException if the writer failed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            if (done.getCount() > 0) {
+                awaitSpillTakenOver();
+                enqueue(END);
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        } catch (IOException e) {
+            log.debug("Writer already gone", e);
+        } finally {
+            synchronized (this) {
+                if (spillChannel != null) {
+                    spillChannel.close();
+                    Files.deleteIfExists(spillFile);
+                }
+                log.info("Write queue of {}: max depth {}/{}, blocked {} ms, dropped {} bytes, spilled {} bytes",
+                        name, maxDepth, capacity, blockedMillis, droppedBytes, spilledBytes);
+            }
+        }
+        checkFailure();
+    }
+}
@@ -21,8 +21,10 @@ import de.sfuhrm.radiorecorder.RadioException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.function.Consumer;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
@@ -102,11 +104,12 @@ public class XSPFConsumer extends AbstractConsumer implements Consumer<HttpConne
             // Evaluate XPath expression
             NodeList nl = (NodeList) xpath.evaluate("/x:playlist/x:trackList/x:track/x:location", document, XPathConstants.NODESET);
 
+            List<URI> urls = new ArrayList<>();
             for (int i = 0; i < nl.getLength(); i++) {
                 Node n = nl.item(i);
-                String url = n.getTextContent();
-                getConnectionHandler().consume(URI.create(url));
+                urls.add(URI.create(n.getTextContent()));
             }
+            consumePlaylist(urls);
         } catch (ParserConfigurationException | SAXException | XPathExpressionException |
                  XPathFactoryConfigurationException ex) {
             throw new RadioException(false, ex);
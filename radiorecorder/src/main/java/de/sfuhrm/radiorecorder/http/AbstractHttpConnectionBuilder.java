@@ -32,6 +32,7 @@ class AbstractHttpConnectionBuilder {
     protected Optional<Integer> readTimeout = Optional.empty();
     protected final Map<String, String> requestProperties = new HashMap<>();
     protected Optional<URI> proxy = Optional.empty();
+    protected Optional<Integer> maxConnectionsPerHost = Optional.empty();
 
     /** Configures the timeout for connecting to the server.
      * @param timeout the timeout in milliseconds.
@@ -58,6 +59,14 @@ class AbstractHttpConnectionBuilder {
         requestProperties.put(key, value);
     }
 
+    /** Configures the maximum number of pooled connections to one host.
+     * @param maxConnections the maximum number of connections.
+     */
+    public void setMaxConnectionsPerHost(int maxConnections) {
+        log.debug("Max connections per host: {}", maxConnections);
+        maxConnectionsPerHost = Optional.of(maxConnections);
+    }
+
     /** Sets the HTTP/HTTPS proxy to use.
      * @param proxy the URL of the proxy to use.
      */
@@ -65,4 +74,15 @@ class AbstractHttpConnectionBuilder {
         log.debug("Proxy: {}", proxy.toASCIIString());
         this.proxy = Optional.of(proxy);
     }
+
+    /** Applies the properties of this builder to another builder.
+     * @param target the builder to configure.
+     */
+    void configure(HttpConnectionBuilder target) {
+        connectTimeout.ifPresent(target::setConnectTimeout);
+        readTimeout.ifPresent(target::setReadTimeout);
+        requestProperties.forEach(target::setRequestProperty);
+        proxy.ifPresent(target::setProxy);
+        maxConnectionsPerHost.ifPresent(target::setMaxConnectionsPerHost);
+    }
 }
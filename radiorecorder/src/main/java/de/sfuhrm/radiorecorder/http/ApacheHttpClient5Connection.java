@@ -15,7 +15,6 @@
  */
 package de.sfuhrm.radiorecorder.http;
 
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
@@ -38,12 +37,10 @@ import static java.util.stream.Collectors.toList;
  */
 class ApacheHttpClient5Connection implements HttpConnection {
 
-    private final CloseableHttpClient client;
     private final ClassicHttpResponse response;
     private final URI uri;
 
-    ApacheHttpClient5Connection(CloseableHttpClient client, ClassicHttpResponse connection, URI uri) {
-        this.client = client;
+    ApacheHttpClient5Connection(ClassicHttpResponse connection, URI uri) {
         this.response = connection;
         this.uri = uri;
     }
@@ -85,7 +82,7 @@ class ApacheHttpClient5Connection implements HttpConnection {
 
     @Override
     public void close() throws IOException {
+        // releases the connection, the pooled client stays open
         response.close();
-        client.close();
     }
 }
@@ -16,24 +16,23 @@
 package de.sfuhrm.radiorecorder.http;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.RedirectLocations;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.client5.http.impl.io.BasicHttpClientConnectionManager;
-import org.apache.hc.client5.http.impl.routing.DefaultProxyRoutePlanner;
-import org.apache.hc.client5.http.routing.HttpRoutePlanner;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
 import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.HttpHost;
 import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
 import org.apache.hc.core5.util.Timeout;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.URISyntaxException;
 
 /**
  * Builder for an Apache HttpClient v5 based connection.
+ * The connections are executed on the shared clients of
+ * the {@link ApacheHttpClient5Pool}.
  * @author Stephan Fuhrmann
  */
 @Slf4j
@@ -57,29 +56,23 @@ class ApacheHttpClient5ConnectionBuilder extends AbstractHttpConnectionBuilder i
                     .forEach(requestBuilder::addHeader);
         }
 
-        HttpClientBuilder httpClientBuilder = HttpClientBuilder
-                .create()
-                .setDefaultRequestConfig(configBuilder.build());
-
-        if (proxy.isPresent()) {
-            HttpHost proxyHost = new HttpHost(proxy.get().getScheme(), proxy.get().getHost(), proxy.get().getPort());
-            HttpRoutePlanner httpRoutePlanner = new DefaultProxyRoutePlanner(proxyHost);
-            httpClientBuilder.setRoutePlanner(httpRoutePlanner);
-        }
-
-        if (connectTimeout.isPresent()) {
-            ConnectionConfig.Builder connectionConfigBuilder = ConnectionConfig.custom();
-            connectionConfigBuilder.setConnectTimeout(Timeout.ofMilliseconds(connectTimeout.get()));
-            BasicHttpClientConnectionManager basicHttpClientConnectionManager = new BasicHttpClientConnectionManager();
-            basicHttpClientConnectionManager.setConnectionConfig(connectionConfigBuilder.build());
-            httpClientBuilder.setConnectionManager(basicHttpClientConnectionManager);
-        }
-
-        CloseableHttpClient client = httpClientBuilder.build();
+        CloseableHttpClient client = ApacheHttpClient5Pool.getClient(connectTimeout, proxy,
+                maxConnectionsPerHost.orElse(DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(configBuilder.build());
 
         HttpHost httpHost = HttpHost.create(requestBuilder.getUri());
         ClassicHttpRequest classicHttpRequest = requestBuilder.build();
 
-        return new ApacheHttpClient5Connection(client, client.executeOpen(httpHost, classicHttpRequest, null), requestBuilder.getUri());
+        long start = System.nanoTime();
+        ClassicHttpResponse response = client.executeOpen(httpHost, classicHttpRequest, context);
+        log.debug("Response from {} after {} ms", httpHost, (System.nanoTime() - start) / 1_000_000);
+        // report the URL after redirects so it can be cached
+        URI uri = requestBuilder.getUri();
+        RedirectLocations redirects = context.getRedirectLocations();
+        if (redirects != null && redirects.size() > 0) {
+            uri = redirects.get(redirects.size() - 1);
+        }
+        return new ApacheHttpClient5Connection(response, uri);
     }
 }
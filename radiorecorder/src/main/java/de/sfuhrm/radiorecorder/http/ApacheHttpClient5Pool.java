@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.SystemDefaultDnsResolver;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.routing.DefaultProxyRoutePlanner;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide pooled Apache HttpClient 5 instances.
+ * All connections with the same connect timeout, proxy and connection limit
+ * share one client,
+ * so reconnects and playlist fetches reuse open connections,
+ * TLS sessions and resolved host names.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+final class ApacheHttpClient5Pool {
+
+    /** The maximum number of connections of one client, unless the limit per host is higher. */
+    static final int MAX_CONNECTIONS_TOTAL = 4096;
+
+    /** Time to keep resolved host names. */
+    private static final Duration DNS_TTL = Duration.ofMinutes(5);
+
+    /** Time after which idle pooled connections get closed. */
+    private static final TimeValue MAX_IDLE = TimeValue.ofMinutes(1);
+
+    /** Time after which idle connections are checked before reuse. */
+    private static final TimeValue VALIDATE_AFTER_INACTIVITY = TimeValue.ofSeconds(2);
+
+    private static final DnsResolver DNS_RESOLVER = new CachingDnsResolver(SystemDefaultDnsResolver.INSTANCE, DNS_TTL);
+
+    private static final Map<ClientKey, CloseableHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    /** The client level configuration. */
+    @Value
+    private static class ClientKey {
+        Integer connectTimeout;
+        URI proxy;
+        int maxConnectionsPerRoute;
+    }
+
+    private ApacheHttpClient5Pool() {
+    }
+
+    /** Get the shared client for the given configuration.
+     * @param connectTimeout the optional connect timeout in milliseconds.
+     * @param proxy the optional proxy to use.
+     * @param maxConnectionsPerRoute the maximum number of connections to one host.
+     *                               Each recording holds its connection, so this
+     *                               needs to be at least the number of stations on one host.
+     * @return the shared client. Must not be closed by the caller.
+     */
+    static CloseableHttpClient getClient(Optional<Integer> connectTimeout, Optional<URI> proxy, int maxConnectionsPerRoute) {
+        return CLIENTS.computeIfAbsent(
+                new ClientKey(connectTimeout.orElse(null), proxy.orElse(null), maxConnectionsPerRoute),
+                ApacheHttpClient5Pool::newClient);
+    }
+
+    private static CloseableHttpClient newClient(ClientKey key) {
+        log.debug("New pooled client for {}", key);
+        ConnectionConfig.Builder connectionConfigBuilder = ConnectionConfig.custom()
+                .setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+        if (key.getConnectTimeout() != null) {
+            connectionConfigBuilder.setConnectTimeout(Timeout.ofMilliseconds(key.getConnectTimeout()));
+        }
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder
+                .create()
+                .setMaxConnPerRoute(key.getMaxConnectionsPerRoute())
+                .setMaxConnTotal(Math.max(MAX_CONNECTIONS_TOTAL, key.getMaxConnectionsPerRoute()))
+                .setDnsResolver(DNS_RESOLVER)
+                .setDefaultConnectionConfig(connectionConfigBuilder.build())
+                .build();
+
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder
+                .create()
+                .setConnectionManager(connectionManager)
+                .evictIdleConnections(MAX_IDLE);
+
+        if (key.getProxy() != null) {
+            URI proxy = key.getProxy();
+            HttpHost proxyHost = new HttpHost(proxy.getScheme(), proxy.getHost(), proxy.getPort());
+            httpClientBuilder.setRoutePlanner(new DefaultProxyRoutePlanner(proxyHost));
+        }
+        return httpClientBuilder.build();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Body stream that can hand out its buffers instead of copying them
+ * into a byte array.
+ * Streams of backends reading into direct buffers implement it, so the
+ * bytes can go from the socket to the file without entering the heap.
+ * Filter streams that only watch the bytes implement it if their
+ * underlying stream does.
+ * @author Stephan Fuhrmann
+ */
+public interface ByteBufferSource {
+
+    /** Whether the buffers can be taken from this stream.
+     * @return {@code true} if {@link #nextBuffer()} can be called.
+     */
+    boolean providesBuffers();
+
+    /** Get the next buffer of body bytes.
+     * The buffer stays owned by the stream. The caller
+     * reads all remaining bytes of it before calling again.
+     * @return a buffer with remaining bytes, or {@code null} at the end of the stream.
+     * @throws IOException if reading failed.
+     */
+    ByteBuffer nextBuffer() throws IOException;
+
+    /** Get the buffer source of a stream.
+     * @param inputStream the stream to get the buffers of.
+     * @return the source, or {@code null} if the stream only provides bytes.
+     */
+    static ByteBufferSource of(InputStream inputStream) {
+        return inputStream instanceof ByteBufferSource source && source.providesBuffers() ? source : null;
+    }
+}
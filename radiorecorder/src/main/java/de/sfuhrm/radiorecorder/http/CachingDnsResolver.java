@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.DnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DNS resolver remembering resolved addresses for a fixed time.
+ * Failed lookups are not cached.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class CachingDnsResolver implements DnsResolver {
+
+    private final DnsResolver delegate;
+    private final long ttlMillis;
+
+    /** Cached lookups by lower case host name. */
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /** A cached lookup result. */
+    private static class Entry {
+        private final InetAddress[] addresses;
+        private final long expires;
+
+        Entry(InetAddress[] addresses, long expires) {
+            this.addresses = addresses;
+            this.expires = expires;
+        }
+    }
+
+    /** Constructor.
+     * @param delegate the resolver doing the actual lookups.
+     * @param ttl the time to keep resolved addresses.
+     */
+    CachingDnsResolver(DnsResolver delegate, Duration ttl) {
+        this.delegate = delegate;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        String key = host.toLowerCase();
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry == null || entry.expires < now) {
+            InetAddress[] addresses = delegate.resolve(host);
+            entry = new Entry(addresses, now + ttlMillis);
+            cache.put(key, entry);
+            log.debug("Resolved {} to {} addresses", host, addresses.length);
+        }
+        return entry.addresses.clone();
+    }
+
+    @Override
+    public String resolveCanonicalHostname(String host) throws UnknownHostException {
+        return delegate.resolveCanonicalHostname(host);
+    }
+}
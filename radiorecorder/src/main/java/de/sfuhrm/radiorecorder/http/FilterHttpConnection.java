@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection delegating all calls to another connection.
+ * Subclasses usually override {@link #getInputStream()} to filter the body.
+ * @author Stephan Fuhrmann
+ */
+public class FilterHttpConnection implements HttpConnection {
+
+    /** The connection to delegate to. */
+    protected final HttpConnection delegate;
+
+    /** Constructor.
+     * @param delegate the connection to delegate to.
+     */
+    public FilterHttpConnection(@NonNull HttpConnection delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public URI getURI() throws IOException {
+        return delegate.getURI();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return delegate.getHeaderFields();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return delegate.getResponseMessage();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -25,6 +25,10 @@ import java.net.URI;
  * @author Stephan Fuhrmann
  */
 public interface HttpConnectionBuilder {
+
+    /** The default maximum number of pooled connections to one host. */
+    int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4096;
+
     /** Configures the timeout for connecting to the server.
      * @param timeout the timeout in milliseconds.
      */
@@ -41,6 +45,12 @@ public interface HttpConnectionBuilder {
      */
     void setRequestProperty(String key, String value);
 
+    /** Configures the maximum number of pooled connections to one host.
+     * Only used by backends pooling their connections.
+     * @param maxConnections the maximum number of connections.
+     */
+    void setMaxConnectionsPerHost(int maxConnections);
+
     /** Sets the HTTP/HTTPS proxy to use.
      * @param proxy the URL of the proxy to use.
      */
@@ -29,9 +29,30 @@ import java.util.function.Function;
 @Slf4j
 public class HttpConnectionBuilderFactory {
 
-    /** Constructor.
+    /** The HTTP client implementations. */
+    public enum HttpClientType {
+        /** Blocking Apache HttpClient 5 with one thread per connection. */
+        APACHE_CLIENT_5,
+        /** Non-blocking sockets multiplexed on a few shared selector threads. */
+        NIO,
+        /** The JDK HTTP client, multiplexing HTTPS streams using HTTP/2. */
+        JAVA_NET_HTTP
+    }
+
+    private final HttpClientType type;
+
+    /** Constructor for the default client type.
      * */
     public HttpConnectionBuilderFactory() {
+        this(HttpClientType.APACHE_CLIENT_5);
+    }
+
+    /** Constructor.
+     * @param type the client type to create builders for, or {@code null}
+     *             for the default client type.
+     * */
+    public HttpConnectionBuilderFactory(HttpClientType type) {
+        this.type = type != null ? type : HttpClientType.APACHE_CLIENT_5;
     }
 
     /** Creates a new client of the type configured in the type.
@@ -39,6 +60,14 @@ public class HttpConnectionBuilderFactory {
      * @return a new builder instance for the given URL.
      * */
     public HttpConnectionBuilder newInstance(URI url) {
-        return new ApacheHttpClient5ConnectionBuilder(url);
+        switch (type) {
+            case NIO:
+                return new NioHttpConnectionBuilder(url);
+            case JAVA_NET_HTTP:
+                return new JavaNetHttpConnectionBuilder(url);
+            case APACHE_CLIENT_5:
+            default:
+                return new ApacheHttpClient5ConnectionBuilder(url);
+        }
     }
 }
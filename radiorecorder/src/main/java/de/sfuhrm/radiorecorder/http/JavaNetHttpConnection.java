@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wrapper for a {@link java.net.http.HttpClient} based connection.
+ * @author Stephan Fuhrmann
+ */
+class JavaNetHttpConnection implements HttpConnection {
+
+    private final HttpResponse<InputStream> response;
+
+    JavaNetHttpConnection(HttpResponse<InputStream> response) {
+        this.response = response;
+    }
+
+    @Override
+    public URI getURI() {
+        return response.uri();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return response.headers().map();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return response.body();
+    }
+
+    @Override
+    public String getContentType() {
+        return response.headers().firstValue("Content-Type").orElse(null);
+    }
+
+    @Override
+    public int getResponseCode() {
+        return response.statusCode();
+    }
+
+    @Override
+    public String getResponseMessage() {
+        // java.net.http does not expose the reason phrase, HTTP/2 has none
+        return "";
+    }
+
+    @Override
+    public void close() throws IOException {
+        // closing the body cancels the exchange, the client stays open
+        response.body().close();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builder for a {@link java.net.http.HttpClient} based connection.
+ * HTTPS requests prefer HTTP/2, so the mounts of one CDN host are multiplexed
+ * on a single connection of the shared client.
+ * Plain HTTP requests use HTTP/1.1 because many stream servers
+ * do not understand the HTTP/2 upgrade.
+ * The read timeout applies to the response header and to each read of the body.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class JavaNetHttpConnectionBuilder extends AbstractHttpConnectionBuilder implements HttpConnectionBuilder {
+
+    /** The shared clients by configuration. */
+    private static final Map<ClientKey, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    /** The client level configuration. */
+    @Value
+    private static class ClientKey {
+        Integer connectTimeout;
+        URI proxy;
+    }
+
+    private final URI uri;
+
+    JavaNetHttpConnectionBuilder(URI uri) {
+        this.uri = uri;
+        log.debug("Request for uri {}", uri);
+    }
+
+    private static HttpClient newClient(ClientKey key) {
+        log.debug("New java.net.http client for {}", key);
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (key.getConnectTimeout() != null) {
+            builder.connectTimeout(Duration.ofMillis(key.getConnectTimeout()));
+        }
+        if (key.getProxy() != null) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(key.getProxy().getHost(), key.getProxy().getPort())));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public HttpConnection build() throws IOException {
+        HttpClient client = CLIENTS.computeIfAbsent(
+                new ClientKey(connectTimeout.orElse(null), proxy.orElse(null)),
+                JavaNetHttpConnectionBuilder::newClient);
+
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri)
+                .version("https".equalsIgnoreCase(uri.getScheme())
+                        ? HttpClient.Version.HTTP_2
+                        : HttpClient.Version.HTTP_1_1)
+                .GET();
+        readTimeout.ifPresent(t -> requestBuilder.timeout(Duration.ofMillis(t)));
+        requestProperties.forEach(requestBuilder::header);
+
+        try {
+            long start = System.nanoTime();
+            long bodyTimeout = readTimeout.orElse(0);
+            HttpResponse<InputStream> response = client.send(requestBuilder.build(),
+                    responseInfo -> new TimeoutBodySubscriber(uri, bodyTimeout));
+            log.debug("Response from {} with {} after {} ms", uri, response.version(), (System.nanoTime() - start) / 1_000_000);
+            return new JavaNetHttpConnection(response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + uri);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread serving the non-blocking channels registered to it.
+ * All channel operations happen in the selector thread, other threads
+ * hand over work using {@link #execute(Runnable)}.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class NioEventLoop implements Runnable {
+
+    /** Callback for channel events of a registered channel. */
+    interface Handler {
+        /** Called in the selector thread when the channel is ready.
+         * @param key the selection key of the channel.
+         * @throws IOException if the channel operation failed.
+         */
+        void handle(SelectionKey key) throws IOException;
+
+        /** Called in the selector thread when the channel failed.
+         * @param exception the cause of the failure.
+         */
+        void failed(IOException exception);
+    }
+
+    private final Selector selector;
+
+    /** Work handed over from other threads. */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        Thread.ofPlatform().name(name).daemon(true).start(this);
+    }
+
+    /** Runs the task in the selector thread.
+     * @param task the task to run.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Registers a channel with this selector.
+     * @param channel the non-blocking channel to register.
+     * @param ops the initial interest set.
+     * @param handler the handler to call for events.
+     * @return a future for the selection key.
+     */
+    CompletableFuture<SelectionKey> register(SelectableChannel channel, int ops, Handler handler) {
+        CompletableFuture<SelectionKey> result = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                result.complete(channel.register(selector, ops, handler));
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.warn("Selector task failed", e);
+                    }
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Handler handler = (Handler) key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            handler.handle(key);
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        handler.failed(e);
+                    } catch (CancelledKeyException e) {
+                        log.debug("Key was cancelled concurrently");
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Selector problem", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HTTP/1.0 and ICY connection on a non-blocking {@link SocketChannel}.
+ * The socket is served by a shared {@link NioEventLoop selector thread}
+ * which hands the received body buffers to the reading thread.
+ * When the reader falls behind, the selector stops reading
+ * from the socket until the reader catches up.
+ * The reader hands drained buffers back for the next socket reads.
+ * The body buffers are direct buffers, which the reader can hand on
+ * to a file channel as a {@link ByteBufferSource}.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class NioHttpConnection implements HttpConnection, NioEventLoop.Handler {
+
+    /** Size of the buffers read from the socket. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** Number of buffers queued before reading from the socket is suspended. */
+    private static final int MAX_QUEUED = 32;
+
+    /** Maximum size of the response header. */
+    private static final int MAX_HEADER_SIZE = 65536;
+
+    /** Marker for the end of the body. */
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    private final URI uri;
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final ByteBuffer request;
+    private final int readTimeout;
+
+    private volatile SelectionKey key;
+    private ByteBuffer headerBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CompletableFuture<Void> headerFuture = new CompletableFuture<>();
+
+    private int responseCode;
+    private String responseMessage;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /** Remaining body bytes or -1 if unknown. */
+    private long remaining = -1;
+
+    private final BlockingQueue<ByteBuffer> bodyQueue = new LinkedBlockingQueue<>();
+
+    /** Drained body buffers for reuse by the selector thread. */
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean suspended = new AtomicBoolean();
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    private final InputStream inputStream = new BodyInputStream();
+
+    private NioHttpConnection(NioEventLoop loop, URI uri, SocketChannel channel, ByteBuffer request, int readTimeout) {
+        this.loop = loop;
+        this.uri = uri;
+        this.channel = channel;
+        this.request = request;
+        this.readTimeout = readTimeout;
+    }
+
+    /** Opens a connection and waits for the response header.
+     * @param loop the selector thread to serve the connection.
+     * @param uri the URI to request.
+     * @param request the raw request to send.
+     * @param connectTimeout the connect timeout in millis, 0 for infinite.
+     * @param readTimeout the read timeout in millis, 0 for infinite.
+     * @return the connection with the response header being read.
+     * @throws IOException if connecting or reading the header failed.
+     */
+    static NioHttpConnection open(NioEventLoop loop, URI uri, ByteBuffer request, int connectTimeout, int readTimeout) throws IOException {
+        int port = uri.getPort() != -1 ? uri.getPort() : 80;
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), port);
+        SocketChannel channel = SocketChannel.open();
+        NioHttpConnection connection = new NioHttpConnection(loop, uri, channel, request, readTimeout);
+        try {
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(address);
+            connection.key = loop.register(channel,
+                    connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT,
+                    connection).get();
+            int timeout = connectTimeout > 0 && readTimeout > 0 ? connectTimeout + readTimeout : 0;
+            if (timeout > 0) {
+                connection.headerFuture.get(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                connection.headerFuture.get();
+            }
+            return connection;
+        } catch (TimeoutException e) {
+            connection.close();
+            throw new SocketTimeoutException("Timeout waiting for response header of " + uri);
+        } catch (InterruptedException e) {
+            connection.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + uri);
+        } catch (ExecutionException e) {
+            connection.close();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void handle(SelectionKey selectionKey) throws IOException {
+        if (selectionKey.isConnectable() && channel.finishConnect()) {
+            selectionKey.interestOps(SelectionKey.OP_WRITE);
+        }
+        if (selectionKey.isValid() && selectionKey.isWritable()) {
+            channel.write(request);
+            if (!request.hasRemaining()) {
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        if (selectionKey.isValid() && selectionKey.isReadable()) {
+            if (!headerFuture.isDone()) {
+                readHeader(selectionKey);
+            } else {
+                readBody(selectionKey);
+            }
+        }
+    }
+
+    @Override
+    public void failed(IOException exception) {
+        log.debug("Connection to {} failed", uri, exception);
+        failure = exception;
+        if (!headerFuture.completeExceptionally(exception)) {
+            bodyQueue.add(EOF);
+        }
+    }
+
+    private void readHeader(SelectionKey selectionKey) throws IOException {
+        if (!headerBuffer.hasRemaining()) {
+            if (headerBuffer.capacity() >= MAX_HEADER_SIZE) {
+                throw new IOException("Response header too large");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(headerBuffer.capacity() * 2);
+            headerBuffer.flip();
+            larger.put(headerBuffer);
+            headerBuffer = larger;
+        }
+        if (channel.read(headerBuffer) == -1) {
+            throw new EOFException("End of stream within response header");
+        }
+        int end = findHeaderEnd(headerBuffer.array(), headerBuffer.position());
+        if (end != -1) {
+            parseHeader(new String(headerBuffer.array(), 0, end, StandardCharsets.ISO_8859_1));
+            headerBuffer.flip();
+            headerBuffer.position(end);
+            if (headerBuffer.hasRemaining()) {
+                ByteBuffer body = ByteBuffer.allocate(headerBuffer.remaining());
+                body.put(headerBuffer).flip();
+                deliver(selectionKey, body);
+            } else if (remaining == 0) {
+                selectionKey.cancel();
+                bodyQueue.add(EOF);
+            }
+            headerBuffer = null;
+            headerFuture.complete(null);
+        }
+    }
+
+    /** Finds the end of the header.
+     * @return the offset of the first body byte, or -1 if the header is not complete.
+     */
+    static int findHeaderEnd(byte[] data, int length) {
+        for (int i = 0; i < length - 1; i++) {
+            if (data[i] == '\n' && data[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i < length - 3 && data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private void parseHeader(String header) throws IOException {
+        String[] lines = header.split("\r?\n");
+        // "HTTP/1.0 200 OK" or "ICY 200 OK"
+        String[] status = lines[0].split(" ", 3);
+        if (status.length < 2) {
+            throw new IOException("Malformed status line: " + lines[0]);
+        }
+        try {
+            responseCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + lines[0], e);
+        }
+        responseMessage = status.length > 2 ? status[2] : "";
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                String name = lines[i].substring(0, colon).trim();
+                String value = lines[i].substring(colon + 1).trim();
+                headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+        }
+        String contentLength = getHeaderField("Content-Length");
+        if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring malformed content length {}", contentLength);
+            }
+        }
+    }
+
+    private void readBody(SelectionKey selectionKey) throws IOException {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        int length = channel.read(buffer);
+        if (length <= 0) {
+            freeBuffers.add(buffer);
+        }
+        if (length == -1) {
+            selectionKey.cancel();
+            bodyQueue.add(EOF);
+        } else if (length > 0) {
+            buffer.flip();
+            if (bodyQueue.size() + 1 >= MAX_QUEUED) {
+                // reader is behind, stop reading until it catches up
+                suspended.set(true);
+                selectionKey.interestOps(0);
+            }
+            deliver(selectionKey, buffer);
+        }
+    }
+
+    private void deliver(SelectionKey selectionKey, ByteBuffer buffer) {
+        if (remaining >= 0) {
+            if (buffer.remaining() > remaining) {
+                buffer.limit(buffer.position() + (int) remaining);
+            }
+            remaining -= buffer.remaining();
+        }
+        bodyQueue.add(buffer);
+        if (remaining == 0) {
+            selectionKey.cancel();
+            bodyQueue.add(EOF);
+        }
+    }
+
+    private void resumeIfSuspended() {
+        if (bodyQueue.size() <= MAX_QUEUED / 2 && suspended.compareAndSet(true, false)) {
+            loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            });
+        }
+    }
+
+    /** Get the first value of a header field.
+     * @param name the case insensitive name of the header field.
+     * @return the first value or {@code null} if not present.
+     */
+    String getHeaderField(String name) {
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeaderField("Content-Type");
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            channel.close();
+            bodyQueue.add(EOF);
+        }
+    }
+
+    /** Reads the body buffers handed over by the selector thread. */
+    private class BodyInputStream extends InputStream implements ByteBufferSource {
+        private ByteBuffer current;
+
+        private boolean next() throws IOException {
+            if (current != null && current.hasRemaining()) {
+                return true;
+            }
+            if (current == EOF) {
+                return false;
+            }
+            if (current != null && current.capacity() == BUFFER_SIZE) {
+                current.clear();
+                freeBuffers.add(current);
+            }
+            current = null;
+            try {
+                current = readTimeout > 0
+                        ? bodyQueue.poll(readTimeout, TimeUnit.MILLISECONDS)
+                        : bodyQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading from " + uri);
+            }
+            if (current == null) {
+                throw new SocketTimeoutException("Read timed out from " + uri);
+            }
+            resumeIfSuspended();
+            if (current == EOF) {
+                if (failure != null && !closed) {
+                    throw failure;
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) {
+                return -1;
+            }
+            return current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current != null && current != EOF ? current.remaining() : 0;
+        }
+
+        @Override
+        public boolean providesBuffers() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer nextBuffer() throws IOException {
+            return next() ? current : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            NioHttpConnection.this.close();
+        }
+    }
+}
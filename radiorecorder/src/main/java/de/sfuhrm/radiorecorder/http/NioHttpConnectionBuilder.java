@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builder for a {@link NioHttpConnection}.
+ * Plain HTTP connections without proxy are multiplexed on the
+ * shared {@link NioSelectorPool}, all others fall back to the
+ * {@link ApacheHttpClient5ConnectionBuilder Apache client}.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+class NioHttpConnectionBuilder extends AbstractHttpConnectionBuilder implements HttpConnectionBuilder {
+
+    /** The maximum number of redirects to follow. */
+    private static final int MAX_REDIRECTS = 5;
+
+    private final URI uri;
+
+    NioHttpConnectionBuilder(URI uri) {
+        this.uri = uri;
+        log.debug("Request for uri {}", uri);
+    }
+
+    /** Whether the given URI can be served by this builder.
+     * @param uri the URI to check.
+     * @return {@code true} for plain HTTP URIs.
+     */
+    static boolean supports(URI uri) {
+        return "http".equalsIgnoreCase(uri.getScheme()) && uri.getHost() != null;
+    }
+
+    @Override
+    public HttpConnection build() throws IOException {
+        URI current = uri;
+        for (int redirects = 0; ; redirects++) {
+            if (proxy.isPresent() || !supports(current)) {
+                log.debug("Falling back to Apache client for {}", current);
+                ApacheHttpClient5ConnectionBuilder fallback = new ApacheHttpClient5ConnectionBuilder(current);
+                configure(fallback);
+                return fallback.build();
+            }
+
+            NioHttpConnection connection = NioHttpConnection.open(
+                    NioSelectorPool.getInstance().nextLoop(),
+                    current,
+                    newRequest(current),
+                    connectTimeout.orElse(0),
+                    readTimeout.orElse(0));
+
+            String location = connection.getHeaderField("Location");
+            int code = connection.getResponseCode();
+            if (code >= 300 && code < 400 && location != null && redirects < MAX_REDIRECTS) {
+                connection.close();
+                current = current.resolve(location);
+                log.debug("Following redirect to {}", current);
+                continue;
+            }
+            return connection;
+        }
+    }
+
+    /** Creates the raw HTTP/1.0 request. HTTP/1.0 prevents chunked responses. */
+    private ByteBuffer newRequest(URI target) {
+        String path = target.getRawPath() == null || target.getRawPath().isEmpty() ? "/" : target.getRawPath();
+        if (target.getRawQuery() != null) {
+            path += "?" + target.getRawQuery();
+        }
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.0\r\n");
+        request.append("Host: ").append(target.getHost());
+        if (target.getPort() != -1) {
+            request.append(':').append(target.getPort());
+        }
+        request.append("\r\n");
+        requestProperties.forEach((k, v) -> request.append(k).append(": ").append(v).append("\r\n"));
+        request.append("Connection: close\r\n\r\n");
+        return ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide, small pool of selector threads multiplexing all
+ * {@link NioHttpConnection NIO connections}.
+ * @author Stephan Fuhrmann
+ */
+final class NioSelectorPool {
+
+    /** The maximum number of selector threads. */
+    private static final int MAX_LOOPS = 2;
+
+    private static NioSelectorPool instance;
+
+    private final NioEventLoop[] loops;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private NioSelectorPool(int size) throws IOException {
+        loops = new NioEventLoop[size];
+        for (int i = 0; i < size; i++) {
+            loops[i] = new NioEventLoop("NIO selector " + i);
+        }
+    }
+
+    /** Get the shared instance, creating it on first use.
+     * @return the shared pool.
+     * @throws IOException if a selector could not be opened.
+     */
+    static synchronized NioSelectorPool getInstance() throws IOException {
+        if (instance == null) {
+            int size = Math.max(1, Math.min(MAX_LOOPS, Runtime.getRuntime().availableProcessors()));
+            instance = new NioSelectorPool(size);
+        }
+        return instance;
+    }
+
+    /** Get the next selector thread in round robin order.
+     * @return the selector thread for a new connection.
+     */
+    NioEventLoop nextLoop() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body of a {@link java.net.http.HttpClient} response as an input stream
+ * with a read timeout.
+ * The stream of {@link HttpResponse.BodyHandlers#ofInputStream()} blocks
+ * forever when the server stops sending, because the request timeout
+ * only bounds the wait for the response header.
+ * @author Stephan Fuhrmann
+ */
+class TimeoutBodySubscriber extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+
+    /** Marks the end of the body in the queue. */
+    private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final URI uri;
+
+    /** The maximum time to wait for bytes, or 0 to wait forever. */
+    private final long readTimeoutMillis;
+
+    /** The buffers received from the client. */
+    private final BlockingQueue<List<ByteBuffer>> queue = new LinkedBlockingQueue<>();
+
+    private volatile Flow.Subscription subscription;
+
+    private volatile Throwable failure;
+
+    private volatile boolean closed;
+
+    /** The buffers being read. */
+    private List<ByteBuffer> current = List.of();
+
+    private int index;
+
+    private ByteBuffer buffer;
+
+    private boolean eof;
+
+    /** Constructor.
+     * @param uri the URI of the body for the messages.
+     * @param readTimeoutMillis the maximum time to wait for bytes, or 0 to wait forever.
+     */
+    TimeoutBodySubscriber(URI uri, long readTimeoutMillis) {
+        this.uri = uri;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public CompletionStage<InputStream> getBody() {
+        return CompletableFuture.completedStage(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (closed) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        queue.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        queue.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+        queue.add(END);
+    }
+
+    /** Takes the next buffers from the queue, waiting at most the read timeout. */
+    private List<ByteBuffer> take() throws IOException {
+        try {
+            List<ByteBuffer> next = readTimeoutMillis > 0
+                    ? queue.poll(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : queue.take();
+            if (next == null) {
+                close();
+                throw new SocketTimeoutException("No data from " + uri + " within " + readTimeoutMillis + " ms");
+            }
+            return next;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + uri);
+        }
+    }
+
+    /** Makes a buffer with remaining bytes current.
+     * @return {@code false} at the end of the body.
+     */
+    private boolean nextBuffer() throws IOException {
+        while (buffer == null || !buffer.hasRemaining()) {
+            if (closed) {
+                throw new IOException("Stream for " + uri + " is closed");
+            }
+            if (eof) {
+                return false;
+            }
+            if (index < current.size()) {
+                buffer = current.get(index++);
+                continue;
+            }
+            List<ByteBuffer> next = take();
+            if (next == END) {
+                eof = true;
+                if (failure != null) {
+                    throw new IOException("Reading " + uri + " failed", failure);
+                }
+                return false;
+            }
+            current = next;
+            index = 0;
+            subscription.request(1);
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBuffer()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBuffer()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer readBuffer = buffer;
+        return readBuffer != null ? readBuffer.remaining() : 0;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Flow.Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+        queue.clear();
+    }
+}
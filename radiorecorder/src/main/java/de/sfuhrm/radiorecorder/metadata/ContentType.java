@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.metadata;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A parsed HTTP content type like {@code audio/aac; codecs="mp4a.40.2"}.
+ * Parsed once per connection, the mime type and the parameters
+ * are looked up without parsing again.
+ * @author Stephan Fuhrmann
+ */
+public final class ContentType {
+
+    /** The content type of a connection without one. */
+    public static final ContentType NONE = new ContentType(null, null, null, Collections.emptyMap());
+
+    /** The content type header value, or {@code null}. */
+    private final String value;
+
+    /** The lower case 'type/subtype', or {@code null}. */
+    private final String typeSubtype;
+
+    /** The mime type, or {@code null} if unknown. */
+    private final MimeType mimeType;
+
+    /** The parameters with lower case names. */
+    private final Map<String, String> parameters;
+
+    private ContentType(String value, String typeSubtype, MimeType mimeType, Map<String, String> parameters) {
+        this.value = value;
+        this.typeSubtype = typeSubtype;
+        this.mimeType = mimeType;
+        this.parameters = parameters;
+    }
+
+    /** Parses a content type header value.
+     * Parameter values may be quoted, names are case-insensitive.
+     * @param value the header value, may be {@code null}.
+     * @return the parsed content type, {@link #NONE} for {@code null}.
+     */
+    public static ContentType parse(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        int semicolon = value.indexOf(';');
+        String typeSubtype = (semicolon != -1 ? value.substring(0, semicolon) : value)
+                .trim()
+                .toLowerCase(Locale.ROOT);
+        Map<String, String> parameters = semicolon != -1
+                ? parseParameters(value, semicolon + 1)
+                : Collections.emptyMap();
+        return new ContentType(value, typeSubtype, MimeType.byTypeSubtype(typeSubtype), parameters);
+    }
+
+    /** Parses {@code name=value} pairs separated by semicolons. */
+    private static Map<String, String> parseParameters(String value, int from) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int i = from;
+        while (i < value.length()) {
+            int equals = value.indexOf('=', i);
+            int semicolon = value.indexOf(';', i);
+            if (equals == -1 || semicolon != -1 && semicolon < equals) {
+                // parameter without a value
+                i = semicolon != -1 ? semicolon + 1 : value.length();
+                continue;
+            }
+            String name = value.substring(i, equals).trim().toLowerCase(Locale.ROOT);
+            int start = equals + 1;
+            while (start < value.length() && value.charAt(start) == ' ') {
+                start++;
+            }
+            String parameter;
+            if (start < value.length() && value.charAt(start) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int j = start + 1;
+                while (j < value.length() && value.charAt(j) != '"') {
+                    if (value.charAt(j) == '\\' && j + 1 < value.length()) {
+                        j++;
+                    }
+                    quoted.append(value.charAt(j));
+                    j++;
+                }
+                parameter = quoted.toString();
+                semicolon = value.indexOf(';', j);
+            } else {
+                parameter = (semicolon != -1 ? value.substring(start, semicolon) : value.substring(start)).trim();
+            }
+            if (!name.isEmpty()) {
+                result.putIfAbsent(name, parameter);
+            }
+            i = semicolon != -1 ? semicolon + 1 : value.length();
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /** Get the header value this was parsed from.
+     * @return the header value, or {@code null} for {@link #NONE}.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /** Get the type and subtype.
+     * @return the lower case 'type/subtype', for example {@code audio/mpeg}.
+     */
+    public Optional<String> getTypeSubtype() {
+        return Optional.ofNullable(typeSubtype);
+    }
+
+    /** Get the mime type.
+     * @return the mime type, if known.
+     */
+    public Optional<MimeType> getMimeType() {
+        return Optional.ofNullable(mimeType);
+    }
+
+    /** Get a parameter.
+     * @param name the case-insensitive name of the parameter.
+     * @return the value of the parameter, if present.
+     */
+    public Optional<String> getParameter(String name) {
+        return Optional.ofNullable(parameters.get(name.toLowerCase(Locale.ROOT)));
+    }
+
+    /** Get the {@code charset} parameter.
+     * @return the charset, if present.
+     */
+    public Optional<String> getCharset() {
+        return getParameter("charset");
+    }
+
+    /** Get the {@code codecs} parameter.
+     * @return the codecs, if present.
+     */
+    public Optional<String> getCodecs() {
+        return getParameter("codecs");
+    }
+
+    /** Whether this was parsed from the given header value.
+     * @param headerValue the header value, may be {@code null}.
+     * @return {@code true} if the header values are equal.
+     */
+    public boolean isParsedFrom(String headerValue) {
+        return value == null ? headerValue == null : value.equals(headerValue);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
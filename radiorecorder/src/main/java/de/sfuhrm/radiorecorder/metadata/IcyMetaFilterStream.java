@@ -21,33 +21,53 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Filters icecast metadata out of the stream.
+ * Metadata blocks are read into a reused buffer and compared with the
+ * previous block byte by byte, so repeated blocks cost no decoding.
+ * Changed blocks are parsed on the byte level and only the
+ * found values are decoded to strings.
  * @see ConnectionHandler
  * @author Stephan Fuhrmann
  */
 @Slf4j
 class IcyMetaFilterStream extends OffsetFilterStream {
 
+    /** The longest metadata block, the length byte counts 16 byte units. */
+    static final int MAX_META_LENGTH = 255 * 16;
+
+    private static final byte[] STREAM_TITLE = "StreamTitle='".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STREAM_URL = "StreamURL='".getBytes(StandardCharsets.US_ASCII);
+
     /** Byte interval in the stream to the next metadata block. */
     private final int metaInterval;
 
-    /** Pattern for meta data String. */
-    private final Pattern streamTitlePattern;
+    /** The metadata block being read. */
+    private byte[] block = new byte[MAX_META_LENGTH];
+
+    /** The previous non-empty metadata block. */
+    private byte[] previousBlock = new byte[MAX_META_LENGTH];
 
-    /** Pattern for meta data String. */
-    private final Pattern streamUrlPattern;
+    /** The length of the previous metadata block up to the padding, or -1. */
+    private int previousLength = -1;
 
+    /** The length of the next metadata block if its length byte was read already, or -1. */
+    private int pendingLength = -1;
 
-    @Getter
+    /** The failure of a bulk read that returned the bytes read before it, or {@code null}. */
+    private IOException pendingException;
+
+    /** The last metadata seen. Only changes are passed to the consumer. */
+    @Getter @Setter(AccessLevel.PACKAGE)
     private String lastMetaData;
 
     @Getter @Setter
@@ -56,12 +76,10 @@ class IcyMetaFilterStream extends OffsetFilterStream {
     IcyMetaFilterStream(int icyMetaInterval, InputStream inputStream) {
         super(inputStream);
         this.metaInterval = icyMetaInterval;
-        streamTitlePattern = Pattern.compile("StreamTitle='(([^']|('[^;]))*)';");
-        streamUrlPattern = Pattern.compile("StreamURL='(([^']|('[^;]))*)';");
     }
 
-    private static int indexOf(byte[] array, byte findMe) {
-        for (int i=0; i < array.length; i++) {
+    private static int indexOf(byte[] array, int length, byte findMe) {
+        for (int i=0; i < length; i++) {
             if (array[i] == findMe) {
                 return i;
             }
@@ -69,45 +87,148 @@ class IcyMetaFilterStream extends OffsetFilterStream {
         return -1;
     }
 
-    /** Read a metadata block at the current stream position. */
-    private void readIcyMeta() throws IOException {
+    private static int indexOf(byte[] array, int from, int length, byte[] findMe) {
+        outer:
+        for (int i = from; i <= length - findMe.length; i++) {
+            for (int j = 0; j < findMe.length; j++) {
+                if (array[i + j] != findMe[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Finds the value of a key in a metadata block, like
+     * {@code StreamTitle='(([^']|('[^;]))*)';}.
+     * A quote ends the value if followed by a semicolon, otherwise
+     * the quote and its successor belong to the value.
+     * @param key the key including the opening quote.
+     * @return the value, or {@code null} if not found.
+     */
+    static String value(byte[] array, int length, byte[] key) {
+        int from = 0;
+        int start;
+        while ((start = indexOf(array, from, length, key)) != -1) {
+            int valueStart = start + key.length;
+            int i = valueStart;
+            while (i < length) {
+                if (array[i] != '\'') {
+                    i++;
+                } else if (i + 1 >= length) {
+                    break;
+                } else if (array[i + 1] == ';') {
+                    return new String(array, valueStart, i - valueStart, StandardCharsets.UTF_8);
+                } else {
+                    i += 2;
+                }
+            }
+            from = start + 1;
+        }
+        return null;
+    }
+
+    /** Read a metadata block at the current stream position.
+     * @return {@code false} if the stream ended before the block.
+     */
+    private boolean readIcyMeta() throws IOException {
         int c;
-        log.trace("Offset is {}, Icy Interval is {}", getOffset(), metaInterval);
+        if (log.isTraceEnabled()) {
+            log.trace("Offset is {}, Icy Interval is {}", getOffset(), metaInterval);
+        }
 
-        c = super.read();
-        int length = (c & 0xff) * 16;
+        int length;
+        if (pendingLength != -1) {
+            length = pendingLength;
+            pendingLength = -1;
+        } else {
+            c = super.read();
+            if (c == -1) {
+                // the stream ended right before the metadata block
+                return false;
+            }
+            length = (c & 0xff) * 16;
+        }
+        if (length != 0) {
+            int actually = superReadFully(block, 0, length);
 
-        byte[] metaData = new byte[length];
-        int actually = superReadFully(metaData, 0, length);
+            if (log.isTraceEnabled()) {
+                log.trace("Expected len {}, actual len {}", length, actually);
+            }
+            demultiplex(length);
+        }
 
-        log.trace("Expected len {}, actual len {}", length, actually);
+        setOffset(0);
+        return true;
+    }
 
-        // UTF-8 is probably wrong
-        int firstZero = indexOf(metaData, (byte)0);
-        int stringLen = firstZero != -1 ? firstZero : length;
-        String meta = new String(metaData,0, stringLen, StandardCharsets.UTF_8);
-        Matcher matcher = streamTitlePattern.matcher(meta);
-        if (matcher.find()) {
-            String currentMetaData = matcher.group(1);
+    /** Checks whether the next metadata block can be read without blocking.
+     * The length byte is read if available, so that the check can cover
+     * the whole block.
+     * @return {@code true} if the length byte and the block are available.
+     */
+    private boolean icyMetaAvailable() throws IOException {
+        if (pendingLength == -1) {
+            if (super.available() < 1) {
+                return false;
+            }
+            int c = super.read();
+            if (c == -1) {
+                return false;
+            }
+            pendingLength = (c & 0xff) * 16;
+            // still right before the block
+            setOffset(metaInterval);
+        }
+        return super.available() >= pendingLength;
+    }
 
+    /** Throws the failure of the previous bulk read, if any. */
+    private void throwPendingException() throws IOException {
+        if (pendingException != null) {
+            IOException e = pendingException;
+            pendingException = null;
+            throw e;
+        }
+    }
+
+    /** Parses the metadata block if it differs from the previous one.
+     * @param length the length of the block including padding.
+     */
+    private void demultiplex(int length) {
+        int firstZero = indexOf(block, length, (byte)0);
+        int metaLength = firstZero != -1 ? firstZero : length;
+        if (metaLength == previousLength
+                && Arrays.equals(block, 0, metaLength, previousBlock, 0, metaLength)) {
+            return;
+        }
+        byte[] swap = previousBlock;
+        previousBlock = block;
+        block = swap;
+        previousLength = metaLength;
+        parse(previousBlock, metaLength);
+    }
+
+    /** Parses a changed metadata block. */
+    private void parse(byte[] metaData, int length) {
+        // UTF-8 is probably wrong
+        String currentMetaData = value(metaData, length, STREAM_TITLE);
+        if (currentMetaData != null) {
             if (!currentMetaData.equals(lastMetaData)) {
                 metaDataConsumer.accept(currentMetaData);
             }
             lastMetaData = currentMetaData;
             log.debug("Found metadata: {}", lastMetaData);
         } else {
-            if (length != 0) {
-                log.warn("No metadata found in stream, but had {} bytes (got: {})", length, meta);
-            }
+            log.warn("No metadata found in stream, but had {} bytes (got: {})", length,
+                    new String(metaData, 0, length, StandardCharsets.UTF_8));
         }
 
-        matcher = streamUrlPattern.matcher(meta);
-        if (matcher.find()) {
-            String streamUrl = matcher.group(1);
+        String streamUrl = value(metaData, length, STREAM_URL);
+        if (streamUrl != null) {
             log.info("Stream URL: {}", streamUrl);
         }
-
-        setOffset(0);
     }
 
     /** Reads full array, blocking if necessary.
@@ -136,35 +257,65 @@ class IcyMetaFilterStream extends OffsetFilterStream {
 
     @Override
     public int read() throws IOException {
-        if (getOffset() == metaInterval) {
-            readIcyMeta();
+        throwPendingException();
+        if (getOffset() == metaInterval && !readIcyMeta()) {
+            return -1;
         }
 
         return super.read();
     }
 
+    /** Reads stream bytes across as many metadata blocks as can be
+     * read without blocking.
+     * The stream bytes between the metadata blocks are read directly
+     * into the target array. After the first metadata interval, reading goes
+     * on only while the underlying stream has the whole next metadata block
+     * and more bytes available.
+     * A failure after some bytes were read returns these bytes, the
+     * failure is thrown by the next read.
+     */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int result;
-        if (getOffset() == metaInterval) {
-            // we're right now on the offset
-            readIcyMeta();
-            result = super.read(b, off, len);
-        } else {
-            // bytes to go until next meta data
-            int next = (int)(metaInterval - (getOffset() % metaInterval));
-
-            if (len < next) {
-                // the offset is not within the next 'len' bytes
-                // go on, don't care about icy metadata
-                result = super.read(b, off, len);
-            } else {
-                // the offset is within the next 'len' bytes
-                // first read next 'next' bytes and pretend we're not interested in more
-                result = super.read(b, off, next);
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        throwPendingException();
+        int total = 0;
+        try {
+            while (total < len) {
+                if (getOffset() == metaInterval) {
+                    if (total > 0 && !icyMetaAvailable()) {
+                        break;
+                    }
+                    // we're right now on the offset
+                    if (!readIcyMeta()) {
+                        return total == 0 ? -1 : total;
+                    }
+                    if (total > 0 && super.available() <= 0) {
+                        break;
+                    }
+                }
+                // bytes to go until next meta data
+                int next = (int)(metaInterval - getOffset());
+                int wanted = Math.min(len - total, next);
+                int result = super.read(b, off + total, wanted);
+                if (result == -1) {
+                    return total == 0 ? -1 : total;
+                }
+                total += result;
+                if (result < wanted) {
+                    // don't block for more
+                    break;
+                }
             }
+        } catch (IOException e) {
+            if (total == 0) {
+                throw e;
+            }
+            pendingException = e;
         }
 
-        return result;
+        return total;
     }
 }
@@ -15,72 +15,178 @@
  */
 package de.sfuhrm.radiorecorder.metadata;
 
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Optional;
-import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Getter;
-import lombok.Setter;
 
 /**
- * The tuple of media metadata.
+ * The immutable tuple of media metadata.
+ * Many of these are retained for the history of a stream, so the
+ * fields are stored compactly: missing values are {@code null} or
+ * {@code -1}, the creation time is stored in epoch milliseconds,
+ * and the station strings are interned.
+ * The {@link Optional} accessors are views on these fields.
  * @author Stephan Fuhrmann
  */
-@Getter
-@Setter(AccessLevel.PACKAGE)
-@Builder
-@AllArgsConstructor(access = AccessLevel.PRIVATE)
-public class MetaData implements Cloneable {
-    /** The index of the song in the stream. */
-    private Optional<Integer> index;
+public final class MetaData {
+    /** The index of the song in the stream, or -1. */
+    private final int index;
 
-    /** The timestamp when the song was first detected. */
-    private ZonedDateTime created;
+    /** The epoch millis when the song was first detected. */
+    private final long createdMillis;
 
-    /** The artist of the song. */
-    private Optional<String> artist;
+    /** The zone of the creation time. */
+    private final ZoneId zone;
 
-    /** The title of the song. */
-    private Optional<String> title;
+    /** The artist of the song, or {@code null}. */
+    private final String artist;
 
-    /** The name of the radio station. */
-    private Optional<String> stationName;
+    /** The title of the song, or {@code null}. */
+    private final String title;
 
-    /** The URL of the radio station. */
-    private Optional<String> stationUrl;
+    /** The interned name of the radio station, or {@code null}. */
+    private final String stationName;
 
-    /** The byte offset in the stream. */
-    private Optional<Long> offset;
+    /** The interned URL of the radio station, or {@code null}. */
+    private final String stationUrl;
+
+    /** The byte offset in the stream, or -1. */
+    private final long offset;
+
+    /** Field constructor, the station strings need to be interned already. */
+    private MetaData(int index, long createdMillis, ZoneId zone, String artist, String title,
+                     String stationName, String stationUrl, long offset) {
+        this.index = index;
+        this.createdMillis = createdMillis;
+        this.zone = zone;
+        this.artist = artist;
+        this.title = title;
+        this.stationName = stationName;
+        this.stationUrl = stationUrl;
+        this.offset = offset;
+    }
+
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+
+    /** Builder constructor, all parameters may be {@code null}.
+     * @param created the creation time, {@code null} for now.
+     */
+    @Builder
+    private MetaData(Integer index, ZonedDateTime created, String artist, String title,
+                     String stationName, String stationUrl, Long offset) {
+        this(index != null ? index : -1,
+                created != null ? created.toInstant().toEpochMilli() : System.currentTimeMillis(),
+                created != null ? created.getZone() : ZoneId.systemDefault(),
+                artist, title, intern(stationName), intern(stationUrl),
+                offset != null ? offset : -1);
+    }
 
     /** Constructs a metadata objects with created timestamp now and all other
      * fields {@link Optional#empty()}.
      * */
     public MetaData() {
-        created = ZonedDateTime.now();
-        artist = Optional.empty();
-        title = Optional.empty();
-        stationName = Optional.empty();
-        stationUrl = Optional.empty();
-        offset = Optional.empty();
-        index = Optional.empty();
+        this(-1, System.currentTimeMillis(), ZoneId.systemDefault(), null, null, null, null, -1);
     }
 
-    @Override
-    public MetaData clone() {
-        try {
-            return (MetaData) super.clone();
-        } catch (CloneNotSupportedException ex) {
-            throw new RuntimeException(ex); // can not happen
-        }
+    /** Get the metadata of the next song of the stream, with the same station.
+     * @param createdMillis the epoch millis when the song was detected.
+     * @param offset the byte offset in the stream.
+     * @param artist the artist, or {@code null}.
+     * @param title the title, or {@code null}.
+     * @return a new object with the index incremented.
+     */
+    MetaData next(long createdMillis, long offset, String artist, String title) {
+        return new MetaData(index + 1, createdMillis, zone, artist, title, stationName, stationUrl, offset);
+    }
+
+    /** Get a copy with another station name.
+     * @param stationName the station name, or {@code null}.
+     * @return a new object.
+     */
+    MetaData withStationName(String stationName) {
+        return new MetaData(index, createdMillis, zone, artist, title, intern(stationName), this.stationUrl, offset);
+    }
+
+    /** Get a copy with another station URL.
+     * @param stationUrl the station URL, or {@code null}.
+     * @return a new object.
+     */
+    MetaData withStationUrl(String stationUrl) {
+        return new MetaData(index, createdMillis, zone, artist, title, this.stationName, intern(stationUrl), offset);
+    }
+
+    /** The index of the song in the stream.
+     * @return the index starting at 0, if known.
+     */
+    public Optional<Integer> getIndex() {
+        return index != -1 ? Optional.of(index) : Optional.empty();
+    }
+
+    /** The timestamp when the song was first detected.
+     * @return the creation time in the zone it was created in.
+     */
+    public ZonedDateTime getCreated() {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(createdMillis), zone);
+    }
+
+    /** The timestamp when the song was first detected.
+     * @return the creation time in epoch milliseconds.
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /** The artist of the song.
+     * @return the artist, if known.
+     */
+    public Optional<String> getArtist() {
+        return Optional.ofNullable(artist);
+    }
+
+    /** The title of the song.
+     * @return the title, if known.
+     */
+    public Optional<String> getTitle() {
+        return Optional.ofNullable(title);
+    }
+
+    /** The name of the radio station.
+     * @return the station name, if known.
+     */
+    public Optional<String> getStationName() {
+        return Optional.ofNullable(stationName);
+    }
+
+    /** The URL of the radio station.
+     * @return the station URL, if known.
+     */
+    public Optional<String> getStationUrl() {
+        return Optional.ofNullable(stationUrl);
+    }
+
+    /** The byte offset in the stream.
+     * @return the offset, if known.
+     */
+    public Optional<Long> getOffset() {
+        return offset != -1 ? Optional.of(offset) : Optional.empty();
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        artist.ifPresent(builder::append);
-        title.ifPresent(t -> builder.append(" - ").append(t));
-        stationName.ifPresent(t -> builder.append(" - ").append(t));
+        if (artist != null) {
+            builder.append(artist);
+        }
+        if (title != null) {
+            builder.append(" - ").append(title);
+        }
+        if (stationName != null) {
+            builder.append(" - ").append(stationName);
+        }
         return builder.toString();
     }
 }
@@ -16,8 +16,9 @@
 package de.sfuhrm.radiorecorder.metadata;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.TreeMap;
 import lombok.Getter;
 import lombok.NonNull;
 
@@ -51,6 +52,17 @@ public enum MimeType {
     /** The content type, for example {@code  audio/aac}. */
     private final String[] contentTypes;
 
+    /** The mime types by case-insensitive 'type/subtype'. */
+    private static final Map<String, MimeType> BY_CONTENT_TYPE = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        for (MimeType mimeType : values()) {
+            for (String contentType : mimeType.contentTypes) {
+                BY_CONTENT_TYPE.putIfAbsent(contentType, mimeType);
+            }
+        }
+    }
+
     /** The file system suffix for this mime type, for example {@code .mp3}. */
     private final String suffix;
 
@@ -73,17 +85,20 @@ public enum MimeType {
     }
 
     boolean matches(String contentTypeToMatch) {
-        /* Retrieve only 'type/subtype', filtering out any additional parameters */
-        String typeSubtypeToMatch = contentTypeToMatch.split(";", 2)[0];
-        for (String contentType : contentTypes) {
-            if (typeSubtypeToMatch.equalsIgnoreCase(contentType)) {
-                return true;
-            }
-        }
-        return false;
+        return byContentType(contentTypeToMatch).orElse(null) == this;
+    }
+
+    /** Finds the mime type by 'type/subtype', ignoring case.
+     * @param typeSubtype the content type without parameters.
+     * @return the mime type, or {@code null} if not found.
+     */
+    static MimeType byTypeSubtype(String typeSubtype) {
+        return BY_CONTENT_TYPE.get(typeSubtype);
     }
 
     /** Finds the mime type by content type.
+     * For repeated lookups, parse the content type once with
+     * {@link ContentType#parse(String)}.
      * @param contentType a content type String for example {@code "audio/mpeg"}.
      * @return the identified enum instance wrapped in an {@code Optional}
      * with the possibility of an empty Optional if not found.
@@ -92,8 +107,9 @@ public enum MimeType {
         if (contentType == null) {
             return Optional.empty();
         }
-        return Stream.of(MimeType.values())
-                .filter(mt -> mt.matches(contentType))
-                .findFirst();
+        /* Retrieve only 'type/subtype', filtering out any additional parameters */
+        int semicolon = contentType.indexOf(';');
+        String typeSubtype = semicolon != -1 ? contentType.substring(0, semicolon) : contentType;
+        return Optional.ofNullable(byTypeSubtype(typeSubtype.trim()));
     }
 }
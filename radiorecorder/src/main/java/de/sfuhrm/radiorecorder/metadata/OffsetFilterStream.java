@@ -15,9 +15,12 @@
  */
 package de.sfuhrm.radiorecorder.metadata;
 
+import de.sfuhrm.radiorecorder.http.ByteBufferSource;
+
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -31,7 +34,7 @@ import lombok.Setter;
  */
 @Getter(AccessLevel.PACKAGE)
 @Setter(AccessLevel.PACKAGE)
-class OffsetFilterStream extends FilterInputStream {
+class OffsetFilterStream extends FilterInputStream implements ByteBufferSource {
 
     /** The current byte offset of the stream. */
     private long offset;
@@ -62,6 +65,20 @@ class OffsetFilterStream extends FilterInputStream {
         return result;
     }
 
+    @Override
+    public boolean providesBuffers() {
+        return ByteBufferSource.of(in) != null;
+    }
+
+    @Override
+    public ByteBuffer nextBuffer() throws IOException {
+        ByteBuffer result = ByteBufferSource.of(in).nextBuffer();
+        if (result != null) {
+            offset += result.remaining();
+        }
+        return result;
+    }
+
     @Override
     public synchronized void mark(int readLimit) {
         marked = offset;
@@ -18,10 +18,8 @@ package de.sfuhrm.radiorecorder.metadata;
 import de.sfuhrm.radiorecorder.http.HttpConnection;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -62,6 +60,8 @@ public class StreamMetaData {
      * Internally filters the stream and pushes all
      * new metadata objects seen to the registered
      * metadata consumer.
+     * Opening another connection to the same stream
+     * does not repeat the metadata seen on the previous one.
      * @param connection the non-null http connection to open the stream for.
      * @return the inputstream that reads data from the source the HttpConnection provides.
      * @see #metaDataConsumer
@@ -82,19 +82,21 @@ public class StreamMetaData {
         if (headers.containsKey(ICY_NAME)) {
             String stationName = headers.get(ICY_NAME).get(0);
             log.debug("Station name: {}", stationName);
-            metaData.setStationName(Optional.of(stationName));
+            metaData = metaData.withStationName(stationName);
         }
         if (headers.containsKey(ICY_URL)) {
             String stationUrl = headers.get(ICY_URL).get(0);
             log.debug("Station url: {}", stationUrl);
-            metaData.setStationUrl(Optional.of(stationUrl));
+            metaData = metaData.withStationUrl(stationUrl);
         }
 
         if (headers.containsKey(ICY_METAINT)) {
             providesMetaData = true;
             log.debug("Found Icy Meta Interval header: {}", headers.containsKey(ICY_METAINT));
             int metaInterval = Integer.parseInt(headers.get(ICY_METAINT).get(0));
+            String previousMetaData = icyMetaFilterStream != null ? icyMetaFilterStream.getLastMetaData() : null;
             icyMetaFilterStream = new IcyMetaFilterStream(metaInterval, offsetFilterStream);
+            icyMetaFilterStream.setLastMetaData(previousMetaData);
             icyMetaFilterStream.setMetaDataConsumer(md -> {
                 MetaData target = parse(metaData, offsetFilterStream.getOffset(), md);
                 metaData = target;
@@ -109,31 +111,34 @@ public class StreamMetaData {
     }
 
     /** Parses the metadata string.
+     * Repeated strings are taken from the {@link TitleCache}.
      * @param oldMetaData previous songs meta data (as a template).
      * @param offset byte offset in the stream of this song.
      * @param streamMetaData usually a string containing of arist and title separated by a hyphen '-'.
      * @return meta data object.
      * */
     static MetaData parse(MetaData oldMetaData, long offset, String streamMetaData) {
-        Matcher m = artistTitlePattern.matcher(streamMetaData);
-        MetaData target = oldMetaData.clone();
-        target.setCreated(ZonedDateTime.now());
+        TitleCache.Entry entry = TitleCache.getInstance().get(streamMetaData, StreamMetaData::parseTitle);
         // start counting at 0
-        target.setIndex(Optional.of(1 + oldMetaData.getIndex().orElse(-1)));
-        target.setOffset(Optional.of(offset));
+        return oldMetaData.next(System.currentTimeMillis(), offset, entry.artist(), entry.title());
+    }
+
+    /** Splits the metadata string into artist and title. */
+    private static TitleCache.Entry parseTitle(String streamMetaData) {
+        Matcher m = artistTitlePattern.matcher(streamMetaData);
+        TitleCache.Entry result;
         if (m.matches()) {
             String artist = m.group(1);
             String title = m.group(2);
             log.debug("Icy Meta artist: {}, icy meta title: {}",
                     artist,
                     title);
-            target.setArtist(Optional.of(artist));
-            target.setTitle(Optional.of(title));
+            result = new TitleCache.Entry(artist, title);
         } else {
             log.info("Icy Meta data was malformed: {}", streamMetaData);
-            target.setArtist(Optional.empty());
-            target.setTitle(Optional.of(streamMetaData));
+            result = new TitleCache.Entry(null, streamMetaData);
         }
-        return target;
+        log.debug("Title cache: {}", TitleCache.getInstance());
+        return result;
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.metadata;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded least recently used cache of parsed stream titles, shared by
+ * all stations. Stations repeat jingles, station IDs and ad markers,
+ * these are parsed only once.
+ * @author Stephan Fuhrmann
+ */
+public final class TitleCache {
+
+    /** The number of stream titles cached. */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final TitleCache INSTANCE = new TitleCache(DEFAULT_CAPACITY);
+
+    /** A parsed stream title.
+     * @param artist the artist, or {@code null} if the title has none.
+     * @param title the title.
+     */
+    record Entry(String artist, String title) {
+    }
+
+    private final Map<String, Entry> entries;
+
+    /** The number of lookups that found an entry. */
+    private long hits;
+
+    /** The number of lookups that parsed the title. */
+    private long misses;
+
+    /** Constructor.
+     * @param capacity the number of stream titles to cache.
+     */
+    TitleCache(int capacity) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Get the cache shared by all stations.
+     * @return the process wide cache.
+     */
+    public static TitleCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** Get the parsed stream title, parsing it if not cached.
+     * @param streamTitle the stream title.
+     * @param parser parses the stream title on a miss.
+     * @return the cached or parsed entry.
+     */
+    synchronized Entry get(String streamTitle, Function<String, Entry> parser) {
+        Entry entry = entries.get(streamTitle);
+        if (entry != null) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        entry = parser.apply(streamTitle);
+        entries.put(streamTitle, entry);
+        return entry;
+    }
+
+    /** Get the number of lookups that found a parsed title.
+     * @return the number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Get the number of lookups that needed parsing.
+     * @return the number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Get the share of lookups that found a parsed title.
+     * @return the hit rate between 0 and 1, 0 if there was no lookup.
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups != 0 ? (double) hits / lookups : 0;
+    }
+
+    /** Get the number of cached titles.
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%d hits, %d misses, %.1f%% hit rate, %d titles",
+                hits, misses, 100 * getHitRate(), entries.size());
+    }
+}
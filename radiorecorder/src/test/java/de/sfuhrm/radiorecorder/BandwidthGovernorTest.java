@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link BandwidthGovernor}.
+ * @author Stephan Fuhrmann
+ */
+public class BandwidthGovernorTest {
+
+    private static final int CHUNK = 8192;
+
+    private static final long RUN_MILLIS = 2000;
+
+    /** Consumes as fast as the share allows until the deadline. */
+    private static Thread consume(BandwidthGovernor.Share share, long deadline, AtomicLong counter) {
+        return Thread.ofPlatform().start(() -> {
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    share.acquire(CHUNK);
+                    counter.addAndGet(CHUNK);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @Test
+    void limitsAggregateBandwidth() throws InterruptedException {
+        BandwidthGovernor governor = new BandwidthGovernor(100_000, System::currentTimeMillis);
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        AtomicLong first = new AtomicLong();
+        AtomicLong second = new AtomicLong();
+        Thread t1 = consume(governor.register("first", 0, 0), deadline, first);
+        Thread t2 = consume(governor.register("second", 0, 0), deadline, second);
+        t1.join();
+        t2.join();
+
+        long total = first.get() + second.get();
+        // two seconds of budget, plus chunks of debt and timing jitter
+        assertTrue(total <= 200_000 + 4 * CHUNK, "total: " + total);
+        assertTrue(total >= 150_000, "total: " + total);
+    }
+
+    @Test
+    void higherPriorityGoesFirst() throws InterruptedException {
+        BandwidthGovernor governor = new BandwidthGovernor(100_000, System::currentTimeMillis);
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        AtomicLong high = new AtomicLong();
+        AtomicLong low = new AtomicLong();
+        Thread t1 = consume(governor.register("high", 1, 0), deadline, high);
+        Thread t2 = consume(governor.register("low", 0, 0), deadline, low);
+        t1.join();
+        t2.join();
+
+        assertTrue(low.get() * 4 < high.get(), "high: " + high.get() + ", low: " + low.get());
+    }
+
+    @Test
+    void minimumIsGuaranteed() throws InterruptedException {
+        BandwidthGovernor governor = new BandwidthGovernor(100_000, System::currentTimeMillis);
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        AtomicLong high = new AtomicLong();
+        AtomicLong low = new AtomicLong();
+        Thread t1 = consume(governor.register("high", 1, 0), deadline, high);
+        Thread t2 = consume(governor.register("low", 0, 20_000), deadline, low);
+        t1.join();
+        t2.join();
+
+        assertTrue(low.get() >= 30_000, "low: " + low.get());
+        assertTrue(high.get() >= 120_000, "high: " + high.get());
+    }
+
+    @Test
+    void usagePerStation() throws InterruptedException {
+        BandwidthGovernor governor = new BandwidthGovernor(100_000, System::currentTimeMillis);
+        BandwidthGovernor.Share share = governor.register("station", 0, 0);
+        Thread t1 = consume(share, System.currentTimeMillis() + RUN_MILLIS, new AtomicLong());
+        t1.join();
+
+        long usage = governor.getUsage().get("station");
+        assertTrue(usage > 50_000 && usage < 150_000, "usage: " + usage);
+        assertTrue(share.getThrottledMillis() > 0);
+
+        share.close();
+        assertEquals(0, governor.getUsage().size());
+    }
+
+    @Test
+    void illegalBandwidth() {
+        assertThrows(IllegalArgumentException.class, () -> new BandwidthGovernor(0, System::currentTimeMillis));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link BufferPool}.
+ * @author Stephan Fuhrmann
+ */
+public class BufferPoolTest {
+
+    @Test
+    void roundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(false);
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(0).length);
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).length);
+        assertEquals(BUFFER_SIZE, pool.acquire(BUFFER_SIZE).length);
+        assertEquals(2 * BUFFER_SIZE, pool.acquire(BUFFER_SIZE + 1).length);
+        assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+    }
+
+    @Test
+    void reusesReleasedArrays() {
+        BufferPool pool = new BufferPool(false);
+        byte[] first = pool.acquire(1000);
+        pool.release(first);
+        assertSame(first, pool.acquire(1000));
+        assertNotSame(first, pool.acquire(1000));
+        assertEquals(2048, pool.acquire(2000).length);
+    }
+
+    @Test
+    void alignsDirectBuffers() {
+        BufferPool pool = new BufferPool(false);
+        ByteBuffer buffer = pool.acquireDirect(BufferPool.DIRECT_ALIGNMENT);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.alignmentOffset(0, BufferPool.DIRECT_ALIGNMENT));
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquireDirect(BufferPool.DIRECT_ALIGNMENT);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+    }
+
+    @Test
+    void sizeFollowsBitrate() {
+        assertEquals(BUFFER_SIZE, BufferPool.sizeFor(0));
+        assertEquals(BUFFER_SIZE, BufferPool.sizeFor(16_000));
+        // a quarter second of 320 kbit/s are 10000 bytes
+        assertEquals(2 * BUFFER_SIZE, BufferPool.sizeFor(40_000));
+        assertEquals(BufferPool.MAX_READ_SIZE, BufferPool.sizeFor(10_000_000));
+    }
+
+    @Test
+    void countsLeases() {
+        BufferPool pool = new BufferPool(false);
+        byte[] array = pool.acquire(BUFFER_SIZE);
+        ByteBuffer buffer = pool.acquireDirect(BUFFER_SIZE);
+        assertEquals(2, pool.getLeased());
+        assertThrows(IllegalStateException.class, pool::checkLeaks);
+
+        pool.release(array);
+        pool.release(buffer);
+        assertEquals(0, pool.getLeased());
+        pool.checkLeaks();
+    }
+
+    @Test
+    void reportsWhereLeaksWereLeased() {
+        BufferPool pool = new BufferPool(true);
+        pool.release(pool.acquire(BUFFER_SIZE));
+        pool.acquire(BUFFER_SIZE);
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, pool::checkLeaks);
+        assertEquals(1, exception.getSuppressed().length);
+        assertEquals("reportsWhereLeaksWereLeased", exception.getSuppressed()[0].getStackTrace()[2].getMethodName());
+    }
+
+    @Test
+    void detectsDoubleRelease() {
+        BufferPool pool = new BufferPool(true);
+        byte[] array = pool.acquire(BUFFER_SIZE);
+        pool.release(array);
+        assertThrows(IllegalStateException.class, () -> pool.release(array));
+    }
+}
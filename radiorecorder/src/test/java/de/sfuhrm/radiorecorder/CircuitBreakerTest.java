@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link CircuitBreaker}.
+ * @author Stephan Fuhrmann
+ */
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private final CircuitBreaker breaker = new CircuitBreaker("example.com", now::get);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.recordFailure();
+        }
+    }
+
+    @Test
+    void forHostIsShared() {
+        assertSame(CircuitBreaker.forHost("Example.com"), CircuitBreaker.forHost("example.com"));
+    }
+
+    @Test
+    void staysClosedBelowThreshold() {
+        fail(CircuitBreaker.FAILURE_THRESHOLD - 1);
+        assertEquals(0, breaker.acquire());
+    }
+
+    @Test
+    void opensAtThreshold() {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        assertEquals(CircuitBreaker.INITIAL_OPEN_MILLIS, breaker.acquire());
+    }
+
+    @Test
+    void halfOpenAllowsOneTrial() {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        now.addAndGet(CircuitBreaker.INITIAL_OPEN_MILLIS);
+
+        // the first caller may try, the others wait
+        assertEquals(0, breaker.acquire());
+        assertTrue(breaker.acquire() > 0);
+
+        breaker.recordSuccess();
+        assertEquals(0, breaker.acquire());
+    }
+
+    @Test
+    void openMillisDoesNotStartTrial() {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        assertEquals(CircuitBreaker.INITIAL_OPEN_MILLIS, breaker.getOpenMillis());
+        now.addAndGet(CircuitBreaker.INITIAL_OPEN_MILLIS);
+
+        assertEquals(0, breaker.getOpenMillis());
+        assertEquals(0, breaker.getOpenMillis());
+        // the trial is still available
+        assertEquals(0, breaker.acquire());
+        assertEquals(CircuitBreaker.INITIAL_OPEN_MILLIS, breaker.getOpenMillis());
+    }
+
+    @Test
+    void failedTrialDoublesCoolDown() {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        now.addAndGet(CircuitBreaker.INITIAL_OPEN_MILLIS);
+        assertEquals(0, breaker.acquire());
+
+        breaker.recordFailure();
+        assertEquals(2 * CircuitBreaker.INITIAL_OPEN_MILLIS, breaker.acquire());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link ConnectionHandler}.
+ * @author Stephan Fuhrmann
+ */
+public class ConnectionHandlerTest {
+
+    private static HttpConnection connection() throws IOException {
+        HttpConnection connection = mock(HttpConnection.class);
+        when(connection.getInputStream()).thenReturn(InputStream.nullInputStream());
+        return connection;
+    }
+
+    @Test
+    void stallClosesTheStalledConnectionOnly() throws IOException {
+        AtomicLong clock = new AtomicLong(1_000_000);
+        StallWatchdog watchdog = new StallWatchdog(clock::get, false);
+        HttpConnection stalling = connection();
+        HttpConnection other = connection();
+        StallWatchdog.Watch stallingWatch = watchdog.watch(stalling, "stalling", 16000, 2000);
+        StallWatchdog.Watch otherWatch = watchdog.watch(other, "other", 16000, 60_000);
+        watchdog.addListener(ConnectionHandler.reconnectOnStall(stallingWatch, stalling));
+        watchdog.addListener(ConnectionHandler.reconnectOnStall(otherWatch, other));
+
+        for (int i = 0; i < 2; i++) {
+            clock.addAndGet(StallWatchdog.CHECK_INTERVAL_MILLIS);
+            watchdog.check();
+        }
+
+        verify(stalling, timeout(5000)).close();
+        verify(other, never()).close();
+    }
+}
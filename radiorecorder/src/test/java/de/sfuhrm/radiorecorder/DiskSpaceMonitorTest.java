@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test for {@link DiskSpaceMonitor}.
+ * @author Stephan Fuhrmann
+ */
+@ExtendWith(MockitoExtension.class)
+public class DiskSpaceMonitorTest {
+
+    @Mock
+    FileStore store;
+
+    @Test
+    void subtractsWrittenBytes() throws IOException {
+        Mockito.when(store.getUsableSpace()).thenReturn(10_000L);
+        DiskSpaceMonitor monitor = new DiskSpaceMonitor(store);
+        monitor.written(3_000);
+        monitor.written(500);
+
+        assertEquals(6_500, monitor.getUsableSpace());
+        Mockito.verify(store, Mockito.times(1)).getUsableSpace();
+    }
+
+    @Test
+    void sampleReplacesEstimate() throws IOException {
+        Mockito.when(store.getUsableSpace()).thenReturn(10_000L, 5_000L);
+        DiskSpaceMonitor monitor = new DiskSpaceMonitor(store);
+        monitor.written(3_000);
+        monitor.sample();
+
+        assertEquals(5_000, monitor.getUsableSpace());
+        monitor.written(1_000);
+        assertEquals(4_000, monitor.getUsableSpace());
+    }
+
+    @Test
+    void failedSampleKeepsEstimate() throws IOException {
+        Mockito.when(store.getUsableSpace()).thenReturn(10_000L).thenThrow(new IOException("gone"));
+        DiskSpaceMonitor monitor = new DiskSpaceMonitor(store);
+        monitor.written(3_000);
+        monitor.sample();
+
+        assertEquals(7_000, monitor.getUsableSpace());
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link IoScheduler}.
+ * @author Stephan Fuhrmann
+ */
+public class IoSchedulerTest {
+
+    private static final int FILES = 3;
+
+    private static final int CHUNK = 100;
+
+    @TempDir
+    Path tempDir;
+
+    private FileChannel newChannel(String name) throws IOException {
+        return FileChannel.open(tempDir.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    @Test
+    void coalescesInterleavedWrites() throws IOException, InterruptedException {
+        IoScheduler scheduler = new IoScheduler("test", 60_000);
+        List<OutputStream> streams = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            streams.add(scheduler.open(newChannel("file" + i), "file" + i));
+        }
+        byte[] chunk = new byte[CHUNK];
+        int chunksPerFile = 1000;
+        for (int i = 0; i < FILES * chunksPerFile; i++) {
+            Arrays.fill(chunk, (byte) i);
+            streams.get(i % FILES).write(chunk);
+        }
+        for (OutputStream stream : streams) {
+            stream.close();
+        }
+        scheduler.stop();
+
+        byte[] expected = new byte[CHUNK * chunksPerFile];
+        for (int i = 0; i < chunksPerFile; i++) {
+            Arrays.fill(expected, i * CHUNK, (i + 1) * CHUNK, (byte) (i * FILES + 1));
+        }
+        assertArrayEquals(expected, Files.readAllBytes(tempDir.resolve("file1")));
+        // each file fits into one chunk
+        assertEquals(FILES, scheduler.getLatencies().getTotal());
+    }
+
+    @Test
+    void largeWritesAreSplitIntoChunks() throws IOException, InterruptedException {
+        IoScheduler scheduler = new IoScheduler("test", 60_000);
+        byte[] data = new byte[IoScheduler.COALESCE_BYTES * 3 + 1];
+        try (OutputStream stream = scheduler.open(newChannel("file"), "file")) {
+            stream.write(data);
+        }
+        scheduler.stop();
+
+        assertEquals(data.length, Files.size(tempDir.resolve("file")));
+        assertEquals(4, scheduler.getLatencies().getTotal());
+    }
+
+    @Test
+    void flushesAfterInterval() throws IOException, InterruptedException {
+        IoScheduler scheduler = new IoScheduler("test", 100);
+        try (OutputStream stream = scheduler.open(newChannel("file"), "file")) {
+            stream.write(new byte[CHUNK]);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (Files.size(tempDir.resolve("file")) < CHUNK && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(CHUNK, Files.size(tempDir.resolve("file")));
+        }
+        scheduler.stop();
+
+        long[] counts = scheduler.getLatencies().getCounts();
+        assertEquals(1, scheduler.getLatencies().getTotal());
+        // written after the interval of 100 ms, within the 128 ms bucket
+        assertTrue(counts[7] == 1 || counts[8] == 1, Arrays.toString(counts));
+    }
+
+    @Test
+    void virtualThreadsWriteConcurrently() throws IOException, InterruptedException {
+        IoScheduler scheduler = new IoScheduler("test", 50);
+        byte[] data = new byte[IoScheduler.COALESCE_BYTES * 4 + 1];
+        List<Thread> threads = new ArrayList<>();
+        List<IOException> failures = new ArrayList<>();
+        for (int i = 0; i < FILES * 10; i++) {
+            OutputStream stream = scheduler.open(newChannel("file" + i), "file" + i);
+            threads.add(Thread.ofVirtual().start(() -> {
+                try (stream) {
+                    stream.write(data);
+                    stream.flush();
+                    stream.write(data);
+                } catch (IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        scheduler.stop();
+
+        assertEquals(List.of(), failures);
+        for (int i = 0; i < FILES * 10; i++) {
+            assertEquals(2L * data.length, Files.size(tempDir.resolve("file" + i)));
+        }
+    }
+
+    @Test
+    void forStoreIsKeyedOnFlushInterval() throws IOException {
+        FileStore store = Files.getFileStore(tempDir);
+        assertSame(IoScheduler.forStore(store, 1_000), IoScheduler.forStore(store, 1_000));
+        assertNotSame(IoScheduler.forStore(store, 1_000), IoScheduler.forStore(store, 2_000));
+    }
+
+    @Test
+    void writeFailureIsReported() throws IOException, InterruptedException {
+        IoScheduler scheduler = new IoScheduler("test", 60_000);
+        FileChannel channel = newChannel("file");
+        OutputStream stream = scheduler.open(channel, "file");
+        channel.close();
+        stream.write(new byte[CHUNK]);
+
+        assertThrows(IOException.class, stream::close);
+        scheduler.stop();
+    }
+
+    @Test
+    void histogramBuckets() {
+        IoScheduler.LatencyHistogram histogram = new IoScheduler.LatencyHistogram();
+        histogram.record(0);
+        histogram.record(3_000_000);
+        histogram.record(Long.MAX_VALUE);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[IoScheduler.LatencyHistogram.BUCKETS - 1]);
+        assertEquals("<=1ms: 1, <=4ms: 1, >16384ms: 1", histogram.toString());
+    }
+}
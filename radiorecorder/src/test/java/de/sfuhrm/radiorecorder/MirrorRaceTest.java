@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import com.sun.net.httpserver.HttpServer;
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import de.sfuhrm.radiorecorder.http.HttpConnectionBuilder;
+import de.sfuhrm.radiorecorder.http.HttpConnectionBuilderFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link MirrorRace} against a local server.
+ * @author Stephan Fuhrmann
+ */
+public class MirrorRaceTest {
+
+    private static final long SLOW_MILLIS = 3000;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private final byte[] body = new byte[20_000];
+
+    @BeforeEach
+    public void init() throws IOException {
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/fast", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                Thread.sleep(SLOW_MILLIS);
+                os.write(body);
+            } catch (InterruptedException | IOException e) {
+                // the client went away
+            }
+        });
+        server.createContext("/short", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 100);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body, 0, 100);
+            }
+        });
+        server.createContext("/broken", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html");
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static HttpConnection open(URI uri) throws IOException {
+        HttpConnectionBuilder builder = new HttpConnectionBuilderFactory().newInstance(uri);
+        builder.setConnectTimeout(5000);
+        builder.setReadTimeout(10000);
+        return builder.build();
+    }
+
+    private static MirrorRace newRace() {
+        return new MirrorRace(MirrorRaceTest::open, r -> Thread.ofVirtual().start(r));
+    }
+
+    @Test
+    void fastestMirrorWins() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        Optional<MirrorRace.Winner> winner = newRace().race(
+                Arrays.asList(uri("/slow"), uri("/broken"), uri("/fast")), 10_000);
+        long millis = System.currentTimeMillis() - start;
+
+        assertTrue(winner.isPresent());
+        assertEquals(uri("/fast"), winner.get().getUri());
+        assertTrue(millis < SLOW_MILLIS, "millis: " + millis);
+        try (HttpConnection connection = winner.get().getConnection();
+             InputStream inputStream = connection.getInputStream()) {
+            // the bytes read while racing are replayed
+            assertArrayEquals(body, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    void slowMirrorWinsIfAlone() throws InterruptedException, IOException {
+        Optional<MirrorRace.Winner> winner = newRace().race(
+                Arrays.asList(uri("/broken"), uri("/slow")), 10_000);
+
+        assertTrue(winner.isPresent());
+        assertEquals(uri("/slow"), winner.get().getUri());
+        winner.get().getConnection().close();
+    }
+
+    @Test
+    void noValidMirror() throws InterruptedException {
+        Optional<MirrorRace.Winner> winner = newRace().race(
+                Arrays.asList(uri("/broken"), uri("/short"), URI.create("http://localhost:1/")), 10_000);
+
+        assertFalse(winner.isPresent());
+    }
+
+    @Test
+    void noMirrors() throws InterruptedException {
+        assertFalse(newRace().race(Collections.emptyList(), 10_000).isPresent());
+    }
+}
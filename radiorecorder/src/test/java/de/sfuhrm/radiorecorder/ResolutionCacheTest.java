@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link ResolutionCache}.
+ * @author Stephan Fuhrmann
+ */
+public class ResolutionCacheTest {
+
+    private static final long TTL = 60_000;
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private ResolutionCache newCache() {
+        return new ResolutionCache(tempDir.resolve("cache.properties"), TTL, clock::get);
+    }
+
+    @Test
+    void putAndGet() {
+        ResolutionCache cache = newCache();
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", Collections.singletonList("http://mirror/stream"));
+
+        assertEquals(Optional.of(Collections.singletonList("http://mirror/stream")),
+                cache.get(ResolutionCache.Kind.STREAM, "http://radio/"));
+        assertFalse(cache.get(ResolutionCache.Kind.STATIONS, "http://radio/").isPresent());
+    }
+
+    @Test
+    void expires() {
+        ResolutionCache cache = newCache();
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", Collections.singletonList("http://mirror/stream"));
+
+        clock.addAndGet(TTL + 1);
+        assertFalse(cache.get(ResolutionCache.Kind.STREAM, "http://radio/").isPresent());
+    }
+
+    @Test
+    void unchangedPutDoesNotWrite() throws IOException {
+        Path file = tempDir.resolve("cache.properties");
+        ResolutionCache cache = newCache();
+        List<String> values = Collections.singletonList("http://mirror/stream");
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", values);
+        Files.delete(file);
+
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", values);
+        assertFalse(Files.exists(file));
+
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", Collections.singletonList("http://other/stream"));
+        assertTrue(Files.exists(file));
+    }
+
+    @Test
+    void unchangedPutRefreshesAgingEntry() {
+        ResolutionCache cache = newCache();
+        List<String> values = Collections.singletonList("http://mirror/stream");
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", values);
+
+        clock.addAndGet(TTL / 2 + 1);
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", values);
+        clock.addAndGet(TTL / 2);
+        assertEquals(Optional.of(values), newCache().get(ResolutionCache.Kind.STREAM, "http://radio/"));
+    }
+
+    @Test
+    void invalidate() {
+        ResolutionCache cache = newCache();
+        cache.put(ResolutionCache.Kind.STREAM, "http://radio/", Collections.singletonList("http://mirror/stream"));
+
+        cache.invalidate(ResolutionCache.Kind.STREAM, "http://radio/");
+        assertFalse(cache.get(ResolutionCache.Kind.STREAM, "http://radio/").isPresent());
+        assertFalse(newCache().get(ResolutionCache.Kind.STREAM, "http://radio/").isPresent());
+    }
+
+    @Test
+    void persistsAcrossInstances() {
+        List<String> values = Arrays.asList("first", "second");
+        newCache().put(ResolutionCache.Kind.STATIONS, "10:jazz", values);
+
+        assertEquals(Optional.of(values), newCache().get(ResolutionCache.Kind.STATIONS, "10:jazz"));
+    }
+
+    @Test
+    void ignoresCorruptFile() throws IOException {
+        Files.write(tempDir.resolve("cache.properties"), "STREAM|x=\\u12".getBytes(StandardCharsets.ISO_8859_1));
+
+        ResolutionCache cache = newCache();
+        assertFalse(cache.get(ResolutionCache.Kind.STREAM, "x").isPresent());
+    }
+
+    @Test
+    void radioCacheLine() {
+        Radio radio = new Radio();
+        radio.setName("Jazz & Blues, 24/7");
+        radio.setUri(URI.create("http://radio/stream?x=1&y=2"));
+        radio.setUuid(UUID.randomUUID());
+        radio.setCodec("MP3");
+        radio.setBitrate(128);
+        radio.setTags(Arrays.asList("jazz", "blues, soul"));
+
+        Radio read = Radio.fromCacheLine(radio.toCacheLine());
+
+        assertEquals(radio.getName(), read.getName());
+        assertEquals(radio.getUri(), read.getUri());
+        assertEquals(radio.getUuid(), read.getUuid());
+        assertNull(read.getFavIconUrl());
+        assertEquals(radio.getCodec(), read.getCodec());
+        assertEquals(radio.getBitrate(), read.getBitrate());
+        assertEquals(radio.getTags(), read.getTags());
+    }
+}
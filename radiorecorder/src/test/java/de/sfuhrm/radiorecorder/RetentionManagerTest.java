@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link RetentionManager}.
+ * @author Stephan Fuhrmann
+ */
+public class RetentionManagerTest {
+
+    private static final long NOW = 1_000_000_000L;
+
+    private static final int SIZE = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    /** Creates a recording of {@link #SIZE} bytes modified the given millis before {@link #NOW}. */
+    private Path recording(String station, String name, long ageMillis) throws IOException {
+        Path file = tempDir.resolve(station).resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[SIZE]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(NOW - ageMillis));
+        return file;
+    }
+
+    private RetentionManager newManager(long budget, Map<String, Long> quotas, long maxAge,
+                                        long minFree, DiskSpaceMonitor monitor) throws IOException {
+        RetentionManager manager = new RetentionManager(tempDir, budget, quotas, maxAge, minFree, monitor, () -> NOW);
+        manager.scan();
+        return manager;
+    }
+
+    @Test
+    void scanIndexesRecordingsOnly() throws IOException {
+        recording("a", "1.mp3", 0);
+        recording("b", "2.ogg", 0);
+        Files.write(tempDir.resolve("metadata.csv"), new byte[SIZE]);
+
+        RetentionManager manager = newManager(Long.MAX_VALUE, Collections.emptyMap(), Long.MAX_VALUE, 0, null);
+        manager.enforce();
+
+        assertEquals(2, manager.getRecordingCount());
+        assertEquals(2 * SIZE, manager.getTotalBytes());
+        assertEquals(0, manager.getEvictedBytes());
+    }
+
+    @Test
+    void budgetDeletesOldestFirst() throws IOException {
+        Path oldest = recording("a", "1.mp3", 3000);
+        Path older = recording("b", "2.mp3", 2000);
+        Path newest = recording("a", "3.mp3", 1000);
+
+        RetentionManager manager = newManager(2 * SIZE, Collections.emptyMap(), Long.MAX_VALUE, 0, null);
+        manager.enforce();
+
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        assertTrue(Files.exists(newest));
+        assertEquals(SIZE, manager.getEvictedBytes());
+    }
+
+    @Test
+    void quotaDeletesOldestOfStation() throws IOException {
+        Path otherOldest = recording("b", "0.mp3", 4000);
+        Path oldest = recording("a", "1.mp3", 3000);
+        Path newest = recording("a", "2.mp3", 1000);
+
+        RetentionManager manager = newManager(Long.MAX_VALUE, Map.of("a", (long) SIZE), Long.MAX_VALUE, 0, null);
+        manager.enforce();
+
+        assertTrue(Files.exists(otherOldest));
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(newest));
+    }
+
+    @Test
+    void maxAgeDeletesOldRecordings() throws IOException {
+        Path old = recording("a", "1.mp3", 5000);
+        Path young = recording("a", "2.mp3", 1000);
+
+        RetentionManager manager = newManager(Long.MAX_VALUE, Collections.emptyMap(), 2000, 0, null);
+        manager.enforce();
+
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(young));
+    }
+
+    @Test
+    void addedRecordingsAreIndexed() throws IOException {
+        RetentionManager manager = newManager(SIZE, Collections.emptyMap(), Long.MAX_VALUE, 0, null);
+        Path first = recording("a", "1.mp3", 2000);
+        Path second = recording("a", "2.mp3", 1000);
+        manager.add(first);
+        manager.add(second);
+        manager.add(tempDir.resolve("a").resolve("1.mp3"));
+        manager.enforce();
+
+        assertEquals(1, manager.getRecordingCount());
+        assertFalse(Files.exists(first));
+        assertTrue(Files.exists(second));
+    }
+
+    @Test
+    void minFreeDeletesUntilEnoughSpace() throws IOException {
+        FileStore store = Mockito.mock(FileStore.class);
+        Mockito.when(store.getUsableSpace()).thenReturn((long) SIZE);
+        DiskSpaceMonitor monitor = new DiskSpaceMonitor(store);
+        recording("a", "1.mp3", 3000);
+        recording("a", "2.mp3", 2000);
+        Path newest = recording("a", "3.mp3", 1000);
+
+        RetentionManager manager = newManager(Long.MAX_VALUE, Collections.emptyMap(), Long.MAX_VALUE, 5 * SIZE / 2, monitor);
+        assertTrue(manager.makeRoom());
+        manager.enforce();
+
+        assertEquals(1, manager.getRecordingCount());
+        assertTrue(Files.exists(newest));
+        assertEquals(3 * SIZE, monitor.getUsableSpace());
+    }
+
+    @Test
+    void makeRoomFailsWithoutRecordings() throws IOException {
+        RetentionManager manager = newManager(Long.MAX_VALUE, Collections.emptyMap(), Long.MAX_VALUE, 0, null);
+
+        assertFalse(manager.makeRoom());
+    }
+}
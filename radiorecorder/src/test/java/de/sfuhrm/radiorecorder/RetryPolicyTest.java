@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link RetryPolicy}.
+ * @author Stephan Fuhrmann
+ */
+public class RetryPolicyTest {
+
+    @Test
+    void firstRetryIsImmediate() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000);
+        assertEquals(0, policy.getDelayMillis(1));
+    }
+
+    @Test
+    void delayGrowsExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000);
+        for (int i = 0; i < 100; i++) {
+            long second = policy.getDelayMillis(2);
+            assertTrue(second >= 500 && second <= 1000, "second: " + second);
+            long third = policy.getDelayMillis(3);
+            assertTrue(third >= 1000 && third <= 2000, "third: " + third);
+            long fifth = policy.getDelayMillis(5);
+            assertTrue(fifth >= 4000 && fifth <= 8000, "fifth: " + fifth);
+        }
+    }
+
+    @Test
+    void delayIsCapped() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000);
+        for (int failures : new int[] {10, 40, 100, Integer.MAX_VALUE}) {
+            long delay = policy.getDelayMillis(failures);
+            assertTrue(delay >= 30000 && delay <= 60000, "delay: " + delay);
+        }
+    }
+
+    @Test
+    void illegalDelays() {
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(-1, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(2000, 1000));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link StallWatchdog}.
+ * @author Stephan Fuhrmann
+ */
+public class StallWatchdogTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private StallWatchdog watchdog;
+
+    private HttpConnection connection;
+
+    private final List<StallWatchdog.StallEvent> events = new ArrayList<>();
+
+    /** An endless stream of zeros. */
+    private static class EndlessInputStream extends InputStream {
+        @Override
+        public int read() {
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return len;
+        }
+    }
+
+    @BeforeEach
+    public void init() throws IOException {
+        watchdog = new StallWatchdog(clock::get, false);
+        watchdog.addListener(events::add);
+        connection = mock(HttpConnection.class);
+        when(connection.getInputStream()).thenReturn(new EndlessInputStream());
+    }
+
+    /** Reads the given number of bytes, then advances the clock one interval. */
+    private void second(InputStream inputStream, int bytes) throws IOException {
+        if (bytes > 0) {
+            assertEquals(bytes, inputStream.read(new byte[bytes]));
+        }
+        clock.addAndGet(StallWatchdog.CHECK_INTERVAL_MILLIS);
+        watchdog.check();
+    }
+
+    /** Get the events of stalls, without the drops. */
+    private List<StallWatchdog.StallEvent> stalls() {
+        return events.stream().filter(StallWatchdog.StallEvent::isStalled).collect(Collectors.toList());
+    }
+
+    @Test
+    void steadyStreamIsNotStalled() throws IOException {
+        StallWatchdog.Watch watch = watchdog.watch(connection, "test", 16000, 5000);
+        InputStream inputStream = watch.getConnection().getInputStream();
+        for (int i = 0; i < 20; i++) {
+            second(inputStream, 16000);
+        }
+        assertFalse(watch.isStalled());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void tricklingStreamIsClosed() throws IOException {
+        StallWatchdog.Watch watch = watchdog.watch(connection, "test", 16000, 5000);
+        InputStream inputStream = watch.getConnection().getInputStream();
+        second(inputStream, 16000);
+        for (int i = 0; i < 4; i++) {
+            second(inputStream, 100);
+        }
+        assertFalse(watch.isStalled());
+        second(inputStream, 100);
+
+        assertTrue(watch.isStalled());
+        assertEquals(1, stalls().size());
+        StallWatchdog.StallEvent stall = stalls().get(0);
+        assertEquals("test", stall.getName());
+        assertEquals(100, stall.getBytesPerSecond());
+        assertEquals(16000, stall.getExpectedBytesPerSecond());
+        assertEquals(5000, stall.getStalledMillis());
+        assertSame(watch.getConnection(), stall.getConnection());
+        // closing is up to the listeners
+        verify(connection, never()).close();
+        assertThrows(IOException.class, () -> inputStream.read(new byte[100]));
+    }
+
+    @Test
+    void shortDropIsTolerated() throws IOException {
+        StallWatchdog.Watch watch = watchdog.watch(connection, "test", 16000, 5000);
+        InputStream inputStream = watch.getConnection().getInputStream();
+        for (int i = 0; i < 10; i++) {
+            second(inputStream, i % 4 == 3 ? 16000 : 0);
+        }
+        assertFalse(watch.isStalled());
+    }
+
+    @Test
+    void observedThroughputWithoutBitrate() throws IOException {
+        StallWatchdog.Watch watch = watchdog.watch(connection, "test", 0, 3000);
+        InputStream inputStream = watch.getConnection().getInputStream();
+        // initial burst followed by the regular rate
+        second(inputStream, 64000);
+        for (int i = 0; i < 10; i++) {
+            second(inputStream, 16000);
+        }
+        assertFalse(watch.isStalled());
+        for (int i = 0; i < 3; i++) {
+            second(inputStream, 0);
+        }
+        assertTrue(watch.isStalled());
+        assertEquals(1, stalls().size());
+    }
+
+    @Test
+    void dropIsReportedBeforeStall() throws IOException {
+        StallWatchdog.Watch watch = watchdog.watch(connection, "test", 16000, 5000);
+        InputStream inputStream = watch.getConnection().getInputStream();
+        second(inputStream, 16000);
+        second(inputStream, 100);
+        second(inputStream, 100);
+
+        assertFalse(watch.isStalled());
+        assertEquals(1, events.size());
+        assertFalse(events.get(0).isStalled());
+        assertEquals(1000, events.get(0).getStalledMillis());
+        assertSame(watch.getConnection(), events.get(0).getConnection());
+
+        // the throughput recovers and drops again
+        second(inputStream, 16000);
+        second(inputStream, 100);
+        assertEquals(2, events.size());
+        assertTrue(stalls().isEmpty());
+    }
+
+    @Test
+    void closedWatchIsIgnored() throws IOException {
+        StallWatchdog.Watch watch = watchdog.watch(connection, "test", 16000, 1000);
+        watch.close();
+        second(watch.getConnection().getInputStream(), 0);
+        second(watch.getConnection().getInputStream(), 0);
+        assertFalse(watch.isStalled());
+        assertTrue(events.isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link TierMigrator}.
+ * @author Stephan Fuhrmann
+ */
+public class TierMigratorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path hot;
+    private Path cold;
+
+    @BeforeEach
+    public void init() throws IOException {
+        hot = Files.createDirectory(tempDir.resolve("hot"));
+        cold = Files.createDirectory(tempDir.resolve("cold"));
+    }
+
+    private Path recording(int size) throws IOException {
+        Path file = hot.resolve("station").resolve("song.mp3");
+        Files.createDirectories(file.getParent());
+        byte[] data = new byte[size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Files.write(file, data);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000L));
+        return file;
+    }
+
+    @Test
+    void coldPathKeepsHierarchy() {
+        TierMigrator migrator = new TierMigrator(hot, cold, 0);
+
+        assertEquals(cold.resolve("station").resolve("song.mp3"),
+                migrator.coldPath(hot.resolve("station").resolve("song.mp3")));
+        Path outside = tempDir.resolve("other.mp3");
+        assertEquals(outside, migrator.coldPath(outside));
+    }
+
+    @Test
+    void moveCopiesAndDeletes() throws IOException {
+        Path file = recording(3 * TierMigrator.CHUNK_SIZE + 1);
+        byte[] data = Files.readAllBytes(file);
+        TierMigrator migrator = new TierMigrator(hot, cold, 0);
+
+        Path moved = migrator.move(file);
+
+        assertEquals(cold.resolve("station").resolve("song.mp3"), moved);
+        assertArrayEquals(data, Files.readAllBytes(moved));
+        assertEquals(FileTime.fromMillis(1_000_000_000L), Files.getLastModifiedTime(moved));
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(moved.resolveSibling("song.mp3" + TierMigrator.PART_SUFFIX)));
+        assertEquals(1, migrator.getMigratedFiles());
+        assertEquals(data.length, migrator.getMigratedBytes());
+    }
+
+    @Test
+    void moveKeepsToBandwidth() throws IOException {
+        Path file = recording(4 * TierMigrator.CHUNK_SIZE);
+        TierMigrator migrator = new TierMigrator(hot, cold, 4 * TierMigrator.CHUNK_SIZE * 4);
+
+        long start = System.nanoTime();
+        migrator.move(file);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // a quarter of a second at the cap
+        assertTrue(millis >= 200, "millis: " + millis);
+    }
+
+    @Test
+    void failedMoveLeavesNoPartFile() {
+        TierMigrator migrator = new TierMigrator(hot, cold, 0);
+
+        assertThrows(IOException.class, () -> migrator.move(hot.resolve("station").resolve("missing.mp3")));
+        assertFalse(Files.exists(cold.resolve("station").resolve("missing.mp3" + TierMigrator.PART_SUFFIX)));
+    }
+
+    @Test
+    void recoverQueuesOnlyOldRecordings() throws IOException, InterruptedException {
+        Path old = recording(100);
+        Path current = Files.write(hot.resolve("station").resolve("current.mp3"), new byte[10]);
+        Files.write(hot.resolve("station").resolve("notes.txt"), new byte[10]);
+        TierMigrator migrator = new TierMigrator(hot, cold, 0);
+        List<Path> moved = new CopyOnWriteArrayList<>();
+
+        assertEquals(1, migrator.recover(Files.getLastModifiedTime(current).toMillis(), moved::add));
+        Thread worker = Thread.ofPlatform().daemon().start(migrator::run);
+        migrator.drain(worker, 10_000);
+
+        assertFalse(worker.isAlive());
+        assertEquals(List.of(cold.resolve("station").resolve("song.mp3")), moved);
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(current));
+    }
+
+    @Test
+    void drainFinishesQueuedFiles() throws IOException {
+        Path file = recording(TierMigrator.CHUNK_SIZE);
+        TierMigrator migrator = new TierMigrator(hot, cold, 0);
+        Thread worker = Thread.ofPlatform().daemon().start(migrator::run);
+
+        migrator.migrate(file, null);
+        migrator.drain(worker, 10_000);
+
+        assertFalse(worker.isAlive());
+        assertFalse(Files.exists(file));
+        assertEquals(1, migrator.getMigratedFiles());
+    }
+
+    @Test
+    void moveOutsideHotDirectoryFails() throws IOException {
+        Path outside = Files.write(tempDir.resolve("other.mp3"), new byte[1]);
+        TierMigrator migrator = new TierMigrator(hot, cold, 0);
+
+        assertThrows(IOException.class, () -> migrator.move(outside));
+        assertTrue(Files.exists(outside));
+    }
+}
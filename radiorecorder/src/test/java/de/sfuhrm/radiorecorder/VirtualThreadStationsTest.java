@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts simulated stations on virtual threads against a local
+ * fake stream server and reports the memory and thread usage.
+ * The run with many stations is a benchmark.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class VirtualThreadStationsTest {
+
+    /** The stations of the functional test. */
+    private static final int STATIONS = 8;
+
+    /** The stations of the scale test. */
+    private static final int SCALE_STATIONS = 1000;
+
+    private HttpServer server;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), SCALE_STATIONS);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 0);
+            byte[] chunk = new byte[1024];
+            try (OutputStream os = exchange.getResponseBody()) {
+                while (true) {
+                    os.write(chunk);
+                    os.flush();
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException e) {
+                // client went away
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    /** Runs stations on virtual threads until they abort.
+     * @param stations the number of stations.
+     * @return the peak number of platform threads while running.
+     */
+    private int runStations(int stations) throws InterruptedException, IOException {
+        Params params = Params.parse(new String[] {
+                "-virtual-threads",
+                "-abort-after-duration", "2s",
+                "-min-free", "1",
+                "-d", tempDir.toAbsolutePath().toString(),
+                "unused"});
+        assertNotNull(params);
+
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/stream");
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        int platformThreadsBefore = threadMXBean.getThreadCount();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < stations; i++) {
+            Radio radio = new Radio();
+            radio.setName("station-" + i);
+            radio.setUri(uri);
+            ConsumerContext context = new ConsumerContext(i, radio, params);
+            assertTrue(context.getScope().isVirtual());
+            RadioRunnable runnable = new RadioRunnable(context);
+            Thread thread = StationScope.newThreadBuilder(true).name("Radio " + i).start(runnable);
+            assertTrue(thread.isVirtual());
+            threads.add(thread);
+        }
+
+        int peakPlatformThreads = 0;
+        for (Thread thread : threads) {
+            while (!thread.join(Duration.ofMillis(250))) {
+                peakPlatformThreads = Math.max(peakPlatformThreads, threadMXBean.getThreadCount());
+            }
+            assertFalse(thread.isAlive());
+        }
+
+        log.info("Stations: {}, platform threads before: {}, peak: {}, RSS: {}",
+                stations, platformThreadsBefore, peakPlatformThreads, readResidentSetSize());
+
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertEquals(stations, files.filter(Files::isRegularFile).count());
+        }
+        return peakPlatformThreads;
+    }
+
+    @Test
+    void runStationsOnVirtualThreads() throws InterruptedException, IOException {
+        runStations(STATIONS);
+    }
+
+    /** Only runs with the benchmark profile. */
+    @Test
+    @Tag("benchmark")
+    void runThousandStationsOnVirtualThreads() throws InterruptedException, IOException {
+        int peakPlatformThreads = runStations(SCALE_STATIONS);
+
+        // far less platform threads than stations
+        assertTrue(peakPlatformThreads < SCALE_STATIONS / 4,
+                "Too many platform threads: " + peakPlatformThreads);
+    }
+
+    /** Reads the resident set size from the proc file system.
+     * @return the RSS line or "unknown" on systems without proc file system.
+     * */
+    private static String readResidentSetSize() throws IOException {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return "unknown";
+        }
+        try (Stream<String> lines = Files.lines(status)) {
+            return lines
+                    .filter(l -> l.startsWith("VmRSS:"))
+                    .map(l -> l.substring("VmRSS:".length()).trim())
+                    .findFirst()
+                    .orElse("unknown");
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link ChannelWriter}, including a comparison with
+ * writing through {@link Channels#newOutputStream(java.nio.channels.WritableByteChannel)}.
+ * @author Stephan Fuhrmann
+ */
+public class ChannelWriterTest {
+
+    /** 128 kbit/s. */
+    private static final long BYTES_PER_SECOND = 16_000;
+
+    /** The bytes written by the comparison. */
+    private static final int BENCHMARK_BYTES = 32 * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private FileChannel newChannel(String name) throws IOException {
+        return FileChannel.open(tempDir.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private static byte[] body(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) (i * 31 + i / BUFFER_SIZE);
+        }
+        return result;
+    }
+
+    @Test
+    void writeSizeFollowsBitrate() {
+        assertEquals(ChannelWriter.DEFAULT_WRITE_SIZE, ChannelWriter.writeSize(0));
+        assertEquals(ChannelWriter.MIN_WRITE_SIZE, ChannelWriter.writeSize(1_000));
+        // 2 seconds of 128 kbit/s are 32000 bytes
+        assertEquals(32 * 1024, ChannelWriter.writeSize(BYTES_PER_SECOND));
+        assertEquals(ChannelWriter.MAX_WRITE_SIZE, ChannelWriter.writeSize(10_000_000));
+    }
+
+    @Test
+    void extentIsWholeChunks() {
+        assertEquals(ChannelWriter.DEFAULT_EXTENT, ChannelWriter.extent(0, ChannelWriter.DEFAULT_WRITE_SIZE));
+        long extent = ChannelWriter.extent(BYTES_PER_SECOND, 32 * 1024);
+        assertEquals(0, extent % (32 * 1024));
+        assertTrue(extent >= BYTES_PER_SECOND * ChannelWriter.EXPECTED_SONG_SECONDS);
+    }
+
+    @Test
+    void writesAllBytes() throws IOException {
+        byte[] body = body(100_000);
+        try (ChannelWriter writer = new ChannelWriter(newChannel("file"), BYTES_PER_SECOND, null, false)) {
+            for (int i = 0; i < body.length; i += BUFFER_SIZE) {
+                writer.write(body, i, Math.min(BUFFER_SIZE, body.length - i));
+            }
+            writer.write(42);
+            assertEquals(body.length + 1, writer.getLength());
+            // 100001 bytes in chunks of 32 KiB
+            writer.flush();
+            assertEquals(4, writer.getWrites());
+        }
+        byte[] written = Files.readAllBytes(tempDir.resolve("file"));
+        assertEquals(body.length + 1, written.length);
+        assertEquals(42, written[body.length]);
+        byte[] prefix = new byte[body.length];
+        System.arraycopy(written, 0, prefix, 0, body.length);
+        assertArrayEquals(body, prefix);
+    }
+
+    @Test
+    void writesDirectBuffers() throws IOException {
+        byte[] body = body(100_000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (ChannelWriter writer = new ChannelWriter(newChannel("file"), BYTES_PER_SECOND, null, false)) {
+            for (int i = 0; i < body.length; i += BUFFER_SIZE) {
+                direct.clear();
+                direct.put(body, i, Math.min(BUFFER_SIZE, body.length - i)).flip();
+                writer.write(direct);
+                assertEquals(0, direct.remaining());
+            }
+            assertEquals(body.length, writer.getLength());
+        }
+        assertArrayEquals(body, Files.readAllBytes(tempDir.resolve("file")));
+    }
+
+    @Test
+    void preallocatesAndTrims() throws IOException {
+        byte[] body = body(100_000);
+        ChannelWriter writer = new ChannelWriter(newChannel("file"), BYTES_PER_SECOND, ReservedSpace.create(tempDir.resolve("file")), false);
+        long extent = ChannelWriter.extent(BYTES_PER_SECOND, ChannelWriter.writeSize(BYTES_PER_SECOND));
+        assertEquals(extent, Files.size(tempDir.resolve("file")));
+
+        writer.write(body);
+        writer.flush();
+        assertEquals(extent, Files.size(tempDir.resolve("file")));
+        assertEquals(body.length, writer.getLength());
+        writer.close();
+
+        assertArrayEquals(body, Files.readAllBytes(tempDir.resolve("file")));
+    }
+
+    @Test
+    void preallocatesNextExtent() throws IOException {
+        ChannelWriter writer = new ChannelWriter(newChannel("file"), 0, ReservedSpace.create(tempDir.resolve("file")), false);
+        byte[] body = body((int) ChannelWriter.DEFAULT_EXTENT + 1);
+        writer.write(body);
+        writer.flush();
+        assertEquals(2 * ChannelWriter.DEFAULT_EXTENT, Files.size(tempDir.resolve("file")));
+        writer.close();
+
+        assertArrayEquals(body, Files.readAllBytes(tempDir.resolve("file")));
+    }
+
+    @Test
+    void markerHoldsWrittenLength() throws IOException {
+        Path marker = ReservedSpace.markerOf(tempDir.resolve("file"));
+        ChannelWriter writer = new ChannelWriter(newChannel("file"), 0, ReservedSpace.create(tempDir.resolve("file")), false);
+        writer.write(body(100_000));
+        writer.flush();
+        assertEquals(100_000, Long.parseLong(Files.readString(marker).trim()));
+        writer.close();
+        assertFalse(Files.exists(marker));
+    }
+
+    @Test
+    void writeAfterCloseFails() throws IOException {
+        ChannelWriter writer = new ChannelWriter(newChannel("file"), 0, null, false);
+        writer.close();
+        assertThrows(IOException.class, () -> writer.write(1));
+    }
+
+    @Test
+    void periodicDurabilityForcesEveryInterval() throws IOException {
+        ChannelWriter writer = new ChannelWriter(newChannel("file"), BYTES_PER_SECOND, null, false);
+        int writeSize = ChannelWriter.writeSize(BYTES_PER_SECOND);
+        writer.setDurability(Durability.PERIODIC, 60_000, 2L * writeSize);
+        writer.write(body(10 * writeSize));
+        writer.flush();
+        assertEquals(5, writer.getSyncs());
+        writer.close();
+        assertEquals(6, writer.getSyncs());
+    }
+
+    @Test
+    void closeDurabilityForcesOnClose() throws IOException {
+        ChannelWriter writer = new ChannelWriter(newChannel("file"), BYTES_PER_SECOND, null, false);
+        writer.setDurability(Durability.CLOSE, 0, 0);
+        writer.write(body(100_000));
+        writer.flush();
+        assertEquals(0, writer.getSyncs());
+        writer.close();
+        assertEquals(1, writer.getSyncs());
+    }
+
+    @Test
+    void periodicDurabilityNeedsInterval() throws IOException {
+        try (ChannelWriter writer = new ChannelWriter(newChannel("file"), 0, null, false)) {
+            assertThrows(IllegalArgumentException.class, () -> writer.setDurability(Durability.PERIODIC, 0, 1));
+        }
+    }
+
+    @Test
+    void directWritesPadAndTrim() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(tempDir.resolve("file"), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                    ExtendedOpenOption.DIRECT);
+        } catch (IOException | UnsupportedOperationException e) {
+            Assumptions.abort("No direct I/O in " + tempDir);
+            return;
+        }
+        byte[] body = body(100_001);
+        ChannelWriter writer = new ChannelWriter(channel, BYTES_PER_SECOND, ReservedSpace.create(tempDir.resolve("file")), true);
+        for (int i = 0; i < body.length; i += BUFFER_SIZE - 1) {
+            writer.write(body, i, Math.min(BUFFER_SIZE - 1, body.length - i));
+            writer.flush();
+        }
+        writer.close();
+
+        assertArrayEquals(body, Files.readAllBytes(tempDir.resolve("file")));
+    }
+
+    /** Counts the writes reaching the channel of
+     * {@link Channels#newOutputStream(java.nio.channels.WritableByteChannel)},
+     * which writes every call through. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long writes;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            out.write(b, off, len);
+        }
+    }
+
+    /** Writes {@link #BENCHMARK_BYTES} in chunks of {@link de.sfuhrm.radiorecorder.RadioRunnable#BUFFER_SIZE}.
+     * @return the nanos needed including closing.
+     */
+    private static long writeBenchmark(OutputStream outputStream, byte[] chunk) throws IOException {
+        long start = System.nanoTime();
+        try (OutputStream os = outputStream) {
+            for (int i = 0; i < BENCHMARK_BYTES / chunk.length; i++) {
+                os.write(chunk);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double megabytesPerSecond(long nanos) {
+        return BENCHMARK_BYTES / 1024. / 1024. / (nanos / 1e9);
+    }
+
+    @Test
+    void comparesWithStreamPath() throws IOException {
+        byte[] chunk = body(BUFFER_SIZE);
+        for (int round = 0; round < 3; round++) {
+            CountingOutputStream stream = new CountingOutputStream(Channels.newOutputStream(newChannel("stream" + round)));
+            long streamNanos = writeBenchmark(stream, chunk);
+
+            ChannelWriter writer = new ChannelWriter(newChannel("writer" + round), BYTES_PER_SECOND, null, false);
+            long writerNanos = writeBenchmark(writer, chunk);
+
+            ChannelWriter preallocating = new ChannelWriter(newChannel("preallocating" + round), BYTES_PER_SECOND,
+                    ReservedSpace.create(tempDir.resolve("preallocating" + round)), false);
+            long preallocatingNanos = writeBenchmark(preallocating, chunk);
+
+            System.out.printf("Round %d: stream %d writes %.0f MB/s, channel writer %d writes %.0f MB/s, "
+                            + "preallocating %d writes %.0f MB/s%n",
+                    round,
+                    stream.writes, megabytesPerSecond(streamNanos),
+                    writer.getWrites(), megabytesPerSecond(writerNanos),
+                    preallocating.getWrites(), megabytesPerSecond(preallocatingNanos));
+
+            assertEquals(BENCHMARK_BYTES / BUFFER_SIZE, stream.writes);
+            assertEquals(BENCHMARK_BYTES / ChannelWriter.writeSize(BYTES_PER_SECOND), writer.getWrites());
+            assertEquals(BENCHMARK_BYTES, Files.size(tempDir.resolve("writer" + round)));
+            assertEquals(BENCHMARK_BYTES, Files.size(tempDir.resolve("preallocating" + round)));
+        }
+    }
+}
@@ -95,19 +95,55 @@ class CsvMetaDataConsumerTest {
         assertTrue(lines.get(1).contains("with,comma \"\"quote\"\".mp3"));
     }
 
+    @Test
+    void fileMovedUpdatesWrittenAndComingRows() throws IOException {
+        Path csv = tempDir.resolve("tracks.csv");
+        CsvMetaDataConsumer instance = new CsvMetaDataConsumer(csv, "Fallback");
+        Path hot = tempDir.resolve("hot").resolve("stream.mp3");
+        Path cold = tempDir.resolve("cold").resolve("stream.mp3");
+
+        instance.setCurrentFilePath(hot);
+        instance.accept(metaData(ZonedDateTime.now().minusSeconds(2),
+                Optional.of("Station"), Optional.of("Artist A"), Optional.of("Title A")));
+        instance.accept(metaData(ZonedDateTime.now().minusSeconds(1),
+                Optional.of("Station"), Optional.of("Artist B"), Optional.of("Title B")));
+        instance.fileMoved(hot, cold);
+        instance.close();
+
+        List<String> lines = Files.readAllLines(csv);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1).endsWith(",Artist A,Title A," + cold));
+        assertTrue(lines.get(2).endsWith(",Artist B,Title B," + cold));
+    }
+
+    @Test
+    void fileMovedKeepsOtherRows() throws IOException {
+        Path csv = tempDir.resolve("tracks.csv");
+        CsvMetaDataConsumer instance = new CsvMetaDataConsumer(csv, "Fallback");
+        Path other = tempDir.resolve("hot").resolve("other.mp3");
+
+        instance.setCurrentFilePath(other);
+        instance.accept(metaData(ZonedDateTime.now().minusSeconds(1),
+                Optional.of("Station"), Optional.of("Artist"), Optional.of("Title")));
+        instance.close();
+        instance.fileMoved(tempDir.resolve("hot").resolve("stream.mp3"), tempDir.resolve("cold").resolve("stream.mp3"));
+
+        List<String> lines = Files.readAllLines(csv);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).endsWith("," + other));
+    }
+
     private static MetaData metaData(
             ZonedDateTime created,
             Optional<String> stationName,
             Optional<String> artist,
             Optional<String> title) {
         return MetaData.builder()
-                .index(Optional.of(0))
+                .index(0)
                 .created(created)
-                .artist(artist)
-                .title(title)
-                .stationName(stationName)
-                .stationUrl(Optional.empty())
-                .offset(Optional.empty())
+                .artist(artist.orElse(null))
+                .title(title.orElse(null))
+                .stationName(stationName.orElse(null))
                 .build();
     }
 }
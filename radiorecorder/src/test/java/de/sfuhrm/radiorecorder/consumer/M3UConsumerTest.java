@@ -75,6 +75,29 @@ public class M3UConsumerTest {
         }
     }
 
+    @Test
+    void acceptSkipsMalformedLine() throws IOException {
+        try (TemporaryFile tmp = new TemporaryFile()) {
+            tmp.write(TEST_STRING_MALFORMED);
+
+            Mockito.when(consumerContext.getUri()).thenReturn(tmp.getFile().toUri());
+
+            HttpConnection connection = Mockito.mock(HttpConnection.class);
+            Mockito.when(connection.getURI()).thenReturn(tmp.getFile().toUri());
+            Mockito.when(connection.getInputStream()).thenReturn(tmp.getInputStream());
+
+            ConnectionHandler connectionHandler = Mockito.mock(ConnectionHandler.class);
+
+            M3UConsumer consumer = new M3UConsumer(consumerContext);
+            consumer.setConnectionHandler(connectionHandler);
+            consumer.accept(connection);
+
+            Mockito.verify(connectionHandler).consume(URI.create("http://streamexample.com:80"));
+            Mockito.verify(connectionHandler).consume(URI.create("http://example.com/song.mp3"));
+            Mockito.verifyNoMoreInteractions(connectionHandler);
+        }
+    }
+
     @AfterEach
     public void validate() {
         Mockito.validateMockitoUsage();
@@ -85,4 +108,9 @@ public class M3UConsumerTest {
             + "http://streamexample.com:80\n"
             + "http://example.com/song.mp3\n"
             + "D:\\Eigene Musik\\album.flac\n";
+
+    private final static String TEST_STRING_MALFORMED
+            = "http://streamexample.com:80\n"
+            + "http://example.com/bad path|with spaces.mp3\n"
+            + "http://example.com/song.mp3\n";
 }
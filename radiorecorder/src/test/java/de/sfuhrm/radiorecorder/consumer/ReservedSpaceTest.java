@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Test for {@link ReservedSpace}.
+ * @author Stephan Fuhrmann
+ */
+public class ReservedSpaceTest {
+
+    @TempDir
+    Path tempDir;
+
+    /** A recording ending in silence. */
+    private static byte[] body() {
+        byte[] result = new byte[100_000];
+        for (int i = 0; i < 90_000; i++) {
+            result[i] = (byte) (i * 31 + 1);
+        }
+        return result;
+    }
+
+    @Test
+    void recoverTrimsMarkedRecordingToWrittenLength() throws IOException {
+        byte[] body = body();
+        Path station = Files.createDirectory(tempDir.resolve("station"));
+        Path crashed = station.resolve("crashed.mp3");
+        Files.write(crashed, Arrays.copyOf(body, 4 * body.length));
+        ReservedSpace reservedSpace = ReservedSpace.create(crashed);
+        reservedSpace.written(body.length);
+        reservedSpace.abandon();
+
+        assertEquals(1, ReservedSpace.recover(tempDir));
+
+        assertArrayEquals(body, Files.readAllBytes(crashed));
+        assertFalse(Files.exists(ReservedSpace.markerOf(crashed)));
+    }
+
+    @Test
+    void recoverKeepsUnmarkedRecordings() throws IOException {
+        byte[] body = body();
+        Path recording = tempDir.resolve("complete.mp3");
+        Files.write(recording, body);
+
+        assertEquals(0, ReservedSpace.recover(tempDir));
+
+        assertArrayEquals(body, Files.readAllBytes(recording));
+    }
+
+    @Test
+    void closeDeletesMarker() throws IOException {
+        Path recording = tempDir.resolve("file.mp3");
+        ReservedSpace reservedSpace = ReservedSpace.create(recording);
+        reservedSpace.written(42);
+        assertEquals(42, Long.parseLong(Files.readString(ReservedSpace.markerOf(recording)).trim()));
+        reservedSpace.close();
+        assertFalse(Files.exists(ReservedSpace.markerOf(recording)));
+    }
+}
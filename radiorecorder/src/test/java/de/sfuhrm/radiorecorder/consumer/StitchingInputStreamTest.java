@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@link StitchingInputStream}.
+ * @author Stephan Fuhrmann
+ */
+public class StitchingInputStreamTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] result = new byte[length];
+        new Random(42).nextBytes(result);
+        return result;
+    }
+
+    /** A stream that delivers the given bytes and then breaks down. */
+    private static InputStream ioBreakingStream(byte[] data) {
+        InputStream delegate = new ByteArrayInputStream(data);
+        return new InputStream() {
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int result = delegate.read(b, off, len);
+                if (result == -1) {
+                    throw new IOException("Connection reset");
+                }
+                return result;
+            }
+        };
+    }
+
+    @Test
+    void stitchOverlappingStandby() throws IOException {
+        byte[] audio = randomBytes(200_000);
+        int brokenAt = 100_000;
+        // the standby stream starts with a burst of already sent bytes
+        int burstStart = 60_000;
+        StitchingInputStream stream = new StitchingInputStream(
+                ioBreakingStream(Arrays.copyOfRange(audio, 0, brokenAt)),
+                () -> new ByteArrayInputStream(Arrays.copyOfRange(audio, burstStart, audio.length)));
+
+        assertArrayEquals(audio, stream.readAllBytes());
+        assertEquals(1, stream.getFailovers());
+    }
+
+    @Test
+    void stitchShortOverlap() throws IOException {
+        byte[] audio = randomBytes(200_000);
+        int brokenAt = 100_000;
+        // the overlap is shorter than the match length
+        int burstStart = brokenAt - StitchingInputStream.MATCH_LENGTH / 2;
+        StitchingInputStream stream = new StitchingInputStream(
+                ioBreakingStream(Arrays.copyOfRange(audio, 0, brokenAt)),
+                () -> new ByteArrayInputStream(Arrays.copyOfRange(audio, burstStart, audio.length)));
+
+        assertArrayEquals(audio, stream.readAllBytes());
+    }
+
+    @Test
+    void standbyWithoutOverlapLeavesGap() throws IOException {
+        byte[] audio = randomBytes(200_000);
+        int brokenAt = 100_000;
+        int resumeAt = 120_000;
+        StitchingInputStream stream = new StitchingInputStream(
+                ioBreakingStream(Arrays.copyOfRange(audio, 0, brokenAt)),
+                () -> new ByteArrayInputStream(Arrays.copyOfRange(audio, resumeAt, audio.length)));
+
+        byte[] expected = new byte[brokenAt + audio.length - resumeAt];
+        System.arraycopy(audio, 0, expected, 0, brokenAt);
+        System.arraycopy(audio, resumeAt, expected, brokenAt, audio.length - resumeAt);
+        assertArrayEquals(expected, stream.readAllBytes());
+    }
+
+    @Test
+    void failingStandbyRethrows() {
+        byte[] audio = randomBytes(10_000);
+        StitchingInputStream stream = new StitchingInputStream(
+                ioBreakingStream(audio),
+                () -> {
+                    throw new IOException("Connection refused");
+                });
+
+        assertThrows(IOException.class, stream::readAllBytes);
+    }
+
+    /** An opener counting the connections made ahead of time and on failure. */
+    private static class CountingOpener implements StitchingInputStream.StreamOpener {
+        private final byte[] standby;
+        private final boolean connectFails;
+        private int opened;
+        private int connected;
+
+        CountingOpener(byte[] standby, boolean connectFails) {
+            this.standby = standby;
+            this.connectFails = connectFails;
+        }
+
+        @Override
+        public InputStream open() {
+            opened++;
+            return new ByteArrayInputStream(standby);
+        }
+
+        @Override
+        public StitchingInputStream.Connection connect() throws IOException {
+            connected++;
+            if (connectFails) {
+                throw new IOException("Connection refused");
+            }
+            return new StitchingInputStream.Connection() {
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(standby);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    @Test
+    void preparedStandbyIsUsed() throws IOException {
+        byte[] audio = randomBytes(200_000);
+        int brokenAt = 100_000;
+        CountingOpener opener = new CountingOpener(Arrays.copyOfRange(audio, 60_000, audio.length), false);
+        StitchingInputStream stream = new StitchingInputStream(
+                ioBreakingStream(Arrays.copyOfRange(audio, 0, brokenAt)), opener);
+
+        stream.prepareStandby(Runnable::run);
+        stream.prepareStandby(Runnable::run);
+
+        assertArrayEquals(audio, stream.readAllBytes());
+        assertEquals(1, opener.connected);
+        assertEquals(0, opener.opened);
+        assertEquals(1, stream.getFailovers());
+    }
+
+    @Test
+    void failedPreparedStandbyIsReplaced() throws IOException {
+        byte[] audio = randomBytes(200_000);
+        int brokenAt = 100_000;
+        CountingOpener opener = new CountingOpener(Arrays.copyOfRange(audio, 60_000, audio.length), true);
+        StitchingInputStream stream = new StitchingInputStream(
+                ioBreakingStream(Arrays.copyOfRange(audio, 0, brokenAt)), opener);
+
+        stream.prepareStandby(Runnable::run);
+
+        assertArrayEquals(audio, stream.readAllBytes());
+        assertEquals(1, opener.connected);
+        assertEquals(1, opener.opened);
+    }
+
+    @Test
+    void indexOf() {
+        byte[] data = {1, 2, 3, 1, 2, 4, 5};
+        assertEquals(3, StitchingInputStream.indexOf(data, data.length, new byte[] {1, 2, 4}, 0));
+        assertEquals(-1, StitchingInputStream.indexOf(data, 5, new byte[] {1, 2, 4}, 0));
+        assertEquals(-1, StitchingInputStream.indexOf(data, data.length, new byte[] {1, 2, 3}, 1));
+    }
+}
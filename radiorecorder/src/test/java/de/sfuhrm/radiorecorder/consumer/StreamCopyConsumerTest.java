@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import de.sfuhrm.radiorecorder.BufferPool;
+import de.sfuhrm.radiorecorder.ConsumerContext;
+import de.sfuhrm.radiorecorder.Radio;
+import de.sfuhrm.radiorecorder.RadioException;
+import de.sfuhrm.radiorecorder.http.ByteBufferSource;
+import de.sfuhrm.radiorecorder.http.HttpConnection;
+import de.sfuhrm.radiorecorder.metadata.ContentType;
+import de.sfuhrm.radiorecorder.metadata.MimeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Mockito based test for {@link StreamCopyConsumer}.
+ * @author Stephan Fuhrmann
+ */
+@ExtendWith(MockitoExtension.class)
+public class StreamCopyConsumerTest {
+
+    @Mock
+    ConsumerContext consumerContext;
+
+    @Mock
+    HttpConnection httpConnection;
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] body = new byte[100_000];
+
+    @BeforeEach
+    public void init() {
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31);
+        }
+        Radio radio = new Radio();
+        radio.setName("radio");
+        radio.setUri(URI.create("http://localhost/"));
+        Mockito.lenient().when(consumerContext.getRadio()).thenReturn(radio);
+        Mockito.lenient().when(consumerContext.getUri()).thenReturn(radio.getUri());
+        Mockito.lenient().when(consumerContext.getTargetDirectory()).thenReturn(tempDir);
+        Mockito.lenient().when(consumerContext.getNoSongnameFormat()).thenReturn("${radioName}/stream${suffix}");
+        Mockito.lenient().when(consumerContext.getAbortAfterFileLength()).thenReturn(Optional.empty());
+        Mockito.lenient().when(consumerContext.getAbortAfterDuration()).thenReturn(Optional.empty());
+        Mockito.lenient().when(httpConnection.getContentType()).thenReturn("audio/mpeg");
+        Mockito.lenient().when(httpConnection.getHeaderFields()).thenReturn(Collections.emptyMap());
+    }
+
+    private Path target() {
+        return tempDir.resolve("radio").resolve("stream.mp3");
+    }
+
+    private void accept(InputStream inputStream) throws IOException {
+        Mockito.when(httpConnection.getInputStream()).thenReturn(inputStream);
+        new StreamCopyConsumer(consumerContext)._accept(httpConnection);
+    }
+
+    @Test
+    void transfersWholeStream() throws IOException {
+        accept(new ByteArrayInputStream(body));
+
+        assertArrayEquals(body, Files.readAllBytes(target()));
+    }
+
+    @Test
+    void usesContentTypeOfOwnConnection() {
+        ContentType resolved = ContentType.parse("audio/mpeg");
+        StreamCopyConsumer consumer = new StreamCopyConsumer(consumerContext, resolved);
+        assertSame(resolved, consumer.getContentType(httpConnection));
+
+        Mockito.when(httpConnection.getContentType()).thenReturn("audio/ogg");
+        assertEquals(Optional.of(MimeType.AUDIO_OGG), consumer.getContentType(httpConnection).getMimeType());
+    }
+
+    /** Hands out the body in direct buffers and fails on byte reads. */
+    private static class BufferStream extends InputStream implements ByteBufferSource {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final byte[] data;
+        private int offset;
+
+        BufferStream(byte[] data) {
+            this.data = data;
+            buffer.limit(0);
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException("Bytes read instead of buffers");
+        }
+
+        @Override
+        public boolean providesBuffers() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer nextBuffer() {
+            assertEquals(0, buffer.remaining());
+            if (offset == data.length) {
+                return null;
+            }
+            int count = Math.min(BUFFER_SIZE, data.length - offset);
+            buffer.clear();
+            buffer.put(data, offset, count).flip();
+            offset += count;
+            return buffer;
+        }
+    }
+
+    @Test
+    void transfersBuffers() throws IOException {
+        accept(new BufferStream(body));
+
+        assertArrayEquals(body, Files.readAllBytes(target()));
+    }
+
+    @Test
+    void abortsAfterFileLengthOnBuffers() throws IOException {
+        Mockito.when(consumerContext.getAbortAfterFileLength()).thenReturn(Optional.of(10_000L));
+
+        accept(new BufferStream(body));
+
+        long size = Files.size(target());
+        assertTrue(size > 10_000 && size <= 10_000 + BUFFER_SIZE, "size: " + size);
+    }
+
+    @Test
+    void abortsAfterFileLength() throws IOException {
+        Mockito.when(consumerContext.getAbortAfterFileLength()).thenReturn(Optional.of(10_000L));
+
+        accept(new ByteArrayInputStream(body));
+
+        long size = Files.size(target());
+        assertTrue(size > 10_000 && size <= 10_000 + BUFFER_SIZE, "size: " + size);
+    }
+
+    @Test
+    void brokenConnectionIsRetryable() {
+        InputStream broken = new SequenceInputStream(new ByteArrayInputStream(body), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        });
+
+        RadioException exception = assertThrows(RadioException.class, () -> accept(broken));
+        assertTrue(exception.isRetryable());
+    }
+
+    /** Returns chunks without allocating and measures the bytes allocated
+     * by the reading thread between the warm up and the end of the stream. */
+    private static class AllocationMeasuringStream extends InputStream {
+        private static final int CHUNK_SIZE = 1024;
+        private static final int WARMUP_CHUNKS = 1_000;
+        private static final int MEASURED_CHUNKS = 10_000;
+
+        private final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private int chunks;
+        private long allocatedAtStart;
+        private long allocated = -1;
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            chunks++;
+            if (chunks == WARMUP_CHUNKS + 1) {
+                allocatedAtStart = threadMXBean.getCurrentThreadAllocatedBytes();
+            } else if (chunks == WARMUP_CHUNKS + MEASURED_CHUNKS + 1) {
+                allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedAtStart;
+                return -1;
+            }
+            return Math.min(len, CHUNK_SIZE);
+        }
+    }
+
+    @Test
+    void copyLoopDoesNotAllocate() throws IOException {
+        Assumptions.assumeTrue(((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .isThreadAllocatedMemoryEnabled());
+        // metadata far behind the end of the stream forces the copy loop
+        Mockito.when(httpConnection.getHeaderFields())
+                .thenReturn(Map.of("icy-metaint", List.of(String.valueOf(Integer.MAX_VALUE))));
+        AllocationMeasuringStream stream = new AllocationMeasuringStream();
+
+        accept(stream);
+
+        assertEquals((long) AllocationMeasuringStream.CHUNK_SIZE
+                        * (AllocationMeasuringStream.WARMUP_CHUNKS + AllocationMeasuringStream.MEASURED_CHUNKS),
+                Files.size(target()));
+        // boxing a single value per chunk would be 16 bytes per chunk
+        assertTrue(stream.allocated < AllocationMeasuringStream.MEASURED_CHUNKS,
+                "allocated " + stream.allocated + " bytes in " + AllocationMeasuringStream.MEASURED_CHUNKS + " chunks");
+    }
+
+    @AfterEach
+    public void validate() {
+        Mockito.validateMockitoUsage();
+        BufferPool.getInstance().checkLeaks();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static de.sfuhrm.radiorecorder.RadioRunnable.BUFFER_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link WriteBehind} with a writer that is stalled for a while.
+ * @author Stephan Fuhrmann
+ */
+public class WriteBehindTest {
+
+    private static final int CAPACITY = 4;
+
+    private static final int CHUNKS = 20;
+
+    private static final long STALL_MILLIS = 500;
+
+    private final byte[] body = new byte[CHUNKS * BUFFER_SIZE];
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    private final CountDownLatch stall = new CountDownLatch(1);
+
+    private final List<Integer> actionOffsets = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void init() {
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31 + i / BUFFER_SIZE);
+        }
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(STALL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stall.countDown();
+        });
+    }
+
+    private WriteBehind newWriteBehind(WriteBehind.OverflowPolicy policy) {
+        return new WriteBehind("test", CAPACITY, policy, (b, off, len) -> {
+            try {
+                stall.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.write(b, off, len);
+        }, r -> Thread.ofVirtual().start(r));
+    }
+
+    /** Writes the body in chunks with an action after the first half. */
+    private void writeBody(WriteBehind writeBehind) throws IOException {
+        for (int i = 0; i < CHUNKS; i++) {
+            writeBehind.write(body, i * BUFFER_SIZE, BUFFER_SIZE);
+            if (i == CHUNKS / 2 - 1) {
+                writeBehind.submit(() -> actionOffsets.add(written.size()));
+            }
+        }
+        writeBehind.close();
+    }
+
+    @Test
+    void blockKeepsAllBytes() throws IOException {
+        WriteBehind writeBehind = newWriteBehind(WriteBehind.OverflowPolicy.BLOCK);
+        writeBody(writeBehind);
+
+        assertArrayEquals(body, written.toByteArray());
+        assertEquals(Collections.singletonList(body.length / 2), actionOffsets);
+        assertEquals(CAPACITY, writeBehind.getMaxDepth());
+        assertTrue(writeBehind.getBlockedMillis() > 0);
+    }
+
+    @Test
+    void dropLeavesGaps() throws IOException {
+        WriteBehind writeBehind = newWriteBehind(WriteBehind.OverflowPolicy.DROP);
+        writeBody(writeBehind);
+
+        assertTrue(writeBehind.getDroppedBytes() > 0);
+        assertEquals(body.length, written.size() + writeBehind.getDroppedBytes());
+        assertEquals(0, writeBehind.getDepth());
+    }
+
+    @Test
+    void spillKeepsOrder() throws IOException {
+        WriteBehind writeBehind = newWriteBehind(WriteBehind.OverflowPolicy.SPILL);
+        writeBody(writeBehind);
+
+        assertArrayEquals(body, written.toByteArray());
+        assertEquals(Collections.singletonList(body.length / 2), actionOffsets);
+        assertTrue(writeBehind.getSpilledBytes() > 0);
+        assertEquals(0, writeBehind.getBlockedMillis());
+    }
+
+    @Test
+    void writerFailureIsReported() throws IOException {
+        WriteBehind writeBehind = new WriteBehind("test", CAPACITY, WriteBehind.OverflowPolicy.BLOCK, (b, off, len) -> {
+            throw new IOException("Disk full");
+        }, r -> Thread.ofVirtual().start(r));
+
+        IOException exception = assertThrows(IOException.class, () -> {
+            for (int i = 0; i < CHUNKS; i++) {
+                writeBehind.write(body, i * BUFFER_SIZE, BUFFER_SIZE);
+            }
+            writeBehind.close();
+        });
+        assertEquals("Disk full", exception.getMessage());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link ApacheHttpClient5ConnectionBuilder} measuring the
+ * connect latency with and without pooling.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class ApacheHttpClient5ConnectionBuilderTest {
+
+    private static final int REQUESTS = 200;
+
+    private static final byte[] PLAYLIST = "http://localhost/stream\n".getBytes(StandardCharsets.US_ASCII);
+
+    private HttpServer server;
+
+    private final Set<InetSocketAddress> clientAddresses = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/playlist.m3u", exchange -> {
+            clientAddresses.add(exchange.getRemoteAddress());
+            exchange.getResponseHeaders().add("Content-Type", "audio/x-mpegurl");
+            exchange.sendResponseHeaders(200, PLAYLIST.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(PLAYLIST);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private URI uri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/playlist.m3u");
+    }
+
+    @Test
+    void build() throws IOException {
+        ApacheHttpClient5ConnectionBuilder builder = new ApacheHttpClient5ConnectionBuilder(uri());
+        try (HttpConnection connection = builder.build();
+             InputStream inputStream = connection.getInputStream()) {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("audio/x-mpegurl", connection.getContentType());
+            assertEquals(PLAYLIST.length, inputStream.readAllBytes().length);
+        }
+    }
+
+    @Test
+    void reusesConnections() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            pooled();
+        }
+        assertEquals(1, clientAddresses.size());
+    }
+
+    @Test
+    void holdsOneConnectionPerStation() {
+        // each recording holds its connection open for the whole stream
+        int stations = 100;
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            List<HttpConnection> connections = new ArrayList<>();
+            try {
+                for (int i = 0; i < stations; i++) {
+                    ApacheHttpClient5ConnectionBuilder builder = new ApacheHttpClient5ConnectionBuilder(uri());
+                    builder.setMaxConnectionsPerHost(stations);
+                    HttpConnection connection = builder.build();
+                    connections.add(connection);
+                    connection.getInputStream();
+                }
+            } finally {
+                for (HttpConnection connection : connections) {
+                    connection.close();
+                }
+            }
+            assertEquals(stations, connections.size());
+        });
+    }
+
+    @Test
+    @Tag("benchmark")
+    void compareConnectLatency() throws IOException {
+        // warm up both paths
+        pooled();
+        unpooled();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            pooled();
+        }
+        long pooledMicros = (System.nanoTime() - start) / 1000 / REQUESTS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            unpooled();
+        }
+        long unpooledMicros = (System.nanoTime() - start) / 1000 / REQUESTS;
+
+        log.info("Average request latency: pooled {} us, unpooled {} us", pooledMicros, unpooledMicros);
+        assertTrue(pooledMicros < unpooledMicros);
+    }
+
+    private void pooled() throws IOException {
+        ApacheHttpClient5ConnectionBuilder builder = new ApacheHttpClient5ConnectionBuilder(uri());
+        builder.setConnectTimeout(5000);
+        try (HttpConnection connection = builder.build();
+             InputStream inputStream = connection.getInputStream()) {
+            inputStream.readAllBytes();
+        }
+    }
+
+    /** The behaviour before pooling: one new client per connection. */
+    private void unpooled() throws IOException {
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            HttpHost host = HttpHost.create(uri());
+            try (ClassicHttpResponse response = client.executeOpen(host, ClassicRequestBuilder.get(uri()).build(), null);
+                 InputStream inputStream = response.getEntity().getContent()) {
+                inputStream.readAllBytes();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import org.apache.hc.client5.http.DnsResolver;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test for {@link CachingDnsResolver}.
+ * @author Stephan Fuhrmann
+ */
+public class CachingDnsResolverTest {
+
+    @Test
+    void resolveIsCached() throws UnknownHostException {
+        InetAddress[] addresses = { InetAddress.getLoopbackAddress() };
+        DnsResolver delegate = Mockito.mock(DnsResolver.class);
+        Mockito.when(delegate.resolve("example.com")).thenReturn(addresses);
+
+        CachingDnsResolver resolver = new CachingDnsResolver(delegate, Duration.ofMinutes(1));
+        assertArrayEquals(addresses, resolver.resolve("example.com"));
+        assertArrayEquals(addresses, resolver.resolve("EXAMPLE.com"));
+
+        Mockito.verify(delegate, Mockito.times(1)).resolve(Mockito.anyString());
+    }
+
+    @Test
+    void resolveExpires() throws UnknownHostException {
+        InetAddress[] addresses = { InetAddress.getLoopbackAddress() };
+        DnsResolver delegate = Mockito.mock(DnsResolver.class);
+        Mockito.when(delegate.resolve("example.com")).thenReturn(addresses);
+
+        CachingDnsResolver resolver = new CachingDnsResolver(delegate, Duration.ofMillis(-1));
+        resolver.resolve("example.com");
+        resolver.resolve("example.com");
+
+        Mockito.verify(delegate, Mockito.times(2)).resolve("example.com");
+    }
+
+    @Test
+    void failureIsNotCached() throws UnknownHostException {
+        DnsResolver delegate = Mockito.mock(DnsResolver.class);
+        Mockito.when(delegate.resolve("unknown.invalid")).thenThrow(new UnknownHostException());
+
+        CachingDnsResolver resolver = new CachingDnsResolver(delegate, Duration.ofMinutes(1));
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.invalid"));
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.invalid"));
+
+        Mockito.verify(delegate, Mockito.times(2)).resolve("unknown.invalid");
+    }
+}
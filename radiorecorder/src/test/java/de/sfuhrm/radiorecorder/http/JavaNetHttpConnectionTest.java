@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Test for {@link JavaNetHttpConnection} with a side-by-side
+ * benchmark against the Apache client.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class JavaNetHttpConnectionTest {
+
+    private static final int BENCHMARK_BYTES = 64 * 1024 * 1024;
+
+    private HttpServer server;
+
+    private final byte[] body = "Hello World".getBytes();
+
+    /** Released when the stalled body may end. */
+    private final CountDownLatch stall = new CountDownLatch(1);
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/body", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 0);
+            byte[] chunk = new byte[65536];
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int i = 0; i < BENCHMARK_BYTES / chunk.length; i++) {
+                    os.write(chunk);
+                }
+            }
+        });
+        server.createContext("/stall", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+                os.flush();
+                stall.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        stall.countDown();
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    void build() throws IOException {
+        JavaNetHttpConnectionBuilder builder = new JavaNetHttpConnectionBuilder(uri("/body"));
+        builder.setConnectTimeout(5000);
+        builder.setReadTimeout(5000);
+        builder.setRequestProperty("Icy-Metadata", "1");
+        try (HttpConnection connection = builder.build()) {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("audio/mpeg", connection.getContentType());
+            assertEquals(uri("/body"), connection.getURI());
+            assertArrayEquals(body, connection.getInputStream().readAllBytes());
+        }
+    }
+
+    @Test
+    void stalledBodyTimesOut() {
+        JavaNetHttpConnectionBuilder builder = new JavaNetHttpConnectionBuilder(uri("/stall"));
+        builder.setConnectTimeout(5000);
+        builder.setReadTimeout(200);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (HttpConnection connection = builder.build()) {
+                InputStream inputStream = connection.getInputStream();
+                assertArrayEquals(body, inputStream.readNBytes(body.length));
+                assertThrows(SocketTimeoutException.class, inputStream::read);
+            }
+        });
+    }
+
+    /** Compares time-to-first-byte and sustained throughput of the backends.
+     * Each backend gets a warm-up transfer that is not reported.
+     * Only runs with the benchmark profile. */
+    @Test
+    @Tag("benchmark")
+    void compareBackends() throws IOException {
+        for (HttpConnectionBuilderFactory.HttpClientType type : HttpConnectionBuilderFactory.HttpClientType.values()) {
+            // warm up
+            transfer(type);
+            Transfer transfer = transfer(type);
+            log.info("{}: first byte after {} us, {} bytes in {} ms, {} MB/s",
+                    type, transfer.firstByteMicros, transfer.bytes, transfer.millis,
+                    transfer.bytes / 1024 / 1024 * 1000 / transfer.millis);
+            assertEquals(BENCHMARK_BYTES, transfer.bytes);
+        }
+    }
+
+    /** The measurements of one transfer. */
+    private static final class Transfer {
+        private final long firstByteMicros;
+        private final long bytes;
+        private final long millis;
+
+        Transfer(long firstByteMicros, long bytes, long millis) {
+            this.firstByteMicros = firstByteMicros;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+    }
+
+    private Transfer transfer(HttpConnectionBuilderFactory.HttpClientType type) throws IOException {
+        HttpConnectionBuilder builder = new HttpConnectionBuilderFactory(type).newInstance(uri("/stream"));
+        byte[] buffer = new byte[8192];
+        long start = System.nanoTime();
+        long firstByteMicros;
+        long total = 0;
+        int len;
+        try (HttpConnection connection = builder.build();
+             InputStream inputStream = connection.getInputStream()) {
+            len = inputStream.read(buffer);
+            firstByteMicros = (System.nanoTime() - start) / 1000;
+            while (len != -1) {
+                total += len;
+                len = inputStream.read(buffer);
+            }
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        return new Transfer(firstByteMicros, total, millis);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.http;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Test for {@link NioHttpConnection} against a local server.
+ * @author Stephan Fuhrmann
+ */
+@Slf4j
+public class NioHttpConnectionTest {
+
+    private static final int BENCHMARK_BYTES = 64 * 1024 * 1024;
+
+    private HttpServer server;
+
+    private final byte[] body = new byte[100_000];
+
+    @BeforeEach
+    public void init() throws IOException {
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/body", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.getResponseHeaders().add("icy-metaint", "8000");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/body");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/benchmark", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, BENCHMARK_BYTES);
+            byte[] chunk = new byte[65536];
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int i = 0; i < BENCHMARK_BYTES / chunk.length; i++) {
+                    os.write(chunk);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static byte[] readFully(HttpConnectionBuilder builder) throws IOException {
+        try (HttpConnection connection = builder.build();
+             InputStream inputStream = connection.getInputStream()) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    @Test
+    void readBody() throws IOException {
+        NioHttpConnectionBuilder builder = new NioHttpConnectionBuilder(uri("/body"));
+        builder.setReadTimeout(5000);
+        builder.setConnectTimeout(5000);
+        try (HttpConnection connection = builder.build()) {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("audio/mpeg", connection.getContentType());
+            assertEquals("8000", connection.getHeaderFields().get("icy-metaint").get(0));
+            assertArrayEquals(body, connection.getInputStream().readAllBytes());
+        }
+    }
+
+    @Test
+    void readBodyBuffers() throws IOException {
+        NioHttpConnectionBuilder builder = new NioHttpConnectionBuilder(uri("/body"));
+        builder.setReadTimeout(5000);
+        try (HttpConnection connection = builder.build()) {
+            ByteBufferSource source = ByteBufferSource.of(connection.getInputStream());
+            assertNotNull(source);
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            ByteBuffer buffer;
+            while ((buffer = source.nextBuffer()) != null) {
+                byte[] chunk = new byte[buffer.remaining()];
+                buffer.get(chunk);
+                received.write(chunk);
+            }
+            assertArrayEquals(body, received.toByteArray());
+        }
+    }
+
+    @Test
+    void followRedirect() throws IOException {
+        NioHttpConnectionBuilder builder = new NioHttpConnectionBuilder(uri("/redirect"));
+        assertArrayEquals(body, readFully(builder));
+    }
+
+    @Test
+    void readIcyResponse() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread serverThread = Thread.ofVirtual().start(() -> {
+                try (Socket socket = serverSocket.accept();
+                     OutputStream os = socket.getOutputStream()) {
+                    // consume request header
+                    byte[] request = new byte[1024];
+                    int unused = socket.getInputStream().read(request);
+                    os.write("ICY 200 OK\r\nicy-name:Test\r\ncontent-type:audio/mpeg\r\n\r\nhello".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    log.warn("Server problem", e);
+                }
+            });
+            NioHttpConnectionBuilder builder = new NioHttpConnectionBuilder(
+                    URI.create("http://localhost:" + serverSocket.getLocalPort() + "/"));
+            try (HttpConnection connection = builder.build()) {
+                assertEquals(200, connection.getResponseCode());
+                assertEquals("OK", connection.getResponseMessage());
+                assertEquals("audio/mpeg", connection.getContentType());
+                assertEquals("Test", connection.getHeaderFields().get("icy-name").get(0));
+                assertEquals("hello", new String(connection.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+            }
+            serverThread.join();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Test
+    void findHeaderEnd() {
+        byte[] crlf = "HTTP/1.0 200 OK\r\nA: b\r\n\r\nbody".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(crlf.length - 4, NioHttpConnection.findHeaderEnd(crlf, crlf.length));
+        byte[] lf = "ICY 200 OK\nA: b\n\nbody".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(lf.length - 4, NioHttpConnection.findHeaderEnd(lf, lf.length));
+        byte[] incomplete = "HTTP/1.0 200 OK\r\nA: b\r\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(-1, NioHttpConnection.findHeaderEnd(incomplete, incomplete.length));
+    }
+
+    /** Compares the throughput of the blocking and the NIO client.
+     * Only runs with the benchmark profile. */
+    @Test
+    @Tag("benchmark")
+    void compareThroughput() throws IOException {
+        for (HttpConnectionBuilderFactory.HttpClientType type : Arrays.asList(
+                HttpConnectionBuilderFactory.HttpClientType.APACHE_CLIENT_5,
+                HttpConnectionBuilderFactory.HttpClientType.NIO)) {
+            HttpConnectionBuilder builder = new HttpConnectionBuilderFactory(type).newInstance(uri("/benchmark"));
+            long start = System.nanoTime();
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            int len;
+            try (HttpConnection connection = builder.build();
+                 InputStream inputStream = connection.getInputStream()) {
+                while ((len = inputStream.read(buffer)) != -1) {
+                    total += len;
+                }
+            }
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            log.info("{}: {} bytes in {} ms, {} MB/s", type, total, millis, total / 1024 / 1024 * 1000 / millis);
+            assertEquals(BENCHMARK_BYTES, total);
+        }
+    }
+}
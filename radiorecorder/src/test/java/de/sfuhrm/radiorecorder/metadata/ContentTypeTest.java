@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.metadata;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link ContentType}.
+ * @author Stephan Fuhrmann
+ */
+public class ContentTypeTest {
+
+    @Test
+    void parseWithoutParameters() {
+        ContentType contentType = ContentType.parse("audio/mpeg");
+        assertEquals(Optional.of(MimeType.AUDIO_MPEG), contentType.getMimeType());
+        assertEquals(Optional.of("audio/mpeg"), contentType.getTypeSubtype());
+        assertEquals(Optional.empty(), contentType.getCharset());
+        assertEquals("audio/mpeg", contentType.getValue());
+    }
+
+    @Test
+    void parseIgnoresCase() {
+        ContentType contentType = ContentType.parse("Audio/AACP; Charset=UTF-8");
+        assertEquals(Optional.of(MimeType.AUDIO_AAC), contentType.getMimeType());
+        assertEquals(Optional.of("audio/aacp"), contentType.getTypeSubtype());
+        assertEquals(Optional.of("UTF-8"), contentType.getCharset());
+        assertEquals(Optional.of("UTF-8"), contentType.getParameter("CHARSET"));
+    }
+
+    @Test
+    void parseQuotedParameters() {
+        ContentType contentType = ContentType.parse("audio/mp4 ; codecs=\"mp4a.40.2; x\";charset=iso-8859-1; flag");
+        assertEquals(Optional.of(MimeType.AUDIO_AAC), contentType.getMimeType());
+        assertEquals(Optional.of("mp4a.40.2; x"), contentType.getCodecs());
+        assertEquals(Optional.of("iso-8859-1"), contentType.getCharset());
+        assertEquals(Optional.empty(), contentType.getParameter("flag"));
+    }
+
+    @Test
+    void parseUnknown() {
+        ContentType contentType = ContentType.parse("foo/bar");
+        assertEquals(Optional.empty(), contentType.getMimeType());
+        assertEquals(Optional.of("foo/bar"), contentType.getTypeSubtype());
+    }
+
+    @Test
+    void parseNull() {
+        ContentType contentType = ContentType.parse(null);
+        assertSame(ContentType.NONE, contentType);
+        assertEquals(Optional.empty(), contentType.getMimeType());
+        assertEquals(Optional.empty(), contentType.getTypeSubtype());
+        assertTrue(contentType.isParsedFrom(null));
+    }
+
+    @Test
+    void isParsedFrom() {
+        ContentType contentType = ContentType.parse("audio/mpeg");
+        assertTrue(contentType.isParsedFrom("audio/mpeg"));
+        assertFalse(contentType.isParsedFrom("audio/ogg"));
+        assertFalse(contentType.isParsedFrom(null));
+    }
+}
@@ -16,9 +16,18 @@
 package de.sfuhrm.radiorecorder.metadata;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -82,4 +91,230 @@ public class IcyMetaFilterStreamTest {
         assertEquals("world", icy.getLastMetaData());        
     }
     
+    private static byte[] threeIntervals(byte[] b) {
+        ByteBuffer bb = ByteBuffer.allocate(256);
+        bb.put(b).put(streamTitle("hello"))
+                .put(b).put((byte) 0)
+                .put(b).put(streamTitle("world"))
+                .put(b);
+        return java.util.Arrays.copyOf(bb.array(), bb.position());
+    }
+
+    @Test
+    void readsAcrossIntervals() throws IOException {
+        byte[] b = {1, 2, 3, 4};
+        IcyMetaFilterStream icy = new IcyMetaFilterStream(4, new ByteArrayInputStream(threeIntervals(b)));
+        byte[] r = new byte[64];
+
+        assertEquals(16, icy.read(r, 0, r.length));
+        for (int i = 0; i < 16; i++) {
+            assertEquals(b[i % 4], r[i]);
+        }
+        assertEquals("world", icy.getLastMetaData());
+        assertEquals(-1, icy.read(r, 0, r.length));
+    }
+
+    @Test
+    void stopsAtIntervalWithoutAvailableBytes() throws IOException {
+        byte[] b = {1, 2, 3, 4};
+        InputStream blocking = new FilterInputStream(new ByteArrayInputStream(threeIntervals(b))) {
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+        IcyMetaFilterStream icy = new IcyMetaFilterStream(4, blocking);
+        byte[] r = new byte[64];
+
+        assertEquals(4, icy.read(r, 0, r.length));
+        assertNull(icy.getLastMetaData());
+        assertEquals(4, icy.read(r, 0, r.length));
+        assertEquals("hello", icy.getLastMetaData());
+    }
+
+    @Test
+    void stopsAtIntervalWithoutAvailableBlock() throws IOException {
+        byte[] b = {1, 2, 3, 4};
+        // only the length byte of the metadata block is available
+        InputStream trickling = new FilterInputStream(new ByteArrayInputStream(threeIntervals(b))) {
+            @Override
+            public int available() {
+                return 1;
+            }
+        };
+        IcyMetaFilterStream icy = new IcyMetaFilterStream(4, trickling);
+        byte[] r = new byte[64];
+
+        assertEquals(4, icy.read(r, 0, r.length));
+        assertNull(icy.getLastMetaData());
+        // the empty block after the second interval is crossed
+        assertEquals(8, icy.read(r, 0, r.length));
+        assertEquals("hello", icy.getLastMetaData());
+        assertEquals(4, icy.read(r, 0, r.length));
+        assertEquals("world", icy.getLastMetaData());
+        assertArrayEquals(b, java.util.Arrays.copyOf(r, 4));
+        assertEquals(-1, icy.read(r, 0, r.length));
+    }
+
+    @Test
+    void failureAfterBytesIsThrownByNextRead() throws IOException {
+        byte[] b = {1, 2, 3, 4};
+        byte[] data = threeIntervals(b);
+        // breaks down right before the second metadata block
+        int brokenAt = 4 + streamTitle("hello").length + 4;
+        InputStream breaking = new FilterInputStream(new ByteArrayInputStream(data, 0, brokenAt)) {
+            @Override
+            public int read() throws IOException {
+                int result = super.read();
+                if (result == -1) {
+                    throw new IOException("Connection reset");
+                }
+                return result;
+            }
+
+            @Override
+            public int available() {
+                return data.length;
+            }
+        };
+        IcyMetaFilterStream icy = new IcyMetaFilterStream(4, breaking);
+        byte[] r = new byte[64];
+
+        assertEquals(8, icy.read(r, 0, r.length));
+        assertEquals("hello", icy.getLastMetaData());
+        assertThrows(IOException.class, () -> icy.read(r, 0, r.length));
+    }
+
+    /** The title pattern of the former regex based parser. */
+    private static final Pattern STREAM_TITLE = Pattern.compile("StreamTitle='(([^']|('[^;]))*)';");
+
+    /** The URL pattern of the former regex based parser. */
+    private static final Pattern STREAM_URL = Pattern.compile("StreamURL='(([^']|('[^;]))*)';");
+
+    private static String regexValue(Pattern pattern, String meta) {
+        Matcher matcher = pattern.matcher(meta);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    @Test
+    void valueMatchesRegex() {
+        String[] blocks = {
+            "StreamTitle='hello';",
+            "StreamTitle='Guns N' Roses - Don't Cry';StreamUrl='';",
+            "StreamTitle='a'';b';",
+            "StreamTitle='';",
+            "StreamTitle='unterminated'",
+            "StreamTitle='broken StreamTitle='second';",
+            "StreamTitle='x';StreamURL='http://localhost/';",
+            "StreamURL='http://localhost/';",
+            "nothing",
+            ""
+        };
+        for (String block : blocks) {
+            byte[] bytes = block.getBytes(StandardCharsets.UTF_8);
+            assertEquals(regexValue(STREAM_TITLE, block),
+                    IcyMetaFilterStream.value(bytes, bytes.length, "StreamTitle='".getBytes(StandardCharsets.UTF_8)),
+                    block);
+            assertEquals(regexValue(STREAM_URL, block),
+                    IcyMetaFilterStream.value(bytes, bytes.length, "StreamURL='".getBytes(StandardCharsets.UTF_8)),
+                    block);
+        }
+    }
+
+    @Test
+    void passesOnlyChanges() throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(256);
+        byte[] b = new byte[4];
+        bb.put(b).put(streamTitle("hello"))
+                .put(b).put(streamTitle("hello"))
+                .put(b).put((byte) 0)
+                .put(b).put(streamTitle("world"))
+                .put(b).put(streamTitle("hello"))
+                .put(b);
+
+        IcyMetaFilterStream icy = new IcyMetaFilterStream(4, new ByteArrayInputStream(bb.array(), 0, bb.position()));
+        List<String> seen = new ArrayList<>();
+        icy.setMetaDataConsumer(seen::add);
+        byte[] r = new byte[4];
+        int total = 0;
+        int c;
+        while ((c = icy.read(r)) != -1) {
+            total += c;
+        }
+        assertEquals(24, total);
+        assertEquals(List.of("hello", "world", "hello"), seen);
+    }
+
+    /** Builds a stream with metadata after every interval, changing
+     * every {@code changeEvery} blocks. */
+    private static byte[] benchmarkStream(int interval, int blocks, int changeEvery) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] body = new byte[interval];
+        for (int i = 0; i < blocks; i++) {
+            baos.writeBytes(body);
+            baos.writeBytes(streamTitle("Artist " + (i / changeEvery) + " - Title"));
+        }
+        return baos.toByteArray();
+    }
+
+    /** Demultiplexes like the former implementation, decoding
+     * and matching every block.
+     * @return the number of changes seen.
+     */
+    private static int regexDemultiplex(InputStream inputStream, int interval) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] body = new byte[interval];
+        String last = null;
+        int changes = 0;
+        while (in.read(body) == interval) {
+            int length = in.readUnsignedByte() * 16;
+            byte[] metaData = new byte[length];
+            in.readFully(metaData);
+            int stringLen = 0;
+            while (stringLen < length && metaData[stringLen] != 0) {
+                stringLen++;
+            }
+            String meta = new String(metaData, 0, stringLen, StandardCharsets.UTF_8);
+            String title = regexValue(STREAM_TITLE, meta);
+            if (title != null && !title.equals(last)) {
+                changes++;
+                last = title;
+            }
+            regexValue(STREAM_URL, meta);
+        }
+        return changes;
+    }
+
+    private static int demultiplex(InputStream inputStream, int interval) throws IOException {
+        IcyMetaFilterStream icy = new IcyMetaFilterStream(interval, inputStream);
+        int[] changes = new int[1];
+        icy.setMetaDataConsumer(m -> changes[0]++);
+        byte[] body = new byte[interval];
+        while (icy.read(body) != -1) {
+            // only the metadata is of interest
+        }
+        return changes[0];
+    }
+
+    @Test
+    void comparesWithRegexParsing() throws IOException {
+        int interval = 16;
+        int blocks = 200_000;
+        int changeEvery = 100;
+        byte[] stream = benchmarkStream(interval, blocks, changeEvery);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int regexChanges = regexDemultiplex(new ByteArrayInputStream(stream), interval);
+            long regexNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int changes = demultiplex(new ByteArrayInputStream(stream), interval);
+            long nanos = System.nanoTime() - start;
+
+            System.out.printf("Round %d: regex %d ns/block, byte compare %d ns/block%n",
+                    round, regexNanos / blocks, nanos / blocks);
+            assertEquals(blocks / changeEvery, regexChanges);
+            assertEquals(blocks / changeEvery, changes);
+        }
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.metadata;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test for {@link MetaData}.
+ * @author Stephan Fuhrmann
+ */
+public class MetaDataTest {
+
+    /** The entries retained by the footprint test. */
+    private static final int ENTRIES = 1_000_000;
+
+    @Test
+    void emptyFieldsAreEmptyOptionals() {
+        MetaData metaData = new MetaData();
+        assertEquals(Optional.empty(), metaData.getIndex());
+        assertEquals(Optional.empty(), metaData.getArtist());
+        assertEquals(Optional.empty(), metaData.getTitle());
+        assertEquals(Optional.empty(), metaData.getStationName());
+        assertEquals(Optional.empty(), metaData.getStationUrl());
+        assertEquals(Optional.empty(), metaData.getOffset());
+        assertEquals("", metaData.toString());
+    }
+
+    @Test
+    void keepsCreationZone() {
+        ZonedDateTime created = ZonedDateTime.parse("2026-03-14T10:00:00.123+01:00");
+        MetaData metaData = MetaData.builder().created(created).build();
+        assertEquals(created, metaData.getCreated());
+        assertEquals(created.toInstant().toEpochMilli(), metaData.getCreatedMillis());
+    }
+
+    @Test
+    void nextKeepsStation() {
+        MetaData first = new MetaData()
+                .withStationName("Radio")
+                .withStationUrl("http://localhost/");
+        MetaData second = first.next(1000, 42, "Artist", "Title");
+
+        assertEquals(Optional.of(0), second.getIndex());
+        assertEquals(Optional.of(42L), second.getOffset());
+        assertEquals(1000, second.getCreatedMillis());
+        assertEquals(Optional.of("Radio"), second.getStationName());
+        assertEquals(Optional.of("http://localhost/"), second.getStationUrl());
+        assertEquals("Artist - Title - Radio", second.toString());
+        assertEquals(Optional.empty(), first.getTitle());
+    }
+
+    @Test
+    void internsStationStrings() {
+        MetaData first = new MetaData().withStationName(new String("Radio"));
+        MetaData second = new MetaData().withStationName(new String("Radio"));
+        assertSame(first.getStationName().get(), second.getStationName().get());
+    }
+
+    private static long usedHeap(MemoryMXBean memoryMXBean) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    void retainsMillionEntriesCompactly() {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        MetaData template = new MetaData()
+                .withStationName("Radio")
+                .withStationUrl("http://localhost/");
+        MetaData[] history = new MetaData[ENTRIES];
+        long before = usedHeap(memoryMXBean);
+        for (int i = 0; i < history.length; i++) {
+            history[i] = template.next(i, i * 1000L, "Artist", "Title");
+        }
+        long after = usedHeap(memoryMXBean);
+
+        long bytesPerEntry = (after - before) / ENTRIES;
+        System.out.printf("%d bytes per retained entry%n", bytesPerEntry);
+        // the six Optionals, boxed numbers and the ZonedDateTime took more than 200 bytes
+        assertTrue(bytesPerEntry < 100, "bytes per entry: " + bytesPerEntry);
+        assertEquals(Optional.of((ENTRIES - 1) * 1000L), history[ENTRIES - 1].getOffset());
+    }
+}
@@ -42,4 +42,20 @@ public class MimeTypeTest {
         Optional<MimeType> mimeType = MimeType.byContentType("foo/bar");
         assertThat(mimeType, is(Optional.empty()));
     }
+
+    @Test
+    void byContentTypeIgnoresCaseAndParameters() {
+        assertThat(MimeType.byContentType("Audio/X-Scpls ; charset=UTF-8"), is(Optional.of(MimeType.AUDIO_XSCPLS)));
+        assertThat(MimeType.byContentType("audio/mp4;codecs=mp4a.40.2"), is(Optional.of(MimeType.AUDIO_AAC)));
+    }
+
+    @Test
+    void everyContentTypeIsFound() {
+        for (MimeType mimeType : MimeType.values()) {
+            for (String contentType : mimeType.getContentTypes()) {
+                assertThat(MimeType.byContentType(contentType), is(Optional.of(mimeType)));
+                assertThat(mimeType.matches(contentType), is(true));
+            }
+        }
+    }
 }
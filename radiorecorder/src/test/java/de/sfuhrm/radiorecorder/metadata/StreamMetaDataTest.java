@@ -21,6 +21,7 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  * Test for {@link  StreamMetaData}
@@ -40,13 +41,14 @@ public class StreamMetaDataTest {
 
     @Test
     public void parseWithExistingTemplate() {
-        MetaData old = new MetaData();
-        old.setIndex(Optional.of(1));
-        old.setOffset(Optional.of(42L));
-        old.setStationUrl(Optional.of("http://www.google.com/"));
-        old.setStationName(Optional.of("Google Radio"));
-        old.setTitle(Optional.of("Old McDonald had a farm"));
-        old.setArtist(Optional.of("Farmer McDonald"));
+        MetaData old = MetaData.builder()
+                .index(1)
+                .offset(42L)
+                .stationUrl("http://www.google.com/")
+                .stationName("Google Radio")
+                .title("Old McDonald had a farm")
+                .artist("Farmer McDonald")
+                .build();
 
         MetaData actual = StreamMetaData.parse(old, 43, "dipsy - tinkywinky");
 
@@ -58,13 +60,14 @@ public class StreamMetaDataTest {
 
     @Test
     public void parseWithMalformedMetadata() {
-        MetaData old = new MetaData();
-        old.setIndex(Optional.of(1));
-        old.setOffset(Optional.of(42L));
-        old.setStationUrl(Optional.of("http://www.google.com/"));
-        old.setStationName(Optional.of("Google Radio"));
-        old.setTitle(Optional.of("Old McDonald had a farm"));
-        old.setArtist(Optional.of("Farmer McDonald"));
+        MetaData old = MetaData.builder()
+                .index(1)
+                .offset(42L)
+                .stationUrl("http://www.google.com/")
+                .stationName("Google Radio")
+                .title("Old McDonald had a farm")
+                .artist("Farmer McDonald")
+                .build();
 
         MetaData actual = StreamMetaData.parse(old, 66, "this is really malformed");
 
@@ -73,4 +76,14 @@ public class StreamMetaDataTest {
         assertEquals(Optional.of(2), actual.getIndex());
         assertEquals(Optional.of(66L), actual.getOffset());
     }
+
+    @Test
+    public void parseRepeatedTitleSharesStrings() {
+        MetaData first = StreamMetaData.parse(new MetaData(), 0, "Station - Jingle");
+        MetaData second = StreamMetaData.parse(first, 100, new String("Station - Jingle"));
+
+        assertSame(first.getArtist().get(), second.getArtist().get());
+        assertSame(first.getTitle().get(), second.getTitle().get());
+        assertEquals(Optional.of(1), second.getIndex());
+    }
 }
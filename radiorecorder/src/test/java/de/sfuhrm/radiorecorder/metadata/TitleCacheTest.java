@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Stephan Fuhrmann.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sfuhrm.radiorecorder.metadata;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Test for {@link TitleCache}.
+ * @author Stephan Fuhrmann
+ */
+public class TitleCacheTest {
+
+    private final List<String> parsed = new ArrayList<>();
+
+    private TitleCache.Entry parse(String streamTitle) {
+        parsed.add(streamTitle);
+        return new TitleCache.Entry(null, streamTitle);
+    }
+
+    @Test
+    void parsesRepeatedTitlesOnce() {
+        TitleCache cache = new TitleCache(10);
+        TitleCache.Entry jingle = cache.get("Jingle", this::parse);
+        cache.get("Artist - Song", this::parse);
+        assertSame(jingle, cache.get("Jingle", this::parse));
+        cache.get("Jingle", this::parse);
+
+        assertEquals(List.of("Jingle", "Artist - Song"), parsed);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+        assertEquals(2, cache.size());
+        assertEquals("2 hits, 2 misses, 50.0% hit rate, 2 titles", cache.toString());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        TitleCache cache = new TitleCache(2);
+        cache.get("a", this::parse);
+        cache.get("b", this::parse);
+        cache.get("a", this::parse);
+        cache.get("c", this::parse);
+        cache.get("a", this::parse);
+        cache.get("b", this::parse);
+
+        assertEquals(List.of("a", "b", "c", "b"), parsed);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void hitRateWithoutLookups() {
+        assertEquals(0, new TitleCache(1).getHitRate());
+    }
+}